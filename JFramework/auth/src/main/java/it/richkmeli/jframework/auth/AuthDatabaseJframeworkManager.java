@@ -9,7 +9,10 @@ import it.richkmeli.jframework.orm.DatabaseException;
 import it.richkmeli.jframework.orm.DatabaseManager;
 import it.richkmeli.jframework.util.log.Logger;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Using Jframework ORM
@@ -19,14 +22,8 @@ public class AuthDatabaseJframeworkManager extends DatabaseManager implements Au
     public AuthDatabaseJframeworkManager(String database) throws DatabaseException {
         schemaName = "AuthSchema";
         tableName = schemaName + "." + "auth";
-        table = "(" +
-                "email VARCHAR(50) NOT NULL," +
-                "password VARCHAR(100) NOT NULL," +
-                "admin BOOLEAN NOT NULL " + ("mysql".equalsIgnoreCase(dbtype) ? "DEFAULT 0" : "") + "," +
-                "PRIMARY KEY (email)" +
-                ")";
-
-        init(database);
+        // table generated from the annotations of User
+        init(database, User.class);
     }
 
     public AuthDatabaseJframeworkManager() throws DatabaseException {
@@ -50,6 +47,23 @@ public class AuthDatabaseJframeworkManager extends DatabaseManager implements Au
         }
     }
 
+    /**
+     * Reads the users with the given emails with a few statements, e.g. the owners of a list of devices.
+     *
+     * @return the users found, keyed by email
+     */
+    public Map<String, User> getUsers(Collection<String> emails) throws AuthDatabaseException {
+        Map<String, User> users = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Object, User> entry : readAllByIds(User.class, emails).entrySet()) {
+                users.put((String) entry.getKey(), entry.getValue());
+            }
+        } catch (DatabaseException e) {
+            throw new AuthDatabaseException(e);
+        }
+        return users;
+    }
+
     @Override
     public boolean addUser(User user) throws AuthDatabaseException {
         //Logger.info("AuthDatabaseManager, addUser. User: " + user.email);
@@ -63,6 +77,19 @@ public class AuthDatabaseJframeworkManager extends DatabaseManager implements Au
         }
     }
 
+    /**
+     * Adds all the users with a single transaction, using JDBC batches.
+     */
+    public boolean addUsers(List<User> users) throws AuthDatabaseException {
+        for (User user : users) {
+            user.setPassword(Crypto.hashPassword(user.getPassword(), false));
+        }
+        try {
+            return createAll(users);
+        } catch (DatabaseException e) {
+            throw new AuthDatabaseException(e);
+        }
+    }
 
     @Override
     public boolean removeUser(String email) throws AuthDatabaseException, ModelException {
@@ -76,7 +103,11 @@ public class AuthDatabaseJframeworkManager extends DatabaseManager implements Au
 
     @Override
     public boolean isUserPresent(String email) throws AuthDatabaseException, ModelException {
-        return getUser(email) != null;
+        try {
+            return exists(new User(email, null));
+        } catch (DatabaseException e) {
+            throw new AuthDatabaseException(e);
+        }
     }
 
     @Override
@@ -110,7 +141,12 @@ public class AuthDatabaseJframeworkManager extends DatabaseManager implements Au
 
     @Override
     public boolean isAdmin(String email) throws AuthDatabaseException, ModelException {
-        User user = getUser(email);
+        User user;
+        try {
+            user = read(new User(email, null), "admin");
+        } catch (DatabaseException e) {
+            throw new AuthDatabaseException(e);
+        }
         if (user != null) {
             return user.getAdmin();
         } else {
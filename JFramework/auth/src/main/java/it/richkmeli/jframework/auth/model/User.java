@@ -2,14 +2,20 @@ package it.richkmeli.jframework.auth.model;
 
 
 import it.richkmeli.jframework.auth.model.exception.ModelException;
+import it.richkmeli.jframework.orm.annotation.Cacheable;
+import it.richkmeli.jframework.orm.annotation.Column;
 import it.richkmeli.jframework.orm.annotation.Id;
 import it.richkmeli.jframework.util.regex.RegexManager;
 import it.richkmeli.jframework.util.regex.exception.RegexException;
 
+@Cacheable
 public class User {
     @Id
+    @Column(length = 50)
     private String email;
+    @Column(length = 100, nullable = false)
     private String password;
+    @Column(nullable = false)
     private Boolean admin;
 
     public User(){}
@@ -1,17 +1,75 @@
 package it.richkmeli.jframework.orm;
 
-import it.richkmeli.jframework.orm.annotation.Id;
+import it.richkmeli.jframework.orm.annotation.Cacheable;
+import it.richkmeli.jframework.orm.annotation.FetchType;
+import it.richkmeli.jframework.orm.annotation.Resident;
+import it.richkmeli.jframework.orm.annotation.WriteBehind;
+import it.richkmeli.jframework.orm.async.AsyncExecutor;
+import it.richkmeli.jframework.orm.async.AsyncStatistics;
+import it.richkmeli.jframework.orm.async.WriteBehindBuffer;
+import it.richkmeli.jframework.orm.async.WriteBehindStatistics;
+import it.richkmeli.jframework.orm.cache.CacheStatistics;
+import it.richkmeli.jframework.orm.cache.EntityCache;
+import it.richkmeli.jframework.orm.cache.ResidentStatistics;
+import it.richkmeli.jframework.orm.cache.ResidentTable;
+import it.richkmeli.jframework.orm.entity.ColumnMetadata;
+import it.richkmeli.jframework.orm.entity.EntityMapper;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+import it.richkmeli.jframework.orm.entity.EntitySchema;
+import it.richkmeli.jframework.orm.entity.EntityStatements;
+import it.richkmeli.jframework.orm.entity.JdbcTypes;
+import it.richkmeli.jframework.orm.entity.RelationMetadata;
+import it.richkmeli.jframework.orm.metrics.QueryMetrics;
+import it.richkmeli.jframework.orm.metrics.QueryStatistics;
+import it.richkmeli.jframework.orm.pool.ConnectionPool;
+import it.richkmeli.jframework.orm.pool.PoolConfiguration;
+import it.richkmeli.jframework.orm.pool.PoolStatistics;
+import it.richkmeli.jframework.orm.pool.ReplicaRouter;
+import it.richkmeli.jframework.orm.pool.ShardRouter;
+import it.richkmeli.jframework.orm.transfer.TableFormat;
+import it.richkmeli.jframework.orm.transfer.TableReader;
+import it.richkmeli.jframework.orm.transfer.TableWriter;
+import it.richkmeli.jframework.orm.transfer.TransferListener;
 import it.richkmeli.jframework.util.log.Logger;
 import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolationException;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Array;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DatabaseManager {
+    // transactions of the current thread, by datasource
+    private static final ThreadLocal<Map<ConnectionPool, Transaction>> TRANSACTIONS = new ThreadLocal<>();
+    // time of the last write of the current thread, by datasource, for read-your-writes. Async writes record it in the
+    // map of the thread that submitted them
+    private static final ThreadLocal<Map<ConnectionPool, Long>> LAST_WRITES = new ThreadLocal<>();
     private String dbUrl;
     protected String dbtype;
     private String dbUsername;
@@ -19,26 +77,95 @@ public class DatabaseManager {
     protected String schemaName;
     protected String tableName;
     protected String table;
+    private PoolConfiguration poolConfiguration;
+    private ConnectionPool connectionPool;
+    // number of statements sent to the database with a single executeBatch
+    protected int batchSize = 500;
+    private boolean rewriteBatchedStatements = true;
+    // number of rows fetched at a time by stream() and iterate()
+    protected int fetchSize = 1000;
+    // maximum number of primary keys in a statement of readAllByIds()
+    protected int inListSize = 256;
+    // isolation of inTransaction(), TRANSACTION_NONE keeps the one of the driver
+    protected int transactionIsolation = Connection.TRANSACTION_NONE;
+    // threads running the *Async methods, 0 is the maximum size of the connection pool
+    protected int asyncThreads = 0;
+    protected int asyncQueueSize = 1000;
+    protected boolean asyncVirtualThreads = true;
+    private AsyncExecutor asyncExecutor;
+    // read replicas, null if reads go to the primary
+    private List<String> replicaUrls;
+    private ReplicaRouter.Selection replicaSelection = ReplicaRouter.Selection.ROUND_ROBIN;
+    // milliseconds after a write in which the same thread reads from the primary
+    protected long readYourWritesWindow = 1000;
+    private ReplicaRouter replicaRouter;
+    // shards, null if the table is on the primary only
+    private List<String> shardUrls;
+    private ShardRouter shardRouter;
+    // snapshots of an in-memory Derby database, null if it starts empty
+    private String snapshotDirectory;
+    // milliseconds after which a statement is logged as slow, 0 to disable the log
+    protected long slowQueryThreshold = 1000;
+    private QueryMetrics queryMetrics;
 
     protected void init() throws DatabaseException {
         init(null);
     }
 
     protected void init(String database) throws DatabaseException {
+        init(database, null);
+    }
+
+    /**
+     * @param entity if table is not set, the table and its indexes are generated from the annotations of this class
+     */
+    protected void init(String database, Class<?> entity) throws DatabaseException {
         loadConfigurationProperties(database);
 
         try {
-            if ("mysql".equalsIgnoreCase(dbtype)) {
-                createSchema(schemaName);
-            }
+            String serverUrl = dbUrl;
             dbUrl += schemaName;
 
-            createTables(tableName + table);
+            if (isInMemory() && snapshotDirectory != null) {
+                // the first manager of the database in this JVM loads the last snapshot, before the tables are checked
+                SchemaRegistry.bootstrap(dbUrl + "|restore", this::restore);
+            }
+
+            EntitySchema schema = table == null && entity != null ? new EntitySchema(EntityMetadata.of(entity), tableName, dbtype) : null;
+            if (schema != null) {
+                table = schema.getTable();
+            }
+            // only the first manager of the table in this JVM checks it and sends the DDL
+            SchemaRegistry.bootstrap(dbUrl + "|" + dbUsername + "|" + tableName + (shardUrls != null ? "|" + shardUrls : ""), () -> {
+                if (getShardRouter() == null) {
+                    createTable(null, serverUrl, schema);
+                } else {
+                    // the table is on every shard
+                    for (int i = 0; i < shardUrls.size(); i++) {
+                        createTable(getShardRouter().getShards().get(i), shardUrls.get(i), schema);
+                    }
+                }
+            });
         } catch (DatabaseException e) {
             throw new DatabaseException(e);
         }
     }
 
+    /**
+     * @param pool datasource of the table, null for the primary
+     */
+    private void createTable(ConnectionPool pool, String serverUrl, EntitySchema schema) throws DatabaseException {
+        if ("mysql".equalsIgnoreCase(dbtype)) {
+            createSchema(serverUrl, schemaName);
+        }
+        if (!tableExists(pool, tableName)) {
+            createTables(pool, tableName + table);
+        }
+        if (schema != null) {
+            createIndexes(pool, tableName, schema);
+        }
+    }
+
     private void loadConfigurationProperties() throws DatabaseException {
         loadConfigurationProperties(null);
     }
@@ -46,7 +173,7 @@ public class DatabaseManager {
     // TODO fai gestione con altro file configurazione, se presente non guarda quello di default dentro jframework
 
     private void loadConfigurationProperties(String databaseParam) throws DatabaseException {
-        ResourceBundle resource = ResourceBundle.getBundle("configuration");
+        ResourceBundle resource = SchemaRegistry.getConfiguration();
         String dbClass = null;
 
         // default db
@@ -61,36 +188,509 @@ public class DatabaseManager {
         dbUrl = resource.getString("database." + database + ".url");
         dbtype = resource.getString("database." + database + ".dbtype");
         dbClass = resource.getString("database." + database + ".class");
-
-        try {
-            Class.forName(dbClass);
-        } catch (ClassNotFoundException e) {
-            throw new DatabaseException(e);
+        poolConfiguration = PoolConfiguration.fromResource(resource, database);
+        if (resource.containsKey("database." + database + ".batchSize")) {
+            batchSize = Integer.parseInt(resource.getString("database." + database + ".batchSize"));
+        }
+        if (resource.containsKey("database." + database + ".fetchSize")) {
+            fetchSize = Integer.parseInt(resource.getString("database." + database + ".fetchSize"));
+        }
+        if (resource.containsKey("database." + database + ".inListSize")) {
+            inListSize = Integer.parseInt(resource.getString("database." + database + ".inListSize"));
+        }
+        if (resource.containsKey("database." + database + ".rewriteBatchedStatements")) {
+            rewriteBatchedStatements = Boolean.parseBoolean(resource.getString("database." + database + ".rewriteBatchedStatements"));
+        }
+        if (resource.containsKey("database." + database + ".async.threads")) {
+            asyncThreads = Integer.parseInt(resource.getString("database." + database + ".async.threads"));
+        }
+        if (resource.containsKey("database." + database + ".async.queueSize")) {
+            asyncQueueSize = Integer.parseInt(resource.getString("database." + database + ".async.queueSize"));
+        }
+        if (resource.containsKey("database." + database + ".async.virtualThreads")) {
+            asyncVirtualThreads = Boolean.parseBoolean(resource.getString("database." + database + ".async.virtualThreads"));
+        }
+        if (resource.containsKey("database." + database + ".replicas")) {
+            List<String> urls = new ArrayList<>();
+            for (String url : resource.getString("database." + database + ".replicas").split(",")) {
+                if (!url.trim().isEmpty()) {
+                    urls.add(url.trim());
+                }
+            }
+            replicaUrls = urls.isEmpty() ? null : urls;
+        }
+        if (resource.containsKey("database." + database + ".replicas.selection")) {
+            replicaSelection = ReplicaRouter.Selection.valueOf(resource.getString("database." + database + ".replicas.selection").trim().toUpperCase());
+        }
+        if (resource.containsKey("database." + database + ".replicas.readYourWritesWindow")) {
+            readYourWritesWindow = Long.parseLong(resource.getString("database." + database + ".replicas.readYourWritesWindow"));
+        }
+        if (shardUrls == null && resource.containsKey("database." + database + ".shards")) {
+            List<String> urls = new ArrayList<>();
+            for (String url : resource.getString("database." + database + ".shards").split(",")) {
+                if (!url.trim().isEmpty()) {
+                    urls.add(url.trim());
+                }
+            }
+            shardUrls = urls.isEmpty() ? null : urls;
+        }
+        if (resource.containsKey("database." + database + ".slowQueryThreshold")) {
+            slowQueryThreshold = Long.parseLong(resource.getString("database." + database + ".slowQueryThreshold"));
         }
+        if (snapshotDirectory == null && resource.containsKey("database." + database + ".snapshot")) {
+            snapshotDirectory = resource.getString("database." + database + ".snapshot").trim();
+        }
+        if (resource.containsKey("database." + database + ".transactionIsolation")) {
+            transactionIsolation = getTransactionIsolation(resource.getString("database." + database + ".transactionIsolation"));
+        }
+
+        SchemaRegistry.loadDriver(dbClass);
     }
 
     private void loadConfigurationProperties(String dbUsername, String dbPassword, String dbUrl, String dbClass) throws DatabaseException {
         this.dbUsername = dbUsername;
         this.dbPassword = dbPassword;
         this.dbUrl = dbUrl;
-        try {
-            Class.forName(dbClass);
-        } catch (ClassNotFoundException e) {
-            throw new DatabaseException(e);
+        this.poolConfiguration = new PoolConfiguration();
+        SchemaRegistry.loadDriver(dbClass);
+    }
+
+    private static int getTransactionIsolation(String isolation) throws DatabaseException {
+        switch (isolation.trim().toUpperCase()) {
+            case "READ_UNCOMMITTED":
+                return Connection.TRANSACTION_READ_UNCOMMITTED;
+            case "READ_COMMITTED":
+                return Connection.TRANSACTION_READ_COMMITTED;
+            case "REPEATABLE_READ":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "SERIALIZABLE":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            default:
+                throw new DatabaseException("DatabaseManager, transaction isolation not valid: " + isolation);
         }
     }
 
     protected Connection connect() throws DatabaseException {
         //Logger.info("DatabaseManager, connect. dbUrl: " + dbUrl);
+        Transaction transaction = getTransaction();
+        if (transaction != null) {
+            return transaction.getConnection();
+        }
         try {
+            return getConnectionPool().getConnection();
+        } catch (SQLException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    /**
+     * @param pool shard of the operation, null for the primary
+     */
+    private Connection connect(ConnectionPool pool) throws DatabaseException {
+        if (pool == null) {
+            return connect();
+        }
+        try {
+            return pool.getConnection();
+        } catch (SQLException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    private ConnectionPool getConnectionPool() {
+        // closed by shutdown() or drop() of another manager of the datasource: a new pool is shared again
+        if (connectionPool == null || connectionPool.isClosed()) {
             if ("derby".equalsIgnoreCase(dbtype)) {
-                return DriverManager.getConnection(dbUrl + ";create=true", dbUsername, dbPassword);
+                connectionPool = ConnectionPool.getInstance(dbUrl + ";create=true", dbUsername, dbPassword, poolConfiguration);
+            } else if ("mysql".equalsIgnoreCase(dbtype) && rewriteBatchedStatements && !dbUrl.contains("rewriteBatchedStatements")) {
+                // Connector/J sends a batch of INSERT as a single multi-row INSERT
+                String url = dbUrl + (dbUrl.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true";
+                connectionPool = ConnectionPool.getInstance(url, dbUsername, dbPassword, poolConfiguration);
             } else {
-                return DriverManager.getConnection(dbUrl, dbUsername, dbPassword);
+                connectionPool = ConnectionPool.getInstance(dbUrl, dbUsername, dbPassword, poolConfiguration);
+            }
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Connection for a read: from a replica if there are any, unless the current thread is in a transaction or wrote
+     * to this datasource in the last readYourWritesWindow milliseconds. If the replica fails, the primary is used.
+     */
+    protected Connection connectForRead() throws DatabaseException {
+        ReplicaRouter router = getReplicaRouter();
+        if (router == null || getTransaction() != null || isInReadYourWritesWindow()) {
+            return connect();
+        }
+        ConnectionPool replica = router.select();
+        try {
+            return replica.getConnection();
+        } catch (SQLException e) {
+            Logger.error("DatabaseManager, replica not available, reading from the primary: " + replica.getUrl(), e);
+            return connect();
+        }
+    }
+
+    /**
+     * @param shard shard of the entity read, used instead of the replicas, or null
+     */
+    private Connection connectForRead(ConnectionPool shard) throws DatabaseException {
+        return shard != null ? connect(shard) : connectForRead();
+    }
+
+    /**
+     * Sets the read replicas, otherwise read from database.X.replicas: base urls as database.X.url, the schema is added.
+     */
+    protected void setReplicas(List<String> urls, ReplicaRouter.Selection selection) {
+        this.replicaUrls = urls == null || urls.isEmpty() ? null : new ArrayList<>(urls);
+        this.replicaSelection = selection;
+        this.replicaRouter = null;
+    }
+
+    private ReplicaRouter getReplicaRouter() {
+        if (replicaRouter == null && replicaUrls != null) {
+            List<ConnectionPool> replicas = new ArrayList<>();
+            for (String url : replicaUrls) {
+                url += schemaName;
+                replicas.add(ConnectionPool.getInstance("derby".equalsIgnoreCase(dbtype) ? url + ";create=true" : url,
+                        dbUsername, dbPassword, poolConfiguration));
+            }
+            replicaRouter = ReplicaRouter.getInstance(replicas, replicaSelection);
+        }
+        return replicaRouter;
+    }
+
+    /**
+     * Spreads the rows of the table on the shards by the hash of their primary key, instead of the primary. Otherwise
+     * read from database.X.shards: base urls as database.X.url, the schema is added. It must be called before init().
+     * <p>
+     * Operations by primary key go to the shard of the key, readAll() and queries to every shard. Transactions are not
+     * supported, batches are committed per shard. After a shard is added, {@link #rebalance(Class)} moves the rows.
+     */
+    protected void setShards(List<String> urls) {
+        this.shardUrls = urls == null || urls.isEmpty() ? null : new ArrayList<>(urls);
+        this.shardRouter = null;
+    }
+
+    protected boolean isSharded() {
+        return getShardRouter() != null;
+    }
+
+    private ShardRouter getShardRouter() {
+        if (shardRouter == null && shardUrls != null) {
+            List<ConnectionPool> shards = new ArrayList<>();
+            for (String url : shardUrls) {
+                url += schemaName;
+                shards.add(ConnectionPool.getInstance("derby".equalsIgnoreCase(dbtype) ? url + ";create=true" : url,
+                        dbUsername, dbPassword, poolConfiguration));
+            }
+            shardRouter = ShardRouter.getInstance(shards);
+        }
+        return shardRouter;
+    }
+
+    /**
+     * @return the shard of the entity, or null if the table is not sharded
+     */
+    private <T> ConnectionPool getShard(T type, EntityMetadata<T> metadata) throws DatabaseException {
+        ShardRouter router = getShardRouter();
+        return router != null ? router.getShard(getPrimaryKeyValues(type, metadata)) : null;
+    }
+
+    /**
+     * Runs the work on every shard at the same time, on an executor of its own: the *Async methods can use it
+     * without waiting for their own executor.
+     *
+     * @return the results in the order of the shards
+     */
+    private <R> List<R> onShards(ShardWork<R> work) throws DatabaseException {
+        List<ConnectionPool> shards = getShardRouter().getShards();
+        AsyncExecutor executor = AsyncExecutor.getInstance(getDatasource() + "|" + dbUsername + "|shards",
+                shards.size(), asyncQueueSize, asyncVirtualThreads);
+        List<CompletableFuture<R>> futures = new ArrayList<>();
+        for (ConnectionPool shard : shards) {
+            futures.add(executor.submit(() -> work.execute(shard)));
+        }
+        List<R> results = new ArrayList<>();
+        Throwable failure = null;
+        for (CompletableFuture<R> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                // the other shards are waited for, so no connection is used after the return
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof DatabaseException) {
+            throw (DatabaseException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new DatabaseException((Exception) failure);
+        }
+        return results;
+    }
+
+    @FunctionalInterface
+    private interface ShardWork<R> {
+        R execute(ConnectionPool shard) throws DatabaseException;
+    }
+
+    /**
+     * Key of the data of this manager in the process-wide caches: sharded tables are not the one of the primary.
+     */
+    private String getDatasource() {
+        return getShardRouter() != null ? "shards" + shardUrls : getConnectionPool().getUrl();
+    }
+
+    private void markWrite() {
+        if (getReplicaRouter() == null) {
+            return;
+        }
+        getLastWrites().put(getConnectionPool(), System.nanoTime());
+    }
+
+    private static Map<ConnectionPool, Long> getLastWrites() {
+        Map<ConnectionPool, Long> lastWrites = LAST_WRITES.get();
+        if (lastWrites == null) {
+            lastWrites = new ConcurrentHashMap<>();
+            LAST_WRITES.set(lastWrites);
+        }
+        return lastWrites;
+    }
+
+    private boolean isInReadYourWritesWindow() {
+        Map<ConnectionPool, Long> lastWrites = LAST_WRITES.get();
+        Long lastWrite = lastWrites != null ? lastWrites.get(getConnectionPool()) : null;
+        if (lastWrite == null) {
+            return false;
+        }
+        if (System.nanoTime() - lastWrite < TimeUnit.MILLISECONDS.toNanos(readYourWritesWindow)) {
+            return true;
+        }
+        // the map stays: async writes of this thread may still record in it
+        lastWrites.remove(getConnectionPool(), lastWrite);
+        return false;
+    }
+
+    public PoolStatistics getPoolStatistics() {
+        return getConnectionPool().getStatistics();
+    }
+
+    /**
+     * @return latency of the statements sent to this datasource by all its managers, per table and operation
+     */
+    public List<QueryStatistics> getQueryStatistics() {
+        return getQueryMetrics().getStatistics();
+    }
+
+    private QueryMetrics getQueryMetrics() {
+        if (queryMetrics == null) {
+            queryMetrics = QueryMetrics.getInstance(getDatasource() + "|" + dbUsername);
+        }
+        return queryMetrics;
+    }
+
+    /**
+     * Starts timing a statement on the table of this manager, before its connection is requested.
+     */
+    private QueryTimer startQuery(QueryMetrics.Operation operation, String sql) {
+        return startQuery(operation, tableName, sql);
+    }
+
+    private QueryTimer startQuery(QueryMetrics.Operation operation, String tableName, String sql) {
+        return new QueryTimer(getQueryMetrics(), tableName, operation, sql, TimeUnit.MILLISECONDS.toNanos(slowQueryThreshold));
+    }
+
+    /**
+     * @return true for a Derby database in memory (jdbc:derby:memory:), lost when it is dropped or the JVM exits
+     */
+    public boolean isInMemory() {
+        return "derby".equalsIgnoreCase(dbtype) && dbUrl.startsWith("jdbc:derby:memory:");
+    }
+
+    /**
+     * Sets the directory of the snapshots, otherwise read from database.X.snapshot. It must be called before init():
+     * the first manager of an in-memory database in this JVM creates it from its last snapshot, if there is one.
+     */
+    protected void setSnapshotDirectory(String directory) {
+        this.snapshotDirectory = directory;
+    }
+
+    private void restore() throws DatabaseException {
+        File snapshot = new File(snapshotDirectory, getDatabaseName());
+        if (!snapshot.isDirectory()) {
+            Logger.info("DatabaseManager, no snapshot of " + dbUrl + " in " + snapshot.getAbsolutePath());
+            return;
+        }
+        if (databaseExists()) {
+            // already in memory, e.g. created by a manager of another table
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            DriverManager.getConnection(dbUrl + ";createFrom=" + snapshot.getAbsolutePath(), dbUsername, dbPassword).close();
+            Logger.info("DatabaseManager, " + dbUrl + " restored from " + snapshot.getAbsolutePath() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        } catch (SQLException e) {
+            throw new DatabaseException("DatabaseManager, restore of " + dbUrl + " from " + snapshot.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return true if the Derby database can be opened without creating it
+     */
+    private boolean databaseExists() throws DatabaseException {
+        try {
+            DriverManager.getConnection(dbUrl, dbUsername, dbPassword).close();
+            return true;
+        } catch (SQLException e) {
+            if ("XJ004".equals(e.getSQLState())) {
+                return false;
             }
+            throw new DatabaseException(e);
+        }
+    }
+
+    /**
+     * Name of the Derby database, also the name of its directory in a snapshot.
+     */
+    private String getDatabaseName() {
+        String name = dbUrl.substring("jdbc:derby:".length()).split(";")[0];
+        if (name.startsWith("memory:")) {
+            name = name.substring("memory:".length());
+        }
+        return new File(name).getName();
+    }
+
+    /**
+     * Writes the configured snapshot of the Derby database, see {@link #snapshot(String)}.
+     */
+    public void snapshot() throws DatabaseException {
+        if (snapshotDirectory == null) {
+            throw new DatabaseException("DatabaseManager, snapshot directory not set: " + dbUrl);
+        }
+        snapshot(snapshotDirectory);
+    }
+
+    /**
+     * Writes a copy of the Derby database (in memory or on disk) to directory/name, replacing the previous one. It is
+     * an online backup: it is consistent, writes wait for it. Pending write-behind updates are written first.
+     */
+    public void snapshot(String directory) throws DatabaseException {
+        if (!"derby".equalsIgnoreCase(dbtype)) {
+            throw new DatabaseException("DatabaseManager, snapshot is supported only by Derby: " + dbUrl);
+        }
+        for (WriteBehindBuffer buffer : getWriteBehindBuffers()) {
+            buffer.flush();
+        }
+
+        long start = System.nanoTime();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            // not the connection of a transaction: the backup would wait for its own uncommitted writes
+            connection = connect(getConnectionPool());
+            preparedStatement = connection.prepareStatement("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+            preparedStatement.setString(1, new File(directory).getAbsolutePath());
+            preparedStatement.execute();
         } catch (SQLException e) {
             throw new DatabaseException(e);
+        } finally {
+            disconnect(connection, preparedStatement, null);
+        }
+        Logger.info("DatabaseManager, snapshot of " + dbUrl + " written to " + new File(directory, getDatabaseName()).getAbsolutePath()
+                + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * Writes the pending write-behind updates, closes the connection pool and shuts the Derby database down. An
+     * in-memory database with a snapshot directory is saved first; its data stays in memory until it is dropped.
+     * The next connection, of any manager, boots the database again.
+     */
+    public void shutdown() throws DatabaseException {
+        if (!"derby".equalsIgnoreCase(dbtype)) {
+            throw new DatabaseException("DatabaseManager, shutdown is supported only by Derby: " + dbUrl);
+        }
+        if (getTransaction() != null) {
+            throw new DatabaseException("DatabaseManager, shutdown inside a transaction: " + dbUrl);
+        }
+        if (isInMemory() && snapshotDirectory != null) {
+            snapshot(snapshotDirectory);
+        } else {
+            for (WriteBehindBuffer buffer : getWriteBehindBuffers()) {
+                buffer.flush();
+            }
+        }
+        closeConnectionPool();
+        stopDerby(";shutdown=true");
+    }
+
+    /**
+     * Drops the in-memory database with all its tables. Caches of its tables are cleared, resident tables and
+     * write-behind buffers closed; the next manager creates the database again, from the snapshot if there is one.
+     */
+    public void drop() throws DatabaseException {
+        if (!isInMemory()) {
+            throw new DatabaseException("DatabaseManager, drop is supported only by in-memory Derby databases: " + dbUrl);
+        }
+        if (getTransaction() != null) {
+            throw new DatabaseException("DatabaseManager, drop inside a transaction: " + dbUrl);
+        }
+        String datasource = getDatasource() + "|" + dbUsername + "|";
+        for (WriteBehindBuffer buffer : getWriteBehindBuffers()) {
+            buffer.close();
+        }
+        for (EntityCache cache : EntityCache.getInstances()) {
+            if (cache.getName().startsWith(datasource)) {
+                cache.clear();
+            }
+        }
+        for (ResidentTable table : ResidentTable.getInstances()) {
+            if (table.getName().startsWith(datasource)) {
+                table.close();
+            }
+        }
+        closeConnectionPool();
+        stopDerby(";drop=true");
+        SchemaRegistry.clear(dbUrl);
+    }
+
+    private void stopDerby(String attribute) throws DatabaseException {
+        try {
+            DriverManager.getConnection(dbUrl + attribute, dbUsername, dbPassword).close();
+        } catch (SQLException e) {
+            // Derby reports a successful shutdown or drop of a database with 08006
+            if (!"08006".equals(e.getSQLState())) {
+                throw new DatabaseException(e);
+            }
+            return;
+        }
+        throw new DatabaseException("DatabaseManager, database not stopped: " + dbUrl + attribute);
+    }
+
+    private void closeConnectionPool() {
+        // managers created later get a new pool
+        getConnectionPool().close();
+        connectionPool = null;
+    }
+
+    /**
+     * Write-behind buffers of the tables of this datasource, of any manager.
+     */
+    private List<WriteBehindBuffer> getWriteBehindBuffers() {
+        String datasource = getDatasource() + "|" + dbUsername + "|";
+        List<WriteBehindBuffer> buffers = new ArrayList<>();
+        for (WriteBehindBuffer buffer : WriteBehindBuffer.getInstances()) {
+            if (buffer.getName().startsWith(datasource)) {
+                buffers.add(buffer);
+            }
         }
+        return buffers;
     }
 
     protected void disconnect(Connection connection, PreparedStatement preparedStatement, ResultSet resultSet) throws DatabaseException {
@@ -114,7 +714,8 @@ public class DatabaseManager {
             /*if ("derby".equalsIgnoreCase(dbtype)) {
                 DriverManager.getConnection(dbUrl + ";shutdown=true");
             } else {*/
-            if (connection != null) {
+            // the connection of a transaction is closed when the transaction ends
+            if (connection != null && !isTransactionConnection(connection)) {
                 connection.close();
             }
             //}
@@ -124,7 +725,7 @@ public class DatabaseManager {
 
     }
 
-    private void createSchema(String schema) {
+    private void createSchema(String serverUrl, String schema) throws DatabaseException {
         String schemaSQL = "";//"CREATE SCHEMA " + schema;
         if ("derby".equalsIgnoreCase(dbtype)) {
             schemaSQL = "CREATE SCHEMA " + schema;
@@ -132,14 +733,20 @@ public class DatabaseManager {
             schemaSQL = "CREATE SCHEMA IF NOT EXISTS " + schema;
         }
 
-        try {
-            execute(schemaSQL);
-        } catch (DatabaseException e) {
-            Logger.error("DatabaseManager, createSchema", e);
+        // the url does not contain the schema yet, so this bootstrap connection is not pooled
+        try (Connection connection = DriverManager.getConnection(serverUrl, dbUsername, dbPassword);
+             PreparedStatement preparedStatement = connection.prepareStatement(schemaSQL)) {
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            // for Derby DB: schema already exists
+            if (!"X0Y68".equals(e.getSQLState())) {
+                // the bootstrap is not recorded, the next manager tries again
+                throw new DatabaseException(e);
+            }
         }
     }
 
-    private void createTables(String table) throws DatabaseException {
+    private void createTables(ConnectionPool pool, String table) throws DatabaseException {
         String tableSQL = "";//"CREATE TABLE " + table;
         if ("derby".equalsIgnoreCase(dbtype)) {
             tableSQL = "CREATE TABLE " + table;
@@ -148,236 +755,1006 @@ public class DatabaseManager {
         }
 
         try {
-            execute(tableSQL);
+            execute(pool, tableSQL);
         } catch (DatabaseException e) {
             // for Derby DB
-            if (e.getMessage().contains("already exists in Schema")) {
-                // skipping
-            } else {
-                Logger.error("DatabaseManager, createTables", e);
+            if (e.getMessage() == null || !e.getMessage().contains("already exists in Schema")) {
+                // the bootstrap is not recorded, the next manager tries again
+                throw e;
             }
         }
     }
 
-    private void execute(String string) throws DatabaseException {
+    private boolean tableExists(ConnectionPool pool, String tableName) throws DatabaseException {
+        int dot = tableName.indexOf('.');
+        String schema = dot >= 0 ? tableName.substring(0, dot) : null;
+        String table = tableName.substring(dot + 1);
         Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
+        ResultSet resultSet = null;
         try {
-            connection = connect();
-            preparedStatement = connection.prepareStatement(string);
-            preparedStatement.executeUpdate();
-
+            connection = connect(pool);
+            DatabaseMetaData metaData = connection.getMetaData();
+            schema = toStoredCase(metaData, schema);
+            // table is a LIKE pattern
+            table = toStoredCase(metaData, table).replace("_", metaData.getSearchStringEscape() + "_");
+            // MySQL schemas are catalogs
+            if ("mysql".equalsIgnoreCase(dbtype)) {
+                resultSet = metaData.getTables(schema, null, table, new String[]{"TABLE"});
+            } else {
+                resultSet = metaData.getTables(null, schema, table, new String[]{"TABLE"});
+            }
+            return resultSet.next();
         } catch (SQLException e) {
-            disconnect(connection, preparedStatement, null);
-            //e.printStackTrace();
             throw new DatabaseException(e);
-            //Logger.error("DatabaseManager, execute", e);
-            //return false;
+        } finally {
+            disconnect(connection, null, resultSet);
         }
-        disconnect(connection, preparedStatement, null);
     }
 
-    // CRUD: Create, read, update and delete
-    protected <T> boolean create(T type) throws DatabaseException {
-        return create(type, null);
-    }
-
-    protected <T> T read(T type) throws DatabaseException {
-        return read(type, null);
+    private static String toStoredCase(DatabaseMetaData metaData, String identifier) throws SQLException {
+        if (identifier == null) {
+            return null;
+        } else if (metaData.storesUpperCaseIdentifiers()) {
+            return identifier.toUpperCase();
+        } else if (metaData.storesLowerCaseIdentifiers()) {
+            return identifier.toLowerCase();
+        }
+        return identifier;
     }
 
-    protected <T> T read(T type, DBManagerAction dbManagerAction) throws DatabaseException {
+    private Set<String> getIndexNames(ConnectionPool pool, String tableName) throws DatabaseException {
+        int dot = tableName.indexOf('.');
+        String schema = dot >= 0 ? tableName.substring(0, dot) : null;
+        String table = tableName.substring(dot + 1);
+        Set<String> names = new HashSet<>();
         Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
-        if (dbManagerAction != null) {
-            type = (T) dbManagerAction.action(type);
-        }
         ResultSet resultSet = null;
-        T elem = null;
         try {
-            connection = connect();
-
-            // create SQL string
-            StringBuilder sql = new StringBuilder("SELECT * FROM " + tableName);
-
-            // search primary key
-            preparedStatement = createPreparedStatementWithPrimaryKey(connection, sql, type);
-
-            resultSet = preparedStatement.executeQuery();
-            List<T> list = getListFromResultSet(type.getClass(), resultSet);
-            if (!list.isEmpty()) {
-                elem = list.get(0);
+            connection = connect(pool);
+            DatabaseMetaData metaData = connection.getMetaData();
+            schema = toStoredCase(metaData, schema);
+            table = toStoredCase(metaData, table);
+            if ("mysql".equalsIgnoreCase(dbtype)) {
+                resultSet = metaData.getIndexInfo(schema, null, table, false, true);
             } else {
-                disconnect(connection, preparedStatement, resultSet);
-                Logger.error("No " + type.getClass().getName() + " found with this (PrimaryKey)");
-                //throw new DatabaseException("No " + type.getClass().getName() + " found with this (PrimaryKey)");
+                resultSet = metaData.getIndexInfo(null, schema, table, false, true);
             }
-
-        } catch (
-                SQLException e) {
-            disconnect(connection, preparedStatement, null);
+            while (resultSet.next()) {
+                String name = resultSet.getString("INDEX_NAME");
+                if (name != null) {
+                    names.add(name.toUpperCase());
+                }
+            }
+            return names;
+        } catch (SQLException e) {
             throw new DatabaseException(e);
-            //return false;
+        } finally {
+            disconnect(connection, null, resultSet);
         }
-
-        disconnect(connection, preparedStatement, resultSet);
-        return elem;
     }
 
-    private <T> PreparedStatement createPreparedStatementWithPrimaryKey(Connection connection,
-                                                                        StringBuilder sql, T type) throws SQLException, DatabaseException {
-        PreparedStatement preparedStatement = null;
-
-        List<Field> valorizedFields = new ArrayList<>();
-        boolean update = false;
-        if (sql.toString().contains("#SET#")) {
-            update = true;
-            sql.replace(sql.indexOf("#SET#"), sql.indexOf("#SET#") + 5, "SET");
-        }
-        // search valorized fields in "type" passed as parameter, which they aren't part of the primaryKey
-        if (update) {
-            for (Field field2 : type.getClass().getDeclaredFields()) {
-                if (!field2.isSynthetic() && !Modifier.isTransient(field2.getModifiers())) {
-                    Annotation annotation = field2.getAnnotation(Id.class);
-                    if (annotation == null) {
-                        Method getter = searchFieldGetter(type, field2);
-                        try {
-                            Object o = getter.invoke(type);
-                            if (o != null) {
-                                valorizedFields.add(field2);
-                            }
-                        } catch (IllegalAccessException | InvocationTargetException e) {
-                            disconnect(connection, null, null);
-                            throw new DatabaseException("ORM, Reflection: error invoking getter of " + field2.getName());
-                        }
-                    }
-                }
-            }
-            // add to sql string the fields to be updated
-            int i = 0;
-            for (Field field : valorizedFields) {
-                sql.append(field.getName()).append(" = ?").append((++i < valorizedFields.size()) ? ", " : "");
-            }
+    private void createIndexes(ConnectionPool pool, String tableName, EntitySchema schema) throws DatabaseException {
+        if (schema.getIndexes().isEmpty()) {
+            return;
         }
-
-        sql.append(" WHERE ");
-        List<Field> primaryKey = getPrimaryKey(type);
-        if (!primaryKey.isEmpty()) {
-            int i = 1;
-            for (Field field : primaryKey) {
-                sql.append(field.getName()).append(" = ?");
-                if (i++ < primaryKey.size()) {
-                    sql.append(" AND ");
-                }
+        Set<String> existing = getIndexNames(pool, tableName);
+        for (int i = 0; i < schema.getIndexes().size(); i++) {
+            if (existing.contains(schema.getIndexNames().get(i).toUpperCase())) {
+                continue;
             }
-
-            preparedStatement = connection.prepareStatement(sql.toString());
-
-            i = 1;
-            if (update) {
-                for (Field field : valorizedFields) {
-                    preparedStatement = addAttributeToPreparedStatement(preparedStatement,
-                            i++, type, field);
+            String index = schema.getIndexes().get(i);
+            try {
+                execute(pool, index);
+            } catch (DatabaseException e) {
+                // Derby and MySQL: index created by a previous run
+                String message = String.valueOf(e.getMessage());
+                if (!message.contains("already exists") && !message.contains("Duplicate key name")) {
+                    Logger.error("DatabaseManager, createIndexes", e);
                 }
             }
-
-            for (Field field : primaryKey) {
-                preparedStatement = addAttributeToPreparedStatement(preparedStatement,
-                        i++, type, field);
-            }
-        } else {
-            disconnect(connection, null, null);
-            throw new DatabaseException("ORM, Reflection: PrimaryKey not found");
-            //return false;
         }
-        return preparedStatement;
     }
 
-    protected <T> List<T> readAll(Class clazz) throws DatabaseException {
+    private void execute(ConnectionPool pool, String string) throws DatabaseException {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        List<T> list = null;
+
         try {
-            connection = connect();
-            preparedStatement = connection.prepareStatement("SELECT * FROM " + tableName);
-            resultSet = preparedStatement.executeQuery();
-            list = getListFromResultSet(clazz, resultSet);
+            connection = connect(pool);
+            preparedStatement = connection.prepareStatement(string);
+            preparedStatement.executeUpdate();
 
         } catch (SQLException e) {
             disconnect(connection, preparedStatement, null);
+            //e.printStackTrace();
             throw new DatabaseException(e);
+            //Logger.error("DatabaseManager, execute", e);
+            //return false;
         }
         disconnect(connection, preparedStatement, null);
-        return list;
     }
 
-    private <T> List<T> getListFromResultSet(Class clazz, ResultSet resultSet) throws
-            DatabaseException, SQLException {
-        List<T> list = new ArrayList<T>();
+    // Transaction: CRUD operations of the managers of this datasource share one connection and one commit
+
+    /**
+     * Executes the work in a transaction: the CRUD operations of every DatabaseManager of this datasource, made in the
+     * work by the current thread, use the same connection. It commits when the work completes, it rolls back when the
+     * work throws an exception or calls {@link Transaction#setRollbackOnly()}.
+     * <p>
+     * A nested call joins the transaction in progress, then its isolation is ignored.
+     */
+    public <R> R inTransaction(TransactionWork<R> work) throws DatabaseException {
+        return inTransaction(transactionIsolation, work);
+    }
+
+    public <R> R inTransaction(int isolation, TransactionWork<R> work) throws DatabaseException {
+        if (isSharded()) {
+            throw new DatabaseException("DatabaseManager, transactions are not supported on a sharded table: " + tableName);
+        }
+        Transaction transaction = getTransaction();
+        if (transaction == null) {
+            Connection connection = connect();
+            try {
+                transaction = new Transaction(connection, isolation);
+            } catch (SQLException e) {
+                disconnect(connection, null, null);
+                throw new DatabaseException(e);
+            }
+            Map<ConnectionPool, Transaction> transactions = TRANSACTIONS.get();
+            if (transactions == null) {
+                transactions = new HashMap<>();
+                TRANSACTIONS.set(transactions);
+            }
+            transactions.put(getConnectionPool(), transaction);
+        }
+        transaction.begin();
+
+        R result;
         try {
-            // search class types
-            //Class<?>[] cc = new Class[clazz.getFields().length];
-            List<Class<?>> cc = new ArrayList<>();
-            //int fieldN = 0;
-            for (Field f : clazz.getDeclaredFields()) {
-                if (!f.isSynthetic()) {
-                    cc.add(f.getType());
-                    //cc[fieldN++] = f.getType();
-                }
+            result = work.execute(transaction);
+        } catch (DatabaseException | RuntimeException | Error e) {
+            transaction.setRollbackOnly();
+            endTransaction(transaction);
+            throw e;
+        }
+        endTransaction(transaction);
+        return result;
+    }
+
+    private void endTransaction(Transaction transaction) throws DatabaseException {
+        if (transaction.end() > 0) {
+            // nested unit of work
+            return;
+        }
+        Map<ConnectionPool, Transaction> transactions = TRANSACTIONS.get();
+        transactions.remove(getConnectionPool());
+        if (transactions.isEmpty()) {
+            TRANSACTIONS.remove();
+        }
+
+        try {
+            if (transaction.isRollbackOnly()) {
+                transaction.rollback();
+            } else {
+                transaction.commit();
+                // the window starts when the writes are visible
+                markWrite();
             }
-            // convert to an array of Class
-            Class<?>[] classArray = new Class<?>[cc.size()];
-            int i = 0;
-            for (Class c : cc) {
-                classArray[i++] = c;
+        } catch (SQLException e) {
+            transaction.rollback();
+            throw new DatabaseException(e);
+        } finally {
+            transaction.close();
+        }
+    }
+
+    private Transaction getTransaction() {
+        Map<ConnectionPool, Transaction> transactions = TRANSACTIONS.get();
+        return transactions != null ? transactions.get(getConnectionPool()) : null;
+    }
+
+    private boolean isTransactionConnection(Connection connection) {
+        Transaction transaction = getTransaction();
+        return transaction != null && transaction.getConnection() == connection;
+    }
+
+    // CRUD: Create, read, update and delete
+    protected <T> boolean create(T type) throws DatabaseException {
+        return create(type, null);
+    }
+
+    protected <T> boolean create(T type, DBManagerAction dbManagerAction) throws DatabaseException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        if (dbManagerAction != null) {
+            type = (T) dbManagerAction.action(type);
+        }
+        EntityMetadata<T> metadata = getMetadata(type);
+        initVersion(type, metadata);
+
+        String sql = metadata.getStatements(tableName, dbtype).getInsert();
+        QueryTimer timer = startQuery(QueryMetrics.Operation.CREATE, sql);
+        try {
+            connection = connect(getShard(type, metadata));
+            timer.acquired();
+            markWrite();
+            preparedStatement = connection.prepareStatement(sql);
+
+            // insert values in preparedStatement
+            EntityMapper<T> mapper = metadata.getMapper();
+            int parameterIndex = 1;
+            for (ColumnMetadata column : metadata.getColumns()) {
+                mapper.bind(preparedStatement, parameterIndex++, type, column.getIndex());
             }
 
-            // search constructor
-            Constructor<T> constructor = null;
             try {
-                constructor = clazz.getConstructor(classArray);
-            } catch (NoSuchMethodException e) {
-                disconnect(null, null, resultSet);
-                throw new DatabaseException("ORM, Reflection: constructor not found. Fields found (" + cc.size() + "): " + cc.toString());
+                preparedStatement.executeUpdate();
+                // for Derby DB
+            } catch (DerbySQLIntegrityConstraintViolationException e) {
+                //Logger.info(e.getMessage());
             }
-            if (constructor == null) {
-                disconnect(null, null, resultSet);
-                throw new DatabaseException("ORM, Reflection: constructor is null");
+            timer.stop(1);
+
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, null);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, null);
+            throw e;
+        }
+        disconnect(connection, preparedStatement, null);
+        invalidate(type, metadata);
+        return true;
+    }
+
+    protected <T> T read(T type) throws DatabaseException {
+        return read(type, null);
+    }
+
+    protected <T> T read(T type, DBManagerAction dbManagerAction) throws DatabaseException {
+        T elem = readEntity(type, dbManagerAction);
+        if (elem != null) {
+            EntityMetadata<T> metadata = getMetadata(elem);
+            WriteBehindBuffer buffer = getWriteBehindBuffer(metadata);
+            if (buffer != null) {
+                elem = applyPendingUpdate(elem, metadata, buffer);
             }
+            loadRelations(Collections.singletonList(elem), getMetadata(elem));
+        }
+        return elem;
+    }
 
-            // create a new instance of generic object
-            while (resultSet.next()) {
-                List<Object> objList = new ArrayList<>();
-                for (Field field : clazz.getDeclaredFields()) {
-                    // handle add of transient field by coverage tools
-                    if (!Modifier.isTransient(field.getModifiers())) {
-
-                        Type fieldType = field.getGenericType();
-                        switch (fieldType.getTypeName()) {
-                            case "java.lang.String":
-                                String valueS = resultSet.getString(field.getName());
-                                objList.add(valueS);
-                                break;
-                            case "java.lang.Boolean":
-                                Boolean valueB = resultSet.getBoolean(field.getName());
-                                objList.add(valueB);
-                                break;
-                            default:
-                                Logger.error("ORM, Reflection: type not mapped, type: " + fieldType);
-                                break;
-                        }
+    private <T> T readEntity(T type, DBManagerAction dbManagerAction) throws DatabaseException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        if (dbManagerAction != null) {
+            type = (T) dbManagerAction.action(type);
+        }
+        EntityMetadata<T> metadata = getMetadata(type);
+        EntityStatements statements = getStatementsWithPrimaryKey(metadata);
+
+        ResidentTable resident = getTransaction() == null ? getResidentTable(metadata) : null;
+        if (resident != null) {
+            Object[] values = resident.getSnapshot().get(getPrimaryKeyValues(type, metadata));
+            return values != null ? metadata.getMapper().newInstance(values) : null;
+        }
+
+        // second-level cache, not used by transactions: they can read their own uncommitted writes
+        EntityCache cache = getTransaction() == null ? getCache(metadata) : null;
+        List<Object> primaryKey = null;
+        long cacheVersion = 0;
+        if (cache != null) {
+            primaryKey = getPrimaryKeyValues(type, metadata);
+            Object[] values = cache.get(primaryKey);
+            if (values != null) {
+                return metadata.getMapper().newInstance(values);
+            }
+            cacheVersion = cache.getVersion();
+        }
+
+        ResultSet resultSet = null;
+        T elem = null;
+        QueryTimer timer = startQuery(QueryMetrics.Operation.READ, statements.getSelect());
+        try {
+            connection = connectForRead(getShard(type, metadata));
+            timer.acquired();
+            preparedStatement = connection.prepareStatement(statements.getSelect());
+            addPrimaryKeyToPreparedStatement(preparedStatement, 1, type, metadata);
+
+            resultSet = preparedStatement.executeQuery();
+            List<T> list = getListFromResultSet(metadata, resultSet);
+            timer.stop(list.size());
+            if (!list.isEmpty()) {
+                elem = list.get(0);
+            } else {
+                Logger.error("No " + metadata.getType().getName() + " found with this (PrimaryKey)");
+                //throw new DatabaseException("No " + type.getClass().getName() + " found with this (PrimaryKey)");
+            }
+
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw e;
+        }
+
+        disconnect(connection, preparedStatement, resultSet);
+        if (cache != null && elem != null) {
+            cache.put(primaryKey, getValues(elem, metadata), cacheVersion);
+        }
+        return elem;
+    }
+
+    /**
+     * Reads only the given columns of the entity and its primary key, the other fields are null (zero for primitives),
+     * also when the row is read from memory. E.g. read(user, "admin") does not transfer the other columns of the row.
+     * <p>
+     * The entity must not be passed to update(): its primitive fields would be written as zero and its version, if
+     * any, checked as zero.
+     */
+    protected <T> T read(T type, String column, String... columns) throws DatabaseException {
+        EntityMetadata<T> metadata = getMetadata(type);
+        EntityStatements statements = getStatementsWithPrimaryKey(metadata);
+        BitSet projection = getProjection(metadata, column, columns);
+
+        ResidentTable resident = getTransaction() == null ? getResidentTable(metadata) : null;
+        if (resident != null) {
+            Object[] values = resident.getSnapshot().get(getPrimaryKeyValues(type, metadata));
+            return values != null ? project(values, projection, metadata) : null;
+        }
+        EntityCache cache = getTransaction() == null ? getCache(metadata) : null;
+        if (cache != null) {
+            Object[] values = cache.get(getPrimaryKeyValues(type, metadata));
+            if (values != null) {
+                return project(values, projection, metadata);
+            }
+        }
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        T elem = null;
+        QueryTimer timer = startQuery(QueryMetrics.Operation.READ, statements.getSelect(projection));
+        try {
+            connection = connectForRead(getShard(type, metadata));
+            timer.acquired();
+            preparedStatement = connection.prepareStatement(statements.getSelect(projection));
+            addPrimaryKeyToPreparedStatement(preparedStatement, 1, type, metadata);
+
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                elem = metadata.getMapper().map(resultSet, projection);
+            } else {
+                Logger.error("No " + metadata.getType().getName() + " found with this (PrimaryKey)");
+            }
+            timer.stop(elem != null ? 1 : 0);
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw e;
+        }
+
+        disconnect(connection, preparedStatement, resultSet);
+        if (elem != null && getWriteBehindBuffer(metadata) != null) {
+            elem = project(getValues(elem, metadata), projection, metadata);
+        }
+        return elem;
+    }
+
+    /**
+     * @param values all the columns of the row
+     * @return the entity with only the columns of the projection, and their pending write-behind values if any
+     */
+    private <T> T project(Object[] values, BitSet projection, EntityMetadata<T> metadata) throws DatabaseException {
+        WriteBehindBuffer buffer = getWriteBehindBuffer(metadata);
+        Object[] pending = null;
+        if (buffer != null) {
+            List<Object> primaryKey = new ArrayList<>(metadata.getPrimaryKey().size());
+            for (ColumnMetadata column : metadata.getPrimaryKey()) {
+                primaryKey.add(values[column.getIndex()]);
+            }
+            pending = buffer.get(primaryKey);
+        }
+        Object[] projected = getDefaults(metadata);
+        for (int i = projection.nextSetBit(0); i >= 0; i = projection.nextSetBit(i + 1)) {
+            projected[i] = pending != null && pending[i] != null ? pending[i] : values[i];
+        }
+        return metadata.getMapper().newInstance(projected);
+    }
+
+    /**
+     * @return the values of an entity without columns: null, zero for primitives
+     */
+    private <T> Object[] getDefaults(EntityMetadata<T> metadata) {
+        Object[] defaults = new Object[metadata.getColumns().size()];
+        for (ColumnMetadata column : metadata.getColumns()) {
+            defaults[column.getIndex()] = column.getType().isPrimitive() ? Array.get(Array.newInstance(column.getType(), 1), 0) : null;
+        }
+        return defaults;
+    }
+
+    /**
+     * Reads a large text column as a stream, transferred while it is consumed.
+     * The reader holds a connection and must be closed.
+     *
+     * @return the reader, or null if the row is not found or the value is null
+     */
+    protected <T> Reader readCharacterStream(T type, String column) throws DatabaseException {
+        LobCursor cursor = openLob(type, column);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            Reader reader = cursor.getResultSet().getCharacterStream(1);
+            if (reader == null) {
+                cursor.close();
+                return null;
+            }
+            return cursor.reader(reader);
+        } catch (SQLException e) {
+            cursor.close();
+            throw new DatabaseException(e);
+        }
+    }
+
+    /**
+     * Reads a large binary column as a stream, transferred while it is consumed.
+     * The stream holds a connection and must be closed.
+     *
+     * @return the stream, or null if the row is not found or the value is null
+     */
+    protected <T> InputStream readBinaryStream(T type, String column) throws DatabaseException {
+        LobCursor cursor = openLob(type, column);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            InputStream inputStream = cursor.getResultSet().getBinaryStream(1);
+            if (inputStream == null) {
+                cursor.close();
+                return null;
+            }
+            return cursor.inputStream(inputStream);
+        } catch (SQLException e) {
+            cursor.close();
+            throw new DatabaseException(e);
+        }
+    }
+
+    private <T> LobCursor openLob(T type, String column) throws DatabaseException {
+        EntityMetadata<T> metadata = getMetadata(type);
+        EntityStatements statements = getStatementsWithPrimaryKey(metadata);
+        BitSet projection = new BitSet(metadata.getColumns().size());
+        projection.set(getColumn(metadata, column).getIndex());
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        // until the value can be read, its transfer is not timed
+        QueryTimer timer = startQuery(QueryMetrics.Operation.READ, statements.getSelect(projection));
+        try {
+            connection = connectForRead(getShard(type, metadata));
+            timer.acquired();
+            preparedStatement = connection.prepareStatement(statements.getSelect(projection));
+            addPrimaryKeyToPreparedStatement(preparedStatement, 1, type, metadata);
+            resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                timer.stop();
+                disconnect(connection, preparedStatement, resultSet);
+                Logger.error("No " + metadata.getType().getName() + " found with this (PrimaryKey)");
+                return null;
+            }
+            timer.stop(1);
+            return new LobCursor(this, connection, preparedStatement, resultSet);
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw e;
+        }
+    }
+
+    private <T> BitSet getProjection(EntityMetadata<T> metadata, String column, String... columns) {
+        BitSet projection = new BitSet(metadata.getColumns().size());
+        for (ColumnMetadata primaryKey : metadata.getPrimaryKey()) {
+            projection.set(primaryKey.getIndex());
+        }
+        projection.set(getColumn(metadata, column).getIndex());
+        for (String name : columns) {
+            projection.set(getColumn(metadata, name).getIndex());
+        }
+        return projection;
+    }
+
+    private <T> ColumnMetadata getColumn(EntityMetadata<T> metadata, String name) {
+        // only fields of the entity can become part of the SQL string
+        ColumnMetadata column = metadata.getColumn(name);
+        if (column == null) {
+            throw new IllegalArgumentException("ORM: field '" + name + "' not found in " + metadata.getType().getName());
+        }
+        return column;
+    }
+
+    protected <T> List<T> readAll(Class<T> clazz) throws DatabaseException {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        ResidentTable resident = getTransaction() == null ? getResidentTable(metadata) : null;
+        if (resident != null) {
+            return newInstances(resident.getSnapshot().getAll(), metadata);
+        }
+        return executeQuery(QueryMetrics.Operation.READ_ALL, metadata.getStatements(tableName, dbtype).getSelectAll(), Collections.emptyList(), metadata);
+    }
+
+    /**
+     * Reads the entities with the given primary keys, with a SELECT ... IN (...) every inListSize keys, all on the same
+     * connection. Cached entities are not read again.
+     *
+     * @param ids primary key values, of the same type of the field, or a List of the values in column order for
+     *            composite primary keys
+     * @return the entities found, keyed as in ids and in the same order
+     */
+    protected <T> Map<Object, T> readAllByIds(Class<T> clazz, Collection<?> ids) throws DatabaseException {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        ResidentTable resident = getTransaction() == null ? getResidentTable(metadata) : null;
+        Map<Object, T> result = resident != null ? readAllByIds(resident, metadata, ids) : readAllByIds(metadata, tableName, ids);
+        WriteBehindBuffer buffer = getWriteBehindBuffer(metadata);
+        if (buffer != null) {
+            for (Map.Entry<Object, T> entry : result.entrySet()) {
+                entry.setValue(applyPendingUpdate(entry.getValue(), metadata, buffer));
+            }
+        }
+        loadRelations(new ArrayList<>(result.values()), metadata);
+        return result;
+    }
+
+    private <T> Map<Object, T> readAllByIds(ResidentTable resident, EntityMetadata<T> metadata, Collection<?> ids) throws DatabaseException {
+        ResidentTable.Snapshot snapshot = resident.getSnapshot();
+        int keySize = metadata.getPrimaryKey().size();
+        Map<Object, T> result = new LinkedHashMap<>();
+        for (Object id : ids) {
+            Object[] values = snapshot.get(toPrimaryKey(id, keySize));
+            if (values != null && !result.containsKey(id)) {
+                result.put(id, metadata.getMapper().newInstance(values));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Entities whose field is equal to the value: from the resident table if the field is one of its
+     * {@link Resident#keys()}, otherwise with a query.
+     */
+    protected <T> List<T> readAllByKey(Class<T> clazz, String field, Object value) throws DatabaseException {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        ResidentTable resident = getTransaction() == null ? getResidentTable(metadata) : null;
+        if (resident != null) {
+            List<Object[]> rows = resident.getSnapshot().getByKey(getColumn(metadata, field).getIndex(), value);
+            if (rows != null) {
+                return newInstances(rows, metadata);
+            }
+        }
+        return query(clazz).where(field, value).list();
+    }
+
+    private <T> Map<Object, T> readAllByIds(EntityMetadata<T> metadata, String tableName, Collection<?> ids) throws DatabaseException {
+        if (metadata.getPrimaryKey().isEmpty()) {
+            throw new DatabaseException("ORM, Reflection: PrimaryKey not found");
+        }
+        EntityStatements statements = metadata.getStatements(tableName, dbtype);
+        EntityMapper<T> mapper = metadata.getMapper();
+        int keySize = metadata.getPrimaryKey().size();
+
+        EntityCache cache = getTransaction() == null ? getCache(metadata, tableName) : null;
+        long cacheVersion = cache != null ? cache.getVersion() : 0;
+        Set<List<Object>> requested = new LinkedHashSet<>();
+        Map<List<Object>, T> found = new HashMap<>();
+        List<List<Object>> missing = new ArrayList<>();
+        for (Object id : ids) {
+            List<Object> primaryKey = toPrimaryKey(id, keySize);
+            if (requested.add(primaryKey)) {
+                Object[] values = cache != null ? cache.get(primaryKey) : null;
+                if (values != null) {
+                    found.put(primaryKey, mapper.newInstance(values));
+                } else {
+                    missing.add(primaryKey);
+                }
+            }
+        }
+
+        if (getShardRouter() == null) {
+            if (!missing.isEmpty()) {
+                readByIds(null, metadata, statements, missing, found, cache, cacheVersion);
+            }
+        } else {
+            // one connection for every shard with keys
+            Map<ConnectionPool, List<List<Object>>> byShard = new LinkedHashMap<>();
+            for (List<Object> primaryKey : missing) {
+                byShard.computeIfAbsent(getShardRouter().getShard(primaryKey), k -> new ArrayList<>()).add(primaryKey);
+            }
+            for (Map.Entry<ConnectionPool, List<List<Object>>> entry : byShard.entrySet()) {
+                readByIds(entry.getKey(), metadata, statements, entry.getValue(), found, cache, cacheVersion);
+            }
+        }
+
+        Map<Object, T> result = new LinkedHashMap<>();
+        for (List<Object> primaryKey : requested) {
+            T elem = found.get(primaryKey);
+            if (elem != null) {
+                result.put(keySize == 1 ? primaryKey.get(0) : primaryKey, elem);
+            }
+        }
+        return result;
+    }
+
+    private <T> void readByIds(ConnectionPool shard, EntityMetadata<T> metadata, EntityStatements statements, List<List<Object>> missing,
+                               Map<List<Object>, T> found, EntityCache cache, long cacheVersion) throws DatabaseException {
+        EntityMapper<T> mapper = metadata.getMapper();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        // one measure for all the chunks
+        QueryTimer timer = startQuery(QueryMetrics.Operation.READ_ALL, statements.getTableName(),
+                statements.getSelectByIds(getInListSize(Math.min(missing.size(), inListSize))));
+        int rows = 0;
+        try {
+            connection = connectForRead(shard);
+            timer.acquired();
+            for (int from = 0; from < missing.size(); from += inListSize) {
+                List<List<Object>> chunk = missing.subList(from, Math.min(from + inListSize, missing.size()));
+                int size = getInListSize(chunk.size());
+                preparedStatement = connection.prepareStatement(statements.getSelectByIds(size));
+                int parameterIndex = 1;
+                for (int i = 0; i < size; i++) {
+                    for (Object value : chunk.get(Math.min(i, chunk.size() - 1))) {
+                        preparedStatement.setObject(parameterIndex++, JdbcTypes.toJdbcValue(value));
+                    }
+                }
+                resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    T elem = mapper.map(resultSet);
+                    rows++;
+                    List<Object> primaryKey = getPrimaryKeyValues(elem, metadata);
+                    found.put(primaryKey, elem);
+                    if (cache != null) {
+                        cache.put(primaryKey, getValues(elem, metadata), cacheVersion);
                     }
                 }
-                T obj = constructor.newInstance(objList.toArray());
-                list.add(obj);
+                disconnect(null, preparedStatement, resultSet);
+                preparedStatement = null;
+                resultSet = null;
             }
+            timer.stop(rows);
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw e;
+        }
+        disconnect(connection, null, null);
+    }
 
-        } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
-            disconnect(null, null, resultSet);
+    /**
+     * Rows of the table with the column equal to one of the values, with a SELECT ... IN (...) every inListSize values.
+     */
+    private <T> List<T> readAllIn(EntityMetadata<T> metadata, String tableName, ColumnMetadata column, Collection<?> values) throws DatabaseException {
+        List<Object> distinct = new ArrayList<>(new LinkedHashSet<>(values));
+        if (distinct.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (getShardRouter() == null) {
+            return readAllIn(null, metadata, tableName, column, distinct);
+        }
+        // the column is not the shard key: every shard can have rows
+        List<T> list = new ArrayList<>();
+        for (List<T> rows : onShards(shard -> readAllIn(shard, metadata, tableName, column, distinct))) {
+            list.addAll(rows);
+        }
+        return list;
+    }
+
+    private <T> List<T> readAllIn(ConnectionPool shard, EntityMetadata<T> metadata, String tableName, ColumnMetadata column, List<Object> distinct) throws DatabaseException {
+        EntityStatements statements = metadata.getStatements(tableName, dbtype);
+        EntityMapper<T> mapper = metadata.getMapper();
+        List<T> list = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        QueryTimer timer = startQuery(QueryMetrics.Operation.READ_ALL, tableName,
+                statements.getSelectIn(column, getInListSize(Math.min(distinct.size(), inListSize))));
+        try {
+            connection = connectForRead(shard);
+            timer.acquired();
+            for (int from = 0; from < distinct.size(); from += inListSize) {
+                List<Object> chunk = distinct.subList(from, Math.min(from + inListSize, distinct.size()));
+                int size = getInListSize(chunk.size());
+                preparedStatement = connection.prepareStatement(statements.getSelectIn(column, size));
+                for (int i = 0; i < size; i++) {
+                    preparedStatement.setObject(i + 1, JdbcTypes.toJdbcValue(chunk.get(Math.min(i, chunk.size() - 1))));
+                }
+                resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    list.add(mapper.map(resultSet));
+                }
+                disconnect(null, preparedStatement, resultSet);
+                preparedStatement = null;
+                resultSet = null;
+            }
+            timer.stop(list.size());
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
             throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw e;
+        }
+        disconnect(connection, null, null);
+        return list;
+    }
+
+    /**
+     * Number of parameters of an IN list for count values: rounded up to a power of two and padded with the last value,
+     * so a few statements cover every size.
+     */
+    private int getInListSize(int count) {
+        return count == 1 ? 1 : Math.min(Integer.highestOneBit(count - 1) << 1, inListSize);
+    }
+
+    /**
+     * Loads a relationship of the entities, with one query for every inListSize keys: used for the LAZY ones,
+     * BATCH relationships are already loaded by the reads of this manager.
+     *
+     * @param relation name of the ManyToOne or OneToMany field
+     */
+    protected <T> void fetch(List<T> entities, String relation) throws DatabaseException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        EntityMetadata<T> metadata = getMetadata(entities.get(0));
+        RelationMetadata relationMetadata = metadata.getRelation(relation);
+        if (relationMetadata == null) {
+            throw new IllegalArgumentException("ORM: relationship '" + relation + "' not found in " + metadata.getType().getName());
+        }
+        loadRelation(entities, metadata, relationMetadata);
+    }
+
+    /**
+     * Loads the BATCH relationships of the entities. Entities loaded by a relationship do not load their own
+     * relationships, so cycles (e.g. user, devices, user) end after one level.
+     */
+    private <T> void loadRelations(List<T> entities, EntityMetadata<T> metadata) throws DatabaseException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        for (RelationMetadata relation : metadata.getRelations()) {
+            if (relation.getFetch() == FetchType.BATCH) {
+                loadRelation(entities, metadata, relation);
+            }
+        }
+    }
+
+    private <T> void loadRelation(List<T> entities, EntityMetadata<T> metadata, RelationMetadata relation) throws DatabaseException {
+        EntityMapper<T> mapper = metadata.getMapper();
+        EntityMetadata<?> target = EntityMetadata.of(relation.getTargetType());
+        String table = relation.getTable().contains(".") || schemaName == null ? relation.getTable() : schemaName + "." + relation.getTable();
+
+        if (!relation.isToMany()) {
+            // foreign key values, then the referenced entities by primary key
+            int column = metadata.getColumn(relation.getColumn()).getIndex();
+            List<Object> keys = new ArrayList<>();
+            for (T entity : entities) {
+                Object key = mapper.get(entity, column);
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+            Map<Object, ?> found = readAllByIds(target, table, keys);
+            for (T entity : entities) {
+                Object key = mapper.get(entity, column);
+                relation.set(entity, key != null ? found.get(key) : null);
+            }
+        } else {
+            // primary key values, then the referencing entities grouped by their foreign key
+            ColumnMetadata targetColumn = target.getColumn(relation.getColumn());
+            if (targetColumn == null) {
+                throw new DatabaseException("ORM, Reflection: column '" + relation.getColumn() + "' not found in " + target.getType().getName());
+            }
+            int primaryKey = metadata.getPrimaryKey().get(0).getIndex();
+            List<Object> keys = new ArrayList<>();
+            for (T entity : entities) {
+                keys.add(mapper.get(entity, primaryKey));
+            }
+            Map<Object, List<Object>> grouped = new HashMap<>();
+            for (Object elem : readAllIn(target, table, targetColumn, keys)) {
+                Object key = getValue(target, elem, targetColumn.getIndex());
+                grouped.computeIfAbsent(key, k -> new ArrayList<>()).add(elem);
+            }
+            for (T entity : entities) {
+                List<Object> list = grouped.get(mapper.get(entity, primaryKey));
+                relation.set(entity, list != null ? list : new ArrayList<>());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> Object getValue(EntityMetadata<R> metadata, Object entity, int column) throws DatabaseException {
+        return metadata.getMapper().get((R) entity, column);
+    }
+
+    private static List<Object> toPrimaryKey(Object id, int keySize) {
+        if (keySize == 1) {
+            return Collections.singletonList(id);
+        }
+        if (!(id instanceof List) || ((List<?>) id).size() != keySize) {
+            throw new IllegalArgumentException("ORM: composite primary key must be a List of " + keySize + " values: " + id);
+        }
+        return new ArrayList<>((List<?>) id);
+    }
+
+    /**
+     * Criteria query on the table of this manager, conditions, ordering and paging are executed by the database.
+     */
+    protected <T> Query<T> query(Class<T> clazz) throws DatabaseException {
+        return new Query<>(this, EntityMetadata.of(clazz), tableName, dbtype);
+    }
+
+    /**
+     * Lazy variant of {@link #readAll(Class)}: rows are fetched and mapped while the stream is consumed.
+     * The stream holds a connection and must be closed, e.g. with try-with-resources.
+     */
+    protected <T> Stream<T> stream(Class<T> clazz) throws DatabaseException {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        return stream(metadata.getStatements(tableName, dbtype).getSelectAll(), Collections.emptyList(), metadata);
+    }
+
+    /**
+     * Stream of the rows of the query, on a sharded table the shards are read one after the other, in their order.
+     */
+    <T> Stream<T> stream(String sql, List<Object> parameters, EntityMetadata<T> metadata) throws DatabaseException {
+        WriteBehindBuffer buffer = getWriteBehindBuffer(metadata);
+        if (getShardRouter() == null) {
+            return stream(iterate(null, sql, parameters, metadata, buffer));
+        }
+        // not flatMap: on Java 8 it consumes each inner stream in full (JDK-8075939), the rows of a shard would be held
+        // in memory. The cursor of a shard is opened when the previous one is consumed, and closed with the stream
+        ShardedResultIterator<T> iterator = new ShardedResultIterator<>(getShardRouter().getShards(),
+                shard -> iterate(shard, sql, parameters, metadata, buffer));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    <T> Stream<T> stream(ResultIterator<T> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Not available on a sharded table, there is a cursor for every shard: use {@link #stream(Class)}.
+     */
+    protected <T> ResultIterator<T> iterate(Class<T> clazz) throws DatabaseException {
+        if (isSharded()) {
+            throw new DatabaseException("DatabaseManager, iterate is not supported on a sharded table, use stream: " + tableName);
+        }
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        return iterate(null, metadata.getStatements(tableName, dbtype).getSelectAll(), Collections.emptyList(), metadata, getWriteBehindBuffer(metadata));
+    }
+
+    private <T> ResultIterator<T> iterate(ConnectionPool shard, String sql, List<Object> parameters, EntityMetadata<T> metadata,
+                                          WriteBehindBuffer buffer) throws DatabaseException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        // stopped by the iterator when it is closed
+        QueryTimer timer = startQuery(QueryMetrics.Operation.STREAM, sql);
+        try {
+            connection = connectForRead(shard);
+            timer.acquired();
+            preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            String url = shard != null ? shard.getUrl() : getConnectionPool().getUrl();
+            if ("mysql".equalsIgnoreCase(dbtype) && !url.contains("useCursorFetch=true")) {
+                // without server side cursors, Connector/J streams row by row only with this value
+                preparedStatement.setFetchSize(Integer.MIN_VALUE);
+            } else {
+                preparedStatement.setFetchSize(fetchSize);
+            }
+            addParametersToPreparedStatement(preparedStatement, parameters);
+            resultSet = preparedStatement.executeQuery();
+            return new ResultIterator<>(this, connection, preparedStatement, resultSet, metadata, buffer, timer);
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw new DatabaseException(e);
+        }
+    }
+
+    /**
+     * On a sharded table the query is executed on every shard at the same time, the rows are in the order of the shards.
+     */
+    <T> List<T> executeQuery(String sql, List<Object> parameters, EntityMetadata<T> metadata) throws DatabaseException {
+        return executeQuery(QueryMetrics.Operation.QUERY, sql, parameters, metadata);
+    }
+
+    private <T> List<T> executeQuery(QueryMetrics.Operation operation, String sql, List<Object> parameters, EntityMetadata<T> metadata) throws DatabaseException {
+        List<T> list;
+        if (getShardRouter() == null) {
+            list = executeQuery(null, operation, sql, parameters, metadata);
+        } else {
+            list = new ArrayList<>();
+            for (List<T> rows : onShards(shard -> executeQuery(shard, operation, sql, parameters, metadata))) {
+                list.addAll(rows);
+            }
+        }
+        list = applyPendingUpdates(list, metadata);
+        // after the connection is released: relationships may use another one
+        loadRelations(list, metadata);
+        return list;
+    }
+
+    private <T> List<T> executeQuery(ConnectionPool shard, QueryMetrics.Operation operation, String sql, List<Object> parameters,
+                                     EntityMetadata<T> metadata) throws DatabaseException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<T> list = null;
+        QueryTimer timer = startQuery(operation, sql);
+        try {
+            connection = connectForRead(shard);
+            timer.acquired();
+            preparedStatement = connection.prepareStatement(sql);
+            addParametersToPreparedStatement(preparedStatement, parameters);
+            resultSet = preparedStatement.executeQuery();
+            list = getListFromResultSet(metadata, resultSet);
+            timer.stop(list.size());
+
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw e;
+        }
+        disconnect(connection, preparedStatement, resultSet);
+        return list;
+    }
+
+    private void addParametersToPreparedStatement(PreparedStatement preparedStatement, List<Object> parameters) throws SQLException {
+        int parameterIndex = 1;
+        for (Object parameter : parameters) {
+            preparedStatement.setObject(parameterIndex++, parameter);
+        }
+    }
+
+    private <T> List<T> getListFromResultSet(EntityMetadata<T> metadata, ResultSet resultSet) throws
+            DatabaseException, SQLException {
+        List<T> list = new ArrayList<T>();
+        EntityMapper<T> mapper = metadata.getMapper();
+        try {
+            // create a new instance of generic object
+            while (resultSet.next()) {
+                list.add(mapper.map(resultSet));
+            }
+        } catch (DatabaseException e) {
+            disconnect(null, null, resultSet);
+            throw e;
         }
         disconnect(null, null, resultSet);
         return list;
@@ -394,28 +1771,70 @@ public class DatabaseManager {
         if (dbManagerAction != null) {
             type = (T) dbManagerAction.action(type);
         }
+        EntityMetadata<T> metadata = getMetadata(type);
+        EntityStatements statements = getStatementsWithPrimaryKey(metadata);
 
+        // search valorized fields in "type" passed as parameter, which they aren't part of the primaryKey
+        EntityMapper<T> mapper = metadata.getMapper();
+        BitSet valorizedColumns = getValorizedColumns(type, metadata);
+        if (valorizedColumns.isEmpty()) {
+            // nothing to update
+            return true;
+        }
+        discardPending(type, metadata, valorizedColumns);
+
+        // with the version read, the row is updated only if nobody else updated it since then
+        ColumnMetadata version = metadata.getVersion();
+        Object expectedVersion = version != null ? mapper.get(type, version.getIndex()) : null;
+        int updated = -1;
+        String sql = statements.getUpdate(valorizedColumns, expectedVersion != null);
+        QueryTimer timer = startQuery(QueryMetrics.Operation.UPDATE, sql);
         try {
-            connection = connect();
-            // create SQL string
-            StringBuilder sql = new StringBuilder("UPDATE " + tableName + " #SET# ");
-            // search primary key
-            preparedStatement = createPreparedStatementWithPrimaryKey(connection, sql, type);
+            connection = connect(getShard(type, metadata));
+            timer.acquired();
+            markWrite();
+            preparedStatement = connection.prepareStatement(sql);
+
+            int parameterIndex = 1;
+            for (int i = valorizedColumns.nextSetBit(0); i >= 0; i = valorizedColumns.nextSetBit(i + 1)) {
+                mapper.bind(preparedStatement, parameterIndex++, type, i);
+            }
+            addPrimaryKeyToPreparedStatement(preparedStatement, parameterIndex, type, metadata);
+            if (expectedVersion != null) {
+                mapper.bind(preparedStatement, parameterIndex + metadata.getPrimaryKey().size(), type, version.getIndex());
+            }
 
             try {
-                preparedStatement.executeUpdate();
+                updated = preparedStatement.executeUpdate();
                 // for Derby DB
             } catch (DerbySQLIntegrityConstraintViolationException e) {
+                // a versioned update that was not written must not look like a success nor like a conflict
+                if (expectedVersion != null) {
+                    throw new DatabaseException(e);
+                }
                 //Logger.info(e.getMessage());
             }
+            timer.stop(Math.max(updated, 0));
         } catch (SQLException e) {
+            timer.fail();
             disconnect(connection, preparedStatement, null);
             throw new DatabaseException(e);
-            //return false;
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, null);
+            throw e;
         }
 
         disconnect(connection, preparedStatement, null);
-        return true;
+        invalidate(type, metadata);
+        if (expectedVersion != null) {
+            if (updated == 0) {
+                throw new OptimisticLockException("DatabaseManager, " + metadata.getType().getName() + " " +
+                        getPrimaryKeyValues(type, metadata) + " updated or deleted after version " + expectedVersion);
+            }
+            incrementVersion(type, metadata, expectedVersion);
+        }
+        return updated > 0;
     }
 
     protected <T> boolean delete(T type) throws DatabaseException {
@@ -429,173 +1848,884 @@ public class DatabaseManager {
         if (dbManagerAction != null) {
             type = (T) dbManagerAction.action(type);
         }
+        EntityMetadata<T> metadata = getMetadata(type);
+        String sql = getStatementsWithPrimaryKey(metadata).getDelete();
+        discardPending(type, metadata, null);
+        QueryTimer timer = startQuery(QueryMetrics.Operation.DELETE, sql);
 
         try {
-            connection = connect();
-
-            // create SQL string
-            StringBuilder sql = new StringBuilder("DELETE FROM " + tableName);
-
-            // search primary key
-            preparedStatement = createPreparedStatementWithPrimaryKey(connection, sql, type);
+            connection = connect(getShard(type, metadata));
+            timer.acquired();
+            markWrite();
+            preparedStatement = connection.prepareStatement(sql);
+            addPrimaryKeyToPreparedStatement(preparedStatement, 1, type, metadata);
 
+            int deleted = 0;
             try {
-                preparedStatement.executeUpdate();
+                deleted = preparedStatement.executeUpdate();
                 // for Derby DB
             } catch (DerbySQLIntegrityConstraintViolationException e) {
                 //Logger.info(e.getMessage());
             }
+            timer.stop(deleted);
 
         } catch (SQLException e) {
+            timer.fail();
             disconnect(connection, preparedStatement, null);
             throw new DatabaseException(e);
-            //return false;
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, null);
+            throw e;
         }
 
         disconnect(connection, preparedStatement, null);
+        invalidate(type, metadata);
         return true;
     }
 
-    private <T> List<Field> getPrimaryKey(T type) {
-        List<Field> primaryKey = new ArrayList<>();
-        for (Field field2 : type.getClass().getDeclaredFields()) {
-            Annotation annotation = field2.getAnnotation(Id.class);
-            if (annotation != null) {
-                primaryKey.add(field2);
+    /**
+     * Creates the entity, or updates all its columns if the primary key is already present, with a single statement
+     * (MySQL INSERT ... ON DUPLICATE KEY UPDATE, Derby MERGE). Null fields are written as NULL.
+     */
+    protected <T> boolean upsert(T type) throws DatabaseException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        EntityMetadata<T> metadata = getMetadata(type);
+        EntityStatements statements = getStatementsWithPrimaryKey(metadata);
+        initVersion(type, metadata);
+        // all the columns are written
+        discardPending(type, metadata, null);
+        QueryTimer timer = startQuery(QueryMetrics.Operation.UPSERT, statements.getUpsert());
+
+        try {
+            connection = connect(getShard(type, metadata));
+            timer.acquired();
+            markWrite();
+            preparedStatement = connection.prepareStatement(statements.getUpsert());
+
+            EntityMapper<T> mapper = metadata.getMapper();
+            int parameterIndex = 1;
+            for (int column : statements.getUpsertColumns()) {
+                mapper.bind(preparedStatement, parameterIndex++, type, column);
             }
+            preparedStatement.executeUpdate();
+            timer.stop(1);
+
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, null);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, null);
+            throw e;
         }
-        return primaryKey;
+        disconnect(connection, preparedStatement, null);
+        invalidate(type, metadata);
+        return true;
     }
 
-
-    protected <T> boolean create(T type, DBManagerAction dbManagerAction) throws DatabaseException {
+    /**
+     * @return true if an entity with the primary key of type exists, without reading its columns
+     */
+    protected <T> boolean exists(T type) throws DatabaseException {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        EntityMetadata<T> metadata = getMetadata(type);
+        EntityStatements statements = getStatementsWithPrimaryKey(metadata);
 
-        if (dbManagerAction != null) {
-            type = (T) dbManagerAction.action(type);
+        ResidentTable resident = getTransaction() == null ? getResidentTable(metadata) : null;
+        if (resident != null) {
+            return resident.getSnapshot().get(getPrimaryKeyValues(type, metadata)) != null;
+        }
+        EntityCache cache = getTransaction() == null ? getCache(metadata) : null;
+        if (cache != null && cache.get(getPrimaryKeyValues(type, metadata)) != null) {
+            return true;
         }
 
+        boolean exists;
+        QueryTimer timer = startQuery(QueryMetrics.Operation.EXISTS, statements.getExists());
         try {
-            connection = connect();
+            connection = connectForRead(getShard(type, metadata));
+            timer.acquired();
+            preparedStatement = connection.prepareStatement(statements.getExists());
+            addPrimaryKeyToPreparedStatement(preparedStatement, 1, type, metadata);
+            resultSet = preparedStatement.executeQuery();
+            exists = resultSet.next();
+            timer.stop(exists ? 1 : 0);
 
-            // create SQL string
-            StringBuilder sql = new StringBuilder("INSERT " + ("mysql".equalsIgnoreCase(dbtype) ? "IGNORE" : "") + " INTO " + tableName + " (");
-            int i = 0;
-            // count transient fields
-            int numberOfFieldTransient = 0;
-            for (Field field : type.getClass().getDeclaredFields()) {
-                if (Modifier.isTransient(field.getModifiers())) {
-                    numberOfFieldTransient++;
-                }
+        } catch (SQLException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw new DatabaseException(e);
+        } catch (DatabaseException e) {
+            timer.fail();
+            disconnect(connection, preparedStatement, resultSet);
+            throw e;
+        }
+        disconnect(connection, preparedStatement, resultSet);
+        return exists;
+    }
+
+    // Async: CRUD operations on the executor of this datasource. They run on other threads, so outside of inTransaction()
+
+    protected <T> CompletableFuture<Boolean> createAsync(T type) {
+        return submitWrite(() -> create(type));
+    }
+
+    protected <T> CompletableFuture<T> readAsync(T type) {
+        return getAsyncExecutor().submit(() -> read(type));
+    }
+
+    protected <T> CompletableFuture<List<T>> readAllAsync(Class<T> clazz) {
+        return getAsyncExecutor().submit(() -> readAll(clazz));
+    }
+
+    protected <T> CompletableFuture<Boolean> updateAsync(T type) {
+        return submitWrite(() -> update(type));
+    }
+
+    protected <T> CompletableFuture<Boolean> deleteAsync(T type) {
+        return submitWrite(() -> delete(type));
+    }
+
+    /**
+     * The write runs on another thread: when it is done, it starts the read-your-writes window of the calling thread,
+     * before the future completes.
+     */
+    private <R> CompletableFuture<R> submitWrite(Callable<R> write) {
+        if (getReplicaRouter() == null) {
+            return getAsyncExecutor().submit(write);
+        }
+        Map<ConnectionPool, Long> lastWrites = getLastWrites();
+        ConnectionPool pool = getConnectionPool();
+        return getAsyncExecutor().submit(() -> {
+            try {
+                return write.call();
+            } finally {
+                lastWrites.put(pool, System.nanoTime());
+            }
+        });
+    }
+
+    private AsyncExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            ConnectionPool pool = getConnectionPool();
+            asyncExecutor = AsyncExecutor.getInstance(pool.getUrl() + "|" + dbUsername,
+                    asyncThreads > 0 ? asyncThreads : pool.getConfiguration().getMaxSize(), asyncQueueSize, asyncVirtualThreads);
+        }
+        return asyncExecutor;
+    }
+
+    public AsyncStatistics getAsyncStatistics() {
+        return getAsyncExecutor().getStatistics();
+    }
+
+    // Write-behind: updates of @WriteBehind entities queued and written in batches by a background writer
+
+    /**
+     * Queues the update of a {@link WriteBehind} entity and returns without waiting for the database. Pending updates
+     * of the same primary key are merged, so a field updated many times is written once with the last value.
+     * The reads of this manager (read, readAll, readAllByIds, readAllByKey, query, stream and iterate) return the
+     * entity with its pending update, the entities loaded by relationships are read as they are in the database.
+     * update(), upsert() and delete() of the entity drop the pending values they replace. The version, if any, is not
+     * checked.
+     * <p>
+     * Without {@link WriteBehind}, or inside inTransaction(), it is {@link #update(Object)}.
+     */
+    protected <T> boolean updateWriteBehind(T type) throws DatabaseException {
+        EntityMetadata<T> metadata = getMetadata(type);
+        WriteBehindBuffer buffer = getTransaction() == null ? getWriteBehindBuffer(metadata) : null;
+        if (buffer == null) {
+            return update(type);
+        }
+        Object[] values = getValues(type, metadata);
+        ColumnMetadata version = metadata.getVersion();
+        if (version != null) {
+            if (version.getType().isPrimitive()) {
+                throw new DatabaseException("DatabaseManager, write-behind of " + metadata.getType().getName() + " needs an Integer or Long @Version");
+            }
+            // not a partial update of the row read: the update is written as it is
+            values[version.getIndex()] = null;
+        }
+        buffer.put(getPrimaryKeyValues(type, metadata), values);
+        return true;
+    }
+
+    /**
+     * Writes the pending updates of the entity class now.
+     */
+    protected void flushWriteBehind(Class<?> clazz) throws DatabaseException {
+        WriteBehindBuffer buffer = getWriteBehindBuffer(EntityMetadata.of(clazz));
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
+    public WriteBehindStatistics getWriteBehindStatistics(Class<?> clazz) throws DatabaseException {
+        WriteBehindBuffer buffer = getWriteBehindBuffer(EntityMetadata.of(clazz));
+        return buffer != null ? buffer.getStatistics() : null;
+    }
+
+    /**
+     * @return the buffer shared by the managers of this datasource and table, or null if the entity is not @WriteBehind
+     */
+    private <T> WriteBehindBuffer getWriteBehindBuffer(EntityMetadata<T> metadata) {
+        WriteBehind writeBehind = metadata.getWriteBehind();
+        if (writeBehind == null) {
+            return null;
+        }
+        return WriteBehindBuffer.getInstance(getDatasource() + "|" + dbUsername + "|" + tableName + "|" + metadata.getType().getName(),
+                writeBehind.maxPending(), writeBehind.batchSize(), writeBehind.flushInterval(), writeBehind.maxWait(), rows -> {
+                    List<T> entities = new ArrayList<>(rows.size());
+                    for (Object[] values : rows) {
+                        entities.add(metadata.getMapper().newInstance(values));
+                    }
+                    executeBatch(entities, BatchOperation.UPDATE);
+                });
+    }
+
+    /**
+     * The entity is written without the buffer: its older pending values of the columns are not written after it.
+     *
+     * @param columns null for the whole row
+     */
+    private <T> void discardPending(T type, EntityMetadata<T> metadata, BitSet columns) throws DatabaseException {
+        WriteBehindBuffer buffer = getWriteBehindBuffer(metadata);
+        if (buffer != null) {
+            buffer.discard(getPrimaryKeyValues(type, metadata), columns);
+        }
+    }
+
+    /**
+     * @return the entities with the values of their pending write-behind updates, if any
+     */
+    private <T> List<T> applyPendingUpdates(List<T> list, EntityMetadata<T> metadata) throws DatabaseException {
+        WriteBehindBuffer buffer = getWriteBehindBuffer(metadata);
+        if (buffer == null) {
+            return list;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            list.set(i, applyPendingUpdate(list.get(i), metadata, buffer));
+        }
+        return list;
+    }
+
+    /**
+     * @return the entity with the values of its pending write-behind update, if any
+     */
+    <T> T applyPendingUpdate(T elem, EntityMetadata<T> metadata, WriteBehindBuffer buffer) throws DatabaseException {
+        Object[] pending = buffer.get(getPrimaryKeyValues(elem, metadata));
+        if (pending == null) {
+            return elem;
+        }
+        Object[] values = getValues(elem, metadata);
+        for (int i = 0; i < values.length; i++) {
+            if (pending[i] != null) {
+                values[i] = pending[i];
             }
+        }
+        return metadata.getMapper().newInstance(values);
+    }
+
+    // Batch: Create, update and delete of many entities with one connection and one transaction
+    protected <T> boolean createAll(List<T> types) throws DatabaseException {
+        return executeBatch(types, BatchOperation.CREATE);
+    }
+
+    protected <T> boolean updateAll(List<T> types) throws DatabaseException {
+        return executeBatch(types, BatchOperation.UPDATE);
+    }
+
+    protected <T> boolean deleteAll(List<T> types) throws DatabaseException {
+        return executeBatch(types, BatchOperation.DELETE);
+    }
 
-            int numberOfFiels = type.getClass().getDeclaredFields().length - numberOfFieldTransient;
-            for (Field field : type.getClass().getDeclaredFields()) {
-                //Type fieldType = field.getGenericType();
-                String fieldName = field.getName();
-                // handle add of transient field by coverage tools
-                if (!Modifier.isTransient(field.getModifiers())) {
-                    sql.append(fieldName).append((++i < numberOfFiels) ? ", " : "");
+    /**
+     * Moves the rows that are not on the shard of their primary key, e.g. after a shard is added: they are copied
+     * to their shard, then deleted from the old one. The rows to move of a shard are held in memory. If it stops, it
+     * can be run again: rows already copied are skipped as by create().
+     *
+     * @return the number of rows moved
+     */
+    protected <T> int rebalance(Class<T> clazz) throws DatabaseException {
+        ShardRouter router = getShardRouter();
+        if (router == null) {
+            return 0;
+        }
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        String sql = getStatementsWithPrimaryKey(metadata).getSelectAll();
+        int moved = 0;
+        for (ConnectionPool shard : router.getShards()) {
+            Map<ConnectionPool, List<T>> misplaced = new LinkedHashMap<>();
+            // the rows as they are in the database, pending updates are written to their shard later
+            try (ResultIterator<T> iterator = iterate(shard, sql, Collections.emptyList(), metadata, null)) {
+                while (iterator.hasNext()) {
+                    T elem = iterator.next();
+                    ConnectionPool target = getShard(elem, metadata);
+                    if (target != shard) {
+                        misplaced.computeIfAbsent(target, k -> new ArrayList<>()).add(elem);
+                    }
                 }
+            } catch (UncheckedDatabaseException e) {
+                throw e.getCause();
             }
-            sql.append(") VALUES (");
-            for (int i1 = 0; i1 < numberOfFiels; i1++) {
-                sql.append("?").append((i1 < numberOfFiels - 1) ? "," : "");
+            for (Map.Entry<ConnectionPool, List<T>> entry : misplaced.entrySet()) {
+                executeBatch(entry.getKey(), entry.getValue(), BatchOperation.CREATE);
+                executeBatch(shard, entry.getValue(), BatchOperation.DELETE);
+                moved += entry.getValue().size();
             }
-            sql.append(")");
+        }
+        if (moved > 0) {
+            Logger.info("DatabaseManager, rebalance of " + tableName + ": " + moved + " rows moved");
+        }
+        return moved;
+    }
 
-            preparedStatement = connection.prepareStatement(sql.toString());
+    // Export/import: all the rows of a table streamed to and from a file, e.g. to back up or seed a database
 
-            // insert values in preparedStatement
-            int parameterIndex = 1;
-            for (Field field : type.getClass().getDeclaredFields()) {
-                // handle add of transient field by coverage tools
-                if (!Modifier.isTransient(field.getModifiers())) {
+    protected <T> long exportTable(Class<T> clazz, OutputStream outputStream, TableFormat format) throws DatabaseException {
+        return exportTable(clazz, outputStream, format, null);
+    }
+
+    /**
+     * Writes all the rows of the table, read with a cursor as by {@link #stream(Class)}: memory does not grow with the
+     * table. Pending write-behind updates are written first. The output stream is flushed, not closed.
+     *
+     * @param listener called every batchSize rows and at the end, can be null
+     * @return the number of rows written
+     */
+    protected <T> long exportTable(Class<T> clazz, OutputStream outputStream, TableFormat format, TransferListener listener) throws DatabaseException {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        flushWriteBehind(clazz);
+        String[] columns = new String[metadata.getColumns().size()];
+        for (ColumnMetadata column : metadata.getColumns()) {
+            columns[column.getIndex()] = column.getName();
+        }
+        TableWriter writer = format.newWriter(outputStream);
+        long rows = 0;
+        try (Stream<T> stream = stream(clazz)) {
+            writer.writeHeader(Arrays.asList(columns));
+            Iterator<T> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                writer.writeRow(getValues(iterator.next(), metadata));
+                if (++rows % batchSize == 0 && listener != null) {
+                    listener.progress(rows);
+                }
+            }
+            writer.flush();
+        } catch (UncheckedDatabaseException e) {
+            throw e.getCause();
+        } catch (IOException e) {
+            throw new DatabaseException("DatabaseManager, export of " + tableName, e);
+        }
+        if (listener != null) {
+            listener.progress(rows);
+        }
+        return rows;
+    }
 
-                    preparedStatement = addAttributeToPreparedStatement(preparedStatement,
-                            parameterIndex, type, field);
+    protected <T> long importTable(Class<T> clazz, InputStream inputStream, TableFormat format) throws DatabaseException {
+        return importTable(clazz, inputStream, format, batchSize, null);
+    }
 
-                    parameterIndex++;
+    /**
+     * Creates the rows of an export of the same entity with batch inserts, committed every commitSize rows: at most
+     * commitSize entities are held in memory. Rows whose primary key is already present are skipped as by create(),
+     * so an import that stopped can be run again. Columns missing from the export are null (zero for primitives),
+     * unknown ones are an error. Inside inTransaction() the rows are committed by the transaction.
+     *
+     * @param listener called after every commit, can be null
+     * @return the number of rows read
+     */
+    protected <T> long importTable(Class<T> clazz, InputStream inputStream, TableFormat format, int commitSize,
+                                   TransferListener listener) throws DatabaseException {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        EntityMapper<T> mapper = metadata.getMapper();
+        TableReader reader = format.newReader(inputStream);
+        Object[] defaults = getDefaults(metadata);
+        long rows = 0;
+        try {
+            List<String> header = reader.readHeader();
+            // position in the entity and type of each column of the export
+            int[] indexes = new int[header.size()];
+            Class<?>[] types = new Class<?>[header.size()];
+            for (int i = 0; i < header.size(); i++) {
+                ColumnMetadata column = metadata.getColumn(header.get(i));
+                if (column == null) {
+                    throw new DatabaseException("DatabaseManager, import of " + tableName + ": column " + header.get(i) +
+                            " not found in " + metadata.getType().getName());
                 }
+                indexes[i] = column.getIndex();
+                types[i] = column.getType();
             }
-            //Logger.info(preparedStatement.toString());
 
-            try {
-                preparedStatement.executeUpdate();
+            List<T> chunk = new ArrayList<>();
+            Object[] row;
+            while ((row = reader.readRow(types)) != null) {
+                Object[] values = defaults.clone();
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i] != null) {
+                        values[indexes[i]] = row[i];
+                    }
+                }
+                chunk.add(mapper.newInstance(values));
+                if (chunk.size() >= commitSize) {
+                    executeBatch(chunk, BatchOperation.CREATE);
+                    rows += chunk.size();
+                    chunk.clear();
+                    if (listener != null) {
+                        listener.progress(rows);
+                    }
+                }
+            }
+            executeBatch(chunk, BatchOperation.CREATE);
+            rows += chunk.size();
+        } catch (IOException e) {
+            throw new DatabaseException("DatabaseManager, import of " + tableName + " after " + rows + " rows", e);
+        }
+        if (listener != null) {
+            listener.progress(rows);
+        }
+        return rows;
+    }
 
-                // for Derby DB
-            } catch (DerbySQLIntegrityConstraintViolationException e) {
-                //Logger.info(e.getMessage());
+    private enum BatchOperation {
+        CREATE, UPDATE, DELETE
+    }
+
+    private <T> boolean executeBatch(List<T> types, BatchOperation operation) throws DatabaseException {
+        if (types == null || types.isEmpty()) {
+            return true;
+        }
+        if (getShardRouter() == null) {
+            return executeBatch(null, types, operation);
+        }
+        // a batch for every shard, each one committed on its own
+        EntityMetadata<T> metadata = getMetadata(types.get(0));
+        Map<ConnectionPool, List<T>> byShard = new LinkedHashMap<>();
+        for (T type : types) {
+            byShard.computeIfAbsent(getShard(type, metadata), k -> new ArrayList<>()).add(type);
+        }
+        for (Map.Entry<ConnectionPool, List<T>> entry : byShard.entrySet()) {
+            executeBatch(entry.getKey(), entry.getValue(), operation);
+        }
+        return true;
+    }
+
+    private <T> boolean executeBatch(ConnectionPool shard, List<T> types, BatchOperation operation) throws DatabaseException {
+        EntityMetadata<T> metadata = getMetadata(types.get(0));
+        EntityStatements statements = operation == BatchOperation.CREATE ?
+                metadata.getStatements(tableName, dbtype) : getStatementsWithPrimaryKey(metadata);
+        EntityMapper<T> mapper = metadata.getMapper();
+
+        Connection connection = null;
+        // UPDATE strings change with the valorized fields: statements are kept open and reused for the whole batch
+        Map<String, PreparedStatement> preparedStatements = new HashMap<>();
+        PreparedStatement current = null;
+        List<T> chunk = new ArrayList<>();
+        // inside inTransaction() the batch is committed by the transaction
+        Transaction transaction = getTransaction();
+        // one timing for the whole batch, committed included
+        QueryTimer timer = startQuery(operation == BatchOperation.CREATE ? QueryMetrics.Operation.BATCH_CREATE :
+                operation == BatchOperation.UPDATE ? QueryMetrics.Operation.BATCH_UPDATE : QueryMetrics.Operation.BATCH_DELETE, null);
+        try {
+            connection = connect(shard);
+            timer.acquired();
+            markWrite();
+            if (transaction == null) {
+                connection.setAutoCommit(false);
+            }
+
+            for (T type : types) {
+                String sql;
+                BitSet valorizedColumns = null;
+                switch (operation) {
+                    case CREATE:
+                        sql = statements.getInsert();
+                        break;
+                    case UPDATE:
+                        valorizedColumns = getValorizedColumns(type, metadata);
+                        if (valorizedColumns.isEmpty()) {
+                            // nothing to update
+                            continue;
+                        }
+                        sql = statements.getUpdate(valorizedColumns, getVersion(type, metadata) != null);
+                        break;
+                    default:
+                        sql = statements.getDelete();
+                        break;
+                }
+
+                PreparedStatement preparedStatement = preparedStatements.get(sql);
+                if (preparedStatement == null) {
+                    preparedStatement = connection.prepareStatement(sql);
+                    preparedStatements.put(sql, preparedStatement);
+                }
+                if (current != null && current != preparedStatement) {
+                    // keep the order of the operations when the statement changes
+                    flushBatch(current, chunk, operation, metadata);
+                }
+                current = preparedStatement;
+                timer.statement(sql);
+
+                int parameterIndex = 1;
+                switch (operation) {
+                    case CREATE:
+                        initVersion(type, metadata);
+                        for (ColumnMetadata column : metadata.getColumns()) {
+                            mapper.bind(preparedStatement, parameterIndex++, type, column.getIndex());
+                        }
+                        break;
+                    case UPDATE:
+                        for (int i = valorizedColumns.nextSetBit(0); i >= 0; i = valorizedColumns.nextSetBit(i + 1)) {
+                            mapper.bind(preparedStatement, parameterIndex++, type, i);
+                        }
+                        addPrimaryKeyToPreparedStatement(preparedStatement, parameterIndex, type, metadata);
+                        if (getVersion(type, metadata) != null) {
+                            mapper.bind(preparedStatement, parameterIndex + metadata.getPrimaryKey().size(), type, metadata.getVersion().getIndex());
+                        }
+                        break;
+                    default:
+                        addPrimaryKeyToPreparedStatement(preparedStatement, parameterIndex, type, metadata);
+                        break;
+                }
+                preparedStatement.addBatch();
+                chunk.add(type);
+
+                if (chunk.size() >= batchSize) {
+                    flushBatch(current, chunk, operation, metadata);
+                }
+            }
+            if (current != null) {
+                flushBatch(current, chunk, operation, metadata);
+            }
+            if (transaction == null) {
+                connection.commit();
             }
+            timer.stop(types.size());
 
         } catch (SQLException e) {
-            disconnect(connection, preparedStatement, null);
+            timer.fail();
+            rollback(connection, transaction);
+            closeBatch(connection, preparedStatements, transaction);
             throw new DatabaseException(e);
-            //return false;
+        } catch (DatabaseException e) {
+            timer.fail();
+            rollback(connection, transaction);
+            closeBatch(connection, preparedStatements, transaction);
+            throw e;
+        }
+        closeBatch(connection, preparedStatements, transaction);
+        for (T type : types) {
+            invalidate(type, metadata);
+            Object version = operation == BatchOperation.UPDATE ? getVersion(type, metadata) : null;
+            if (version != null && !getValorizedColumns(type, metadata).isEmpty()) {
+                // a row not updated failed the whole batch
+                incrementVersion(type, metadata, version);
+            }
         }
-        disconnect(connection, preparedStatement, null);
         return true;
     }
 
-    private <T> PreparedStatement addAttributeToPreparedStatement(PreparedStatement preparedStatement,
-                                                                  int parameterIndex,
-                                                                  T type,
-                                                                  Field field) throws SQLException, DatabaseException {
-        PreparedStatement ps = preparedStatement;
-        Type fieldType = field.getGenericType();
-        Method getter = searchFieldGetter(type, field);
+    private <T> void flushBatch(PreparedStatement preparedStatement, List<T> chunk, BatchOperation operation,
+                                EntityMetadata<T> metadata) throws SQLException, DatabaseException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            int[] updateCounts = preparedStatement.executeBatch();
+            if (operation == BatchOperation.UPDATE && metadata.getVersion() != null) {
+                for (int i = 0; i < updateCounts.length && i < chunk.size(); i++) {
+                    // the whole batch is rolled back
+                    if (updateCounts[i] == 0 && getVersion(chunk.get(i), metadata) != null) {
+                        throw new OptimisticLockException("DatabaseManager, " + metadata.getType().getName() + " " +
+                                getPrimaryKeyValues(chunk.get(i), metadata) + " updated or deleted after version " + getVersion(chunk.get(i), metadata));
+                    }
+                }
+            }
+        } catch (BatchUpdateException e) {
+            // for Derby DB: INSERT has no IGNORE, duplicates are skipped as create() does
+            if (operation == BatchOperation.CREATE && "derby".equalsIgnoreCase(dbtype) && isIntegrityConstraintViolation(e)) {
+                createOneByOne(preparedStatement, chunk.subList(e.getUpdateCounts().length, chunk.size()), metadata);
+            } else {
+                throw e;
+            }
+        }
+        chunk.clear();
+    }
+
+    private static boolean isIntegrityConstraintViolation(SQLException e) {
+        // SQLState class 23: integrity constraint violation
+        for (SQLException exception = e; exception != null; exception = exception.getNextException()) {
+            if (exception.getSQLState() != null && exception.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return e.getCause() instanceof SQLIntegrityConstraintViolationException;
+    }
+
+    private <T> void createOneByOne(PreparedStatement preparedStatement, List<T> types, EntityMetadata<T> metadata) throws SQLException, DatabaseException {
+        preparedStatement.clearBatch();
+        EntityMapper<T> mapper = metadata.getMapper();
+        for (T type : types) {
+            int parameterIndex = 1;
+            for (ColumnMetadata column : metadata.getColumns()) {
+                mapper.bind(preparedStatement, parameterIndex++, type, column.getIndex());
+            }
+            try {
+                preparedStatement.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException e) {
+                //Logger.info(e.getMessage());
+            }
+        }
+    }
+
+    private void rollback(Connection connection, Transaction transaction) {
+        if (transaction != null) {
+            // part of the batch can be executed, the whole transaction is rolled back
+            transaction.setRollbackOnly();
+            return;
+        }
+        try {
+            if (connection != null) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            Logger.error("DatabaseManager, rollback", e);
+        }
+    }
 
+    private void closeBatch(Connection connection, Map<String, PreparedStatement> preparedStatements,
+                            Transaction transaction) throws DatabaseException {
+        for (PreparedStatement preparedStatement : preparedStatements.values()) {
+            disconnect(null, preparedStatement, null);
+        }
         try {
-            //String fieldName = field.getName();
-            //Logger.info("Type: " + fieldType + ", Name: " + fieldName + ", Value: " + field.get(type).toString());
-            switch (fieldType.getTypeName()) {
-                case "java.lang.String":
-                    //ps.setString(parameterIndex, field.get(type).toString());
-                    ps.setString(parameterIndex, (String) getter.invoke(type));
-                    break;
-                case "java.lang.Boolean":
-                    //preparedStatement.setBoolean(parameterIndex, field.getBoolean(type));
-                    //ps.setBoolean(parameterIndex, Boolean.parseBoolean(field.get(type).toString()));
-                    ps.setBoolean(parameterIndex, (Boolean) getter.invoke(type));
-                    break;
-                default:
-                    Logger.error("ORM, Reflection: type not mapped, type: " + fieldType);
-                    break;
+            if (connection != null && transaction == null) {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Logger.error("DatabaseManager, closeBatch", e);
+        }
+        disconnect(connection, null, null);
+    }
+
+    /**
+     * @return the cache shared by the managers of this datasource and table, or null if the entity is not @Cacheable
+     */
+    private <T> EntityCache getCache(EntityMetadata<T> metadata) {
+        return getCache(metadata, tableName);
+    }
+
+    private <T> EntityCache getCache(EntityMetadata<T> metadata, String tableName) {
+        Cacheable cacheable = metadata.getCacheable();
+        if (cacheable == null) {
+            return null;
+        }
+        return EntityCache.getInstance(getDatasource() + "|" + dbUsername + "|" + tableName + "|" + metadata.getType().getName(),
+                cacheable.maxSize(), cacheable.ttl());
+    }
+
+    public CacheStatistics getCacheStatistics(Class<?> clazz) throws DatabaseException {
+        EntityCache cache = getCache(EntityMetadata.of(clazz));
+        return cache != null ? cache.getStatistics() : null;
+    }
+
+    private <T> void invalidate(T type, EntityMetadata<T> metadata) throws DatabaseException {
+        EntityCache cache = getCache(metadata);
+        if (cache != null) {
+            List<Object> primaryKey = getPrimaryKeyValues(type, metadata);
+            cache.invalidate(primaryKey);
+            Transaction transaction = getTransaction();
+            if (transaction != null) {
+                // other threads can read the committed value again until the transaction ends
+                transaction.addInvalidation(cache, primaryKey);
+            }
+        }
+        ResidentTable resident = getResidentTable(metadata);
+        if (resident != null) {
+            List<Object> primaryKey = getPrimaryKeyValues(type, metadata);
+            resident.invalidate(primaryKey);
+            Transaction transaction = getTransaction();
+            if (transaction != null) {
+                // a refresh before the commit reads the committed row
+                transaction.addInvalidation(resident, primaryKey);
             }
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new DatabaseException("ORM, Reflection: error invoking getter", e);
         }
-        return ps;
     }
 
-    private <T> Method searchFieldGetter(T type, Field field) throws DatabaseException {
-        //search getter
-        Method getter = null;
-        for (Method method : type.getClass().getMethods()) {
-            if (method.getName().startsWith("get") &&
-                    method.getName().equalsIgnoreCase("get" + field.getName())) {
-                getter = method;
+    /**
+     * @return the resident table shared by the managers of this datasource and table, or null if the entity is not @Resident
+     */
+    private <T> ResidentTable getResidentTable(EntityMetadata<T> metadata) throws DatabaseException {
+        Resident resident = metadata.getResident();
+        if (resident == null) {
+            return null;
+        }
+        String name = getDatasource() + "|" + dbUsername + "|" + tableName + "|" + metadata.getType().getName();
+        ResidentTable table = ResidentTable.getInstance(name);
+        if (table != null) {
+            return table;
+        }
+
+        if (metadata.getPrimaryKey().isEmpty()) {
+            throw new DatabaseException("DatabaseManager, @Resident " + metadata.getType().getName() + " without a primary key");
+        }
+        int[] primaryKey = new int[metadata.getPrimaryKey().size()];
+        for (int i = 0; i < primaryKey.length; i++) {
+            primaryKey[i] = metadata.getPrimaryKey().get(i).getIndex();
+        }
+        int[] keys = new int[resident.keys().length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = getResidentColumn(metadata, resident.keys()[i]).getIndex();
+        }
+        ColumnMetadata changeColumn = resident.changeColumn().isEmpty() ? null : getResidentColumn(metadata, resident.changeColumn());
+        if (changeColumn != null && !changeColumn.getType().isPrimitive() && !Comparable.class.isAssignableFrom(changeColumn.getType())) {
+            throw new DatabaseException("DatabaseManager, @Resident change column " + changeColumn.getName() + " is not Comparable");
+        }
+        Class<T> clazz = metadata.getType();
+        return ResidentTable.getInstance(name, primaryKey, keys, changeColumn != null ? changeColumn.getIndex() : -1,
+                resident.refreshInterval(), resident.reloadInterval(), new ResidentTable.Loader() {
+                    @Override
+                    public List<Object[]> loadAll() throws DatabaseException {
+                        return getValues(stream(clazz), metadata);
+                    }
+
+                    @Override
+                    public List<Object[]> loadChanged(Object changeMarker) throws DatabaseException {
+                        return getValues(query(clazz).where(changeColumn.getName(), Operator.GREATER_EQUAL, changeMarker).stream(), metadata);
+                    }
+
+                    @Override
+                    public List<Object[]> loadByIds(List<List<Object>> primaryKeys) throws DatabaseException {
+                        List<Object> ids = new ArrayList<>(primaryKeys.size());
+                        for (List<Object> key : primaryKeys) {
+                            ids.add(key.size() == 1 ? key.get(0) : key);
+                        }
+                        List<Object[]> rows = new ArrayList<>();
+                        for (T elem : readAllByIds(metadata, tableName, ids).values()) {
+                            rows.add(getValues(elem, metadata));
+                        }
+                        return rows;
+                    }
+                });
+    }
+
+    private <T> ColumnMetadata getResidentColumn(EntityMetadata<T> metadata, String name) throws DatabaseException {
+        ColumnMetadata column = metadata.getColumn(name);
+        if (column == null) {
+            throw new DatabaseException("DatabaseManager, @Resident field " + name + " not found in " + metadata.getType().getName());
+        }
+        return column;
+    }
+
+    public ResidentStatistics getResidentStatistics(Class<?> clazz) throws DatabaseException {
+        ResidentTable table = getResidentTable(EntityMetadata.of(clazz));
+        return table != null ? table.getStatistics() : null;
+    }
+
+    private <T> List<T> newInstances(Collection<Object[]> rows, EntityMetadata<T> metadata) throws DatabaseException {
+        List<T> list = new ArrayList<>(rows.size());
+        for (Object[] values : rows) {
+            list.add(metadata.getMapper().newInstance(values));
+        }
+        return applyPendingUpdates(list, metadata);
+    }
+
+    private <T> List<Object> getPrimaryKeyValues(T type, EntityMetadata<T> metadata) throws DatabaseException {
+        EntityMapper<T> mapper = metadata.getMapper();
+        List<Object> values = new ArrayList<>(metadata.getPrimaryKey().size());
+        for (ColumnMetadata column : metadata.getPrimaryKey()) {
+            values.add(mapper.get(type, column.getIndex()));
+        }
+        return values;
+    }
+
+    /**
+     * @return the column values of the entities of the stream, which is closed
+     */
+    private <T> List<Object[]> getValues(Stream<T> stream, EntityMetadata<T> metadata) throws DatabaseException {
+        List<Object[]> rows = new ArrayList<>();
+        try (Stream<T> entities = stream) {
+            Iterator<T> iterator = entities.iterator();
+            while (iterator.hasNext()) {
+                rows.add(getValues(iterator.next(), metadata));
             }
+        } catch (UncheckedDatabaseException e) {
+            throw e.getCause();
+        }
+        return rows;
+    }
+
+    private <T> Object[] getValues(T type, EntityMetadata<T> metadata) throws DatabaseException {
+        EntityMapper<T> mapper = metadata.getMapper();
+        Object[] values = new Object[metadata.getColumns().size()];
+        for (ColumnMetadata column : metadata.getColumns()) {
+            values[column.getIndex()] = mapper.get(type, column.getIndex());
         }
-        if (getter == null) {
-            throw new DatabaseException("ORM, Reflection: getter for '" + field.getName() + "' not found in class '" + type.getClass() + "'");
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> EntityMetadata<T> getMetadata(T type) throws DatabaseException {
+        return EntityMetadata.of((Class<T>) type.getClass());
+    }
+
+    private <T> EntityStatements getStatementsWithPrimaryKey(EntityMetadata<T> metadata) throws DatabaseException {
+        if (metadata.getPrimaryKey().isEmpty()) {
+            throw new DatabaseException("ORM, Reflection: PrimaryKey not found");
         }
-        return getter;
+        return metadata.getStatements(tableName, dbtype);
     }
 
-    private <T> Method searchFieldSetter(T type, Field field) throws DatabaseException {
-        //search getter
-        Method setter = null;
-        for (Method method : type.getClass().getMethods()) {
-            if (method.getName().startsWith("set") &&
-                    method.getName().equalsIgnoreCase("set" + field.getName())) {
-                setter = method;
+    private <T> BitSet getValorizedColumns(T type, EntityMetadata<T> metadata) throws DatabaseException {
+        EntityMapper<T> mapper = metadata.getMapper();
+        BitSet valorizedColumns = new BitSet(metadata.getColumns().size());
+        for (ColumnMetadata column : metadata.getColumns()) {
+            if (!column.isPrimaryKey() && !column.isVersion() && mapper.get(type, column.getIndex()) != null) {
+                valorizedColumns.set(column.getIndex());
             }
         }
-        if (setter == null) {
-            throw new DatabaseException("ORM, Reflection: setter for '" + field.getName() + "' not found in class '" + type.getClass() + "'");
+        return valorizedColumns;
+    }
+
+    /**
+     * @return the version of the entity, or null if it has none or it is not set
+     */
+    private <T> Object getVersion(T type, EntityMetadata<T> metadata) throws DatabaseException {
+        return metadata.getVersion() != null ? metadata.getMapper().get(type, metadata.getVersion().getIndex()) : null;
+    }
+
+    /**
+     * The row was updated: inside inTransaction() the version is restored if the transaction rolls back.
+     */
+    private <T> void incrementVersion(T type, EntityMetadata<T> metadata, Object version) throws DatabaseException {
+        long previous = ((Number) version).longValue();
+        Transaction transaction = getTransaction();
+        if (transaction != null) {
+            transaction.addVersion(metadata, type, previous);
+        }
+        metadata.setVersion(type, previous + 1);
+    }
+
+    /**
+     * Rows of entities without a version are created with version 0.
+     */
+    private <T> void initVersion(T type, EntityMetadata<T> metadata) throws DatabaseException {
+        ColumnMetadata version = metadata.getVersion();
+        if (version != null && metadata.getMapper().get(type, version.getIndex()) == null) {
+            metadata.setVersion(type, 0);
+        }
+    }
+
+    private <T> void addPrimaryKeyToPreparedStatement(PreparedStatement preparedStatement, int parameterIndex,
+                                                      T type, EntityMetadata<T> metadata) throws SQLException, DatabaseException {
+        EntityMapper<T> mapper = metadata.getMapper();
+        for (ColumnMetadata column : metadata.getPrimaryKey()) {
+            mapper.bind(preparedStatement, parameterIndex++, type, column.getIndex());
         }
-        return setter;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package it.richkmeli.jframework.orm;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Open row of a large column read as a stream: the connection is held until the stream is closed, so the value is
+ * transferred only while it is consumed.
+ */
+class LobCursor implements AutoCloseable {
+    private final DatabaseManager databaseManager;
+    private final Connection connection;
+    private final PreparedStatement preparedStatement;
+    private final ResultSet resultSet;
+    private boolean closed = false;
+
+    LobCursor(DatabaseManager databaseManager, Connection connection, PreparedStatement preparedStatement, ResultSet resultSet) {
+        this.databaseManager = databaseManager;
+        this.connection = connection;
+        this.preparedStatement = preparedStatement;
+        this.resultSet = resultSet;
+    }
+
+    ResultSet getResultSet() {
+        return resultSet;
+    }
+
+    Reader reader(Reader reader) {
+        return new FilterReader(reader) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    LobCursor.this.close();
+                }
+            }
+        };
+    }
+
+    InputStream inputStream(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    LobCursor.this.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            try {
+                databaseManager.disconnect(connection, preparedStatement, resultSet);
+            } catch (DatabaseException e) {
+                throw new UncheckedDatabaseException(e);
+            }
+        }
+    }
+}
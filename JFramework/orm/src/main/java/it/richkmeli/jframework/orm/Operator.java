@@ -0,0 +1,30 @@
+package it.richkmeli.jframework.orm;
+
+/**
+ * Comparison operators of {@link Query} conditions.
+ */
+public enum Operator {
+    EQUAL("= ?"),
+    NOT_EQUAL("<> ?"),
+    LESS("< ?"),
+    LESS_EQUAL("<= ?"),
+    GREATER("> ?"),
+    GREATER_EQUAL(">= ?"),
+    LIKE("LIKE ?"),
+    IS_NULL("IS NULL"),
+    IS_NOT_NULL("IS NOT NULL");
+
+    private final String sql;
+
+    Operator(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public boolean hasValue() {
+        return this != IS_NULL && this != IS_NOT_NULL;
+    }
+}
@@ -0,0 +1,13 @@
+package it.richkmeli.jframework.orm;
+
+/**
+ * Update of an entity with a {@link it.richkmeli.jframework.orm.annotation.Version} that the row no longer has: it was
+ * updated or deleted after the entity was read. The entity can be read again and the update retried.
+ */
+@SuppressWarnings("serial")
+public class OptimisticLockException extends DatabaseException {
+
+    public OptimisticLockException(String exception) {
+        super(exception);
+    }
+}
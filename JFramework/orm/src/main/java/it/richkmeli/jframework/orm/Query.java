@@ -0,0 +1,287 @@
+package it.richkmeli.jframework.orm;
+
+import it.richkmeli.jframework.orm.entity.ColumnMetadata;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+import it.richkmeli.jframework.orm.entity.JdbcTypes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Criteria query on the table of a {@link DatabaseManager}, executed by the database:
+ * <pre>
+ * query(Device.class).where("associatedUser", Operator.EQUAL, user).orderBy("name").limit(10).list();
+ * </pre>
+ * Values, limit and offset are bound as parameters, so the SQL string depends only on the shape of the query
+ * (fields, operators, ordering) and it is built once per shape. AND takes precedence over OR, as in SQL.
+ * <p>
+ * On a sharded table every shard returns its first offset + limit rows, then they are ordered and paged in memory.
+ */
+public class Query<T> {
+    // SQL strings by shape of the query. Shapes built at runtime are unbounded: the least recently used are evicted
+    private static final int SQL_CACHE_SIZE = 1024;
+    private static final Map<String, String> SQL_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > SQL_CACHE_SIZE;
+                }
+            });
+
+    private final DatabaseManager databaseManager;
+    private final EntityMetadata<T> metadata;
+    private final String tableName;
+    private final String dbtype;
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+    private final List<String> orderBy = new ArrayList<>();
+    private final List<ColumnMetadata> orderColumns = new ArrayList<>();
+    private final List<Boolean> orderAscending = new ArrayList<>();
+    private Integer limit = null;
+    private Integer offset = null;
+
+    Query(DatabaseManager databaseManager, EntityMetadata<T> metadata, String tableName, String dbtype) {
+        this.databaseManager = databaseManager;
+        this.metadata = metadata;
+        this.tableName = tableName;
+        this.dbtype = dbtype;
+    }
+
+    private static class Condition {
+        private final String connector;
+        private final ColumnMetadata column;
+        private final Operator operator;
+
+        private Condition(String connector, ColumnMetadata column, Operator operator) {
+            this.connector = connector;
+            this.column = column;
+            this.operator = operator;
+        }
+    }
+
+    public Query<T> where(String field, Operator operator, Object value) {
+        return addCondition(" AND ", field, operator, value);
+    }
+
+    public Query<T> where(String field, Object value) {
+        return where(field, Operator.EQUAL, value);
+    }
+
+    public Query<T> and(String field, Operator operator, Object value) {
+        return addCondition(" AND ", field, operator, value);
+    }
+
+    public Query<T> or(String field, Operator operator, Object value) {
+        return addCondition(" OR ", field, operator, value);
+    }
+
+    public Query<T> orderBy(String field) {
+        return orderBy(field, true);
+    }
+
+    public Query<T> orderBy(String field, boolean ascending) {
+        ColumnMetadata column = getColumn(field);
+        orderBy.add(column.getName() + (ascending ? " ASC" : " DESC"));
+        orderColumns.add(column);
+        orderAscending.add(ascending);
+        return this;
+    }
+
+    public Query<T> limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public Query<T> offset(int offset) {
+        this.offset = offset;
+        return this;
+    }
+
+    private Query<T> addCondition(String connector, String field, Operator operator, Object value) {
+        if (conditions.isEmpty()) {
+            connector = "";
+        }
+        ColumnMetadata column = getColumn(field);
+        if (operator.hasValue() && value == null) {
+            throw new IllegalArgumentException("ORM, Query: null value for '" + field + "', use IS_NULL");
+        }
+        conditions.add(new Condition(connector, column, operator));
+        if (operator.hasValue()) {
+            values.add(JdbcTypes.toJdbcValue(value));
+        }
+        return this;
+    }
+
+    private ColumnMetadata getColumn(String field) {
+        // only fields of the entity can become part of the SQL string
+        ColumnMetadata column = metadata.getColumn(field);
+        if (column == null) {
+            throw new IllegalArgumentException("ORM, Query: field '" + field + "' not found in " + metadata.getType().getName());
+        }
+        return column;
+    }
+
+    public String getSql() {
+        StringBuilder shape = new StringBuilder(String.valueOf(dbtype)).append(':').append(tableName).append(':').append(metadata.getType().getName());
+        for (Condition condition : conditions) {
+            // delimited: index 1 with operator 12 is not index 11 with operator 2
+            shape.append(':').append(condition.connector).append(condition.column.getIndex()).append('/').append(condition.operator.name());
+        }
+        shape.append(orderBy).append(limit != null).append(offset != null);
+        String key = shape.toString();
+
+        String sql = SQL_CACHE.get(key);
+        if (sql == null) {
+            sql = buildSql();
+            SQL_CACHE.put(key, sql);
+        }
+        return sql;
+    }
+
+    private String buildSql() {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(tableName);
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ");
+            for (Condition condition : conditions) {
+                sql.append(condition.connector).append(condition.column.getName()).append(' ').append(condition.operator.getSql());
+            }
+        }
+        if (!orderBy.isEmpty()) {
+            sql.append(" ORDER BY ").append(String.join(", ", orderBy));
+        }
+        if ("mysql".equalsIgnoreCase(dbtype)) {
+            if (limit != null) {
+                sql.append(" LIMIT ?");
+            } else if (offset != null) {
+                // MySQL has no OFFSET without LIMIT
+                sql.append(" LIMIT 18446744073709551615");
+            }
+            if (offset != null) {
+                sql.append(" OFFSET ?");
+            }
+        } else {
+            if (offset != null) {
+                sql.append(" OFFSET ? ROWS");
+            }
+            if (limit != null) {
+                sql.append(" FETCH NEXT ? ROWS ONLY");
+            }
+        }
+        return sql.toString();
+    }
+
+    public List<Object> getParameters() {
+        List<Object> parameters = new ArrayList<>(values);
+        if ("mysql".equalsIgnoreCase(dbtype)) {
+            if (limit != null) {
+                parameters.add(limit);
+            }
+            if (offset != null) {
+                parameters.add(offset);
+            }
+        } else {
+            if (offset != null) {
+                parameters.add(offset);
+            }
+            if (limit != null) {
+                parameters.add(limit);
+            }
+        }
+        return parameters;
+    }
+
+    public List<T> list() throws DatabaseException {
+        if (!databaseManager.isSharded()) {
+            return databaseManager.executeQuery(getSql(), getParameters(), metadata);
+        }
+        Integer previousLimit = limit;
+        Integer previousOffset = offset;
+        List<T> list;
+        try {
+            // the page can be made of the first rows of any shard
+            if (limit != null && offset != null) {
+                limit = offset + limit;
+            }
+            offset = null;
+            list = databaseManager.executeQuery(getSql(), getParameters(), metadata);
+        } finally {
+            limit = previousLimit;
+            offset = previousOffset;
+        }
+        if (!orderColumns.isEmpty()) {
+            list = sort(list);
+        }
+        int from = Math.min(offset != null ? offset : 0, list.size());
+        int to = limit != null ? Math.min(from + limit, list.size()) : list.size();
+        return from == 0 && to == list.size() ? list : new ArrayList<>(list.subList(from, to));
+    }
+
+    /**
+     * Merge of the rows of the shards in the order of the query. Values are compared as in Java, nulls as the
+     * database does: last in ascending order on Derby, first on MySQL.
+     */
+    private List<T> sort(List<T> list) throws DatabaseException {
+        List<Object[]> rows = new ArrayList<>(list.size());
+        for (T elem : list) {
+            Object[] row = new Object[orderColumns.size() + 1];
+            for (int i = 0; i < orderColumns.size(); i++) {
+                row[i] = JdbcTypes.toJdbcValue(metadata.getMapper().get(elem, orderColumns.get(i).getIndex()));
+            }
+            row[orderColumns.size()] = elem;
+            rows.add(row);
+        }
+        boolean nullsFirst = "mysql".equalsIgnoreCase(dbtype);
+        rows.sort((a, b) -> {
+            for (int i = 0; i < orderColumns.size(); i++) {
+                int result = compare(a[i], b[i], nullsFirst);
+                if (result != 0) {
+                    return orderAscending.get(i) ? result : -result;
+                }
+            }
+            return 0;
+        });
+        List<T> sorted = new ArrayList<>(list.size());
+        for (Object[] row : rows) {
+            sorted.add(metadata.getType().cast(row[orderColumns.size()]));
+        }
+        return sorted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b, boolean nullsFirst) {
+        if (a == null || b == null) {
+            return a == b ? 0 : (a == null) == nullsFirst ? -1 : 1;
+        }
+        if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+        // e.g. byte[]
+        return 0;
+    }
+
+    public T first() throws DatabaseException {
+        Integer previousLimit = limit;
+        limit = 1;
+        try {
+            List<T> list = list();
+            return list.isEmpty() ? null : list.get(0);
+        } finally {
+            limit = previousLimit;
+        }
+    }
+
+    /**
+     * Lazy variant of {@link #list()}, the stream must be closed.
+     */
+    public Stream<T> stream() throws DatabaseException {
+        if (databaseManager.isSharded() && (!orderColumns.isEmpty() || limit != null || offset != null)) {
+            // ordering and paging across the shards need all the rows of the page
+            return list().stream();
+        }
+        return databaseManager.stream(getSql(), getParameters(), metadata);
+    }
+}
@@ -0,0 +1,81 @@
+package it.richkmeli.jframework.orm;
+
+import it.richkmeli.jframework.orm.metrics.QueryMetrics;
+import it.richkmeli.jframework.util.log.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times one statement of a DatabaseManager: started before the connection is requested, {@link #acquired()} when it
+ * is available, then stopped once, by {@link #stop(long)} or {@link #fail()}. Statements slower than the threshold
+ * are logged with the shape of their SQL, never with the values.
+ */
+class QueryTimer {
+    private final QueryMetrics metrics;
+    private final String table;
+    private final QueryMetrics.Operation operation;
+    private String sql;
+    private final long slowQueryThresholdNanos;
+    private final long start;
+    private long acquired = 0;
+    private long rows = 0;
+    private boolean stopped = false;
+
+    QueryTimer(QueryMetrics metrics, String table, QueryMetrics.Operation operation, String sql, long slowQueryThresholdNanos) {
+        this.metrics = metrics;
+        this.table = table;
+        this.operation = operation;
+        this.sql = sql;
+        this.slowQueryThresholdNanos = slowQueryThresholdNanos;
+        this.start = System.nanoTime();
+    }
+
+    void acquired() {
+        acquired = System.nanoTime();
+    }
+
+    /**
+     * Sets the statement logged if slow, for batches of different statements.
+     */
+    void statement(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Counts a row mapped, for cursors stopped when they are closed.
+     */
+    void row() {
+        rows++;
+    }
+
+    void stop() {
+        stop(0, false);
+    }
+
+    void stop(long rows) {
+        stop(rows, false);
+    }
+
+    void fail() {
+        stop(0, true);
+    }
+
+    private void stop(long rows, boolean failed) {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        this.rows += rows;
+        long end = System.nanoTime();
+        // a connection that never arrived counts as acquire time
+        long acquiredAt = acquired != 0 ? acquired : end;
+        long executionNanos = end - acquiredAt;
+        boolean slow = slowQueryThresholdNanos > 0 && end - start >= slowQueryThresholdNanos;
+        metrics.record(table, operation, acquiredAt - start, executionNanos, this.rows, failed, slow);
+        if (slow) {
+            Logger.warning("DatabaseManager, slow query: " + operation + " " + table + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(end - start) + "ms (connection " + TimeUnit.NANOSECONDS.toMillis(acquiredAt - start)
+                    + "ms, " + this.rows + " rows" + (failed ? ", failed" : "") + ")" + (sql != null ? ": " + QueryMetrics.getShape(sql) : ""));
+        }
+    }
+}
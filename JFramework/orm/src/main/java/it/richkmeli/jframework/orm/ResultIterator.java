@@ -0,0 +1,96 @@
+package it.richkmeli.jframework.orm;
+
+import it.richkmeli.jframework.orm.async.WriteBehindBuffer;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over an open cursor: rows are mapped one at a time, while they are consumed.
+ * <p>
+ * The connection is held until the last row is read or {@link #close()} is called, so it should be used in a
+ * try-with-resources block. Errors are thrown as {@link UncheckedDatabaseException}.
+ */
+public class ResultIterator<T> implements Iterator<T>, AutoCloseable {
+    private final DatabaseManager databaseManager;
+    private final Connection connection;
+    private final PreparedStatement preparedStatement;
+    private final ResultSet resultSet;
+    private final EntityMetadata<T> metadata;
+    // pending write-behind updates merged into the rows, null if none
+    private final WriteBehindBuffer buffer;
+    private final QueryTimer timer;
+    private T next = null;
+    private boolean closed = false;
+
+    ResultIterator(DatabaseManager databaseManager, Connection connection, PreparedStatement preparedStatement,
+                   ResultSet resultSet, EntityMetadata<T> metadata, WriteBehindBuffer buffer, QueryTimer timer) {
+        this.databaseManager = databaseManager;
+        this.connection = connection;
+        this.preparedStatement = preparedStatement;
+        this.resultSet = resultSet;
+        this.metadata = metadata;
+        this.buffer = buffer;
+        this.timer = timer;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            if (resultSet.next()) {
+                next = metadata.getMapper().map(resultSet);
+                if (buffer != null) {
+                    next = databaseManager.applyPendingUpdate(next, metadata, buffer);
+                }
+                timer.row();
+                return true;
+            }
+        } catch (SQLException e) {
+            timer.fail();
+            close();
+            throw new UncheckedDatabaseException(new DatabaseException(e));
+        } catch (DatabaseException e) {
+            timer.fail();
+            close();
+            throw new UncheckedDatabaseException(e);
+        }
+        // end of the cursor: release the connection without waiting for close()
+        close();
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T elem = next;
+        next = null;
+        return elem;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            // the execution time includes the time the rows were consumed
+            timer.stop();
+            try {
+                databaseManager.disconnect(connection, preparedStatement, resultSet);
+            } catch (DatabaseException e) {
+                throw new UncheckedDatabaseException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package it.richkmeli.jframework.orm;
+
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide record of the bootstrap work of DatabaseManager: the configuration bundle, the JDBC drivers already
+ * loaded and the tables (with their schema and indexes) already verified for a datasource.
+ * <p>
+ * Managers are created per request, so without it every constructor would read the configuration and send the DDL
+ * again. The first manager of a table runs the bootstrap, the concurrent ones wait for it, the next ones skip it.
+ */
+public class SchemaRegistry {
+    private static final Set<String> VERIFIED = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+    private static final Set<String> DRIVERS = ConcurrentHashMap.newKeySet();
+    private static volatile ResourceBundle configuration;
+
+    @FunctionalInterface
+    public interface Bootstrap {
+        void run() throws DatabaseException;
+    }
+
+    private SchemaRegistry() {
+    }
+
+    public static ResourceBundle getConfiguration() {
+        if (configuration == null) {
+            configuration = ResourceBundle.getBundle("configuration");
+        }
+        return configuration;
+    }
+
+    public static void loadDriver(String dbClass) throws DatabaseException {
+        if (!DRIVERS.contains(dbClass)) {
+            try {
+                Class.forName(dbClass);
+            } catch (ClassNotFoundException e) {
+                throw new DatabaseException(e);
+            }
+            DRIVERS.add(dbClass);
+        }
+    }
+
+    /**
+     * Runs the bootstrap of the key once: it is not recorded if it throws, so the next manager tries again.
+     */
+    public static void bootstrap(String key, Bootstrap bootstrap) throws DatabaseException {
+        if (VERIFIED.contains(key)) {
+            return;
+        }
+        synchronized (LOCKS.computeIfAbsent(key, k -> new Object())) {
+            if (!VERIFIED.contains(key)) {
+                bootstrap.run();
+                VERIFIED.add(key);
+            }
+        }
+    }
+
+    public static boolean isVerified(String key) {
+        return VERIFIED.contains(key);
+    }
+
+    /**
+     * Forgets the tables verified on a datasource, e.g. after its database is dropped.
+     */
+    public static void clear(String datasource) {
+        VERIFIED.removeIf(key -> key.startsWith(datasource + "|"));
+    }
+
+    /**
+     * Forgets the verified tables, e.g. after they are dropped, and the configuration.
+     */
+    public static void clear() {
+        VERIFIED.clear();
+        configuration = null;
+    }
+}
@@ -0,0 +1,74 @@
+package it.richkmeli.jframework.orm;
+
+import it.richkmeli.jframework.orm.pool.ConnectionPool;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Rows of the shards one after the other: the cursor of a shard is opened when the previous one is consumed, so at
+ * most one cursor is open and rows are mapped while they are consumed, as by {@link ResultIterator}.
+ * <p>
+ * Errors are thrown as {@link UncheckedDatabaseException}.
+ */
+class ShardedResultIterator<T> implements Iterator<T>, AutoCloseable {
+
+    @FunctionalInterface
+    interface Cursor<T> {
+        ResultIterator<T> open(ConnectionPool shard) throws DatabaseException;
+    }
+
+    private final Iterator<ConnectionPool> shards;
+    private final Cursor<T> cursor;
+    private ResultIterator<T> current = null;
+    private boolean closed = false;
+
+    ShardedResultIterator(List<ConnectionPool> shards, Cursor<T> cursor) {
+        this.shards = shards.iterator();
+        this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!closed) {
+            if (current != null) {
+                if (current.hasNext()) {
+                    return true;
+                }
+                // consumed: its connection is already released
+                current.close();
+                current = null;
+            }
+            if (!shards.hasNext()) {
+                closed = true;
+                return false;
+            }
+            try {
+                current = cursor.open(shards.next());
+            } catch (DatabaseException e) {
+                close();
+                throw new UncheckedDatabaseException(e);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (current != null) {
+            ResultIterator<T> open = current;
+            current = null;
+            open.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package it.richkmeli.jframework.orm;
+
+import it.richkmeli.jframework.orm.cache.EntityCache;
+import it.richkmeli.jframework.orm.cache.ResidentTable;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+import it.richkmeli.jframework.util.log.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection bound to the current thread by {@link DatabaseManager#inTransaction(TransactionWork)}. Every
+ * DatabaseManager of the same datasource uses it until the outermost unit of work commits or rolls back.
+ */
+public class Transaction {
+    private final Connection connection;
+    private final int isolation;
+    private final int previousIsolation;
+    // entities written in the transaction, invalidated again when it ends
+    private final Map<EntityCache, List<List<Object>>> invalidations = new HashMap<>();
+    private final Map<ResidentTable, List<List<Object>>> residentInvalidations = new HashMap<>();
+    // versions of the entities updated in the transaction before their update, restored if it rolls back
+    private final List<Version<?>> versions = new ArrayList<>();
+    private boolean rollbackOnly = false;
+    private int depth = 0;
+
+    Transaction(Connection connection, int isolation) throws SQLException {
+        this.connection = connection;
+        this.previousIsolation = connection.getTransactionIsolation();
+        this.isolation = isolation != Connection.TRANSACTION_NONE ? isolation : previousIsolation;
+        if (this.isolation != previousIsolation) {
+            connection.setTransactionIsolation(this.isolation);
+        }
+        connection.setAutoCommit(false);
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    public int getIsolation() {
+        return isolation;
+    }
+
+    /**
+     * The transaction is rolled back at the end of the outermost unit of work, also if it completes normally.
+     */
+    public void setRollbackOnly() {
+        rollbackOnly = true;
+    }
+
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    int begin() {
+        return ++depth;
+    }
+
+    int end() {
+        return --depth;
+    }
+
+    void addInvalidation(EntityCache cache, List<Object> primaryKey) {
+        invalidations.computeIfAbsent(cache, key -> new ArrayList<>()).add(primaryKey);
+    }
+
+    void addInvalidation(ResidentTable table, List<Object> primaryKey) {
+        residentInvalidations.computeIfAbsent(table, key -> new ArrayList<>()).add(primaryKey);
+    }
+
+    <T> void addVersion(EntityMetadata<T> metadata, T entity, long previous) {
+        versions.add(new Version<>(metadata, entity, previous));
+    }
+
+    void commit() throws SQLException {
+        connection.commit();
+    }
+
+    void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            Logger.error("Transaction, rollback", e);
+        }
+        // the entities keep the version of their row, the earliest one last
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            versions.get(i).restore();
+        }
+    }
+
+    /**
+     * Invalidates the written entities, restores the connection and returns it to the pool.
+     */
+    void close() {
+        for (Map.Entry<EntityCache, List<List<Object>>> entry : invalidations.entrySet()) {
+            for (List<Object> primaryKey : entry.getValue()) {
+                entry.getKey().invalidate(primaryKey);
+            }
+        }
+        for (Map.Entry<ResidentTable, List<List<Object>>> entry : residentInvalidations.entrySet()) {
+            for (List<Object> primaryKey : entry.getValue()) {
+                entry.getKey().invalidate(primaryKey);
+            }
+        }
+        try {
+            connection.setAutoCommit(true);
+            if (isolation != previousIsolation) {
+                connection.setTransactionIsolation(previousIsolation);
+            }
+        } catch (SQLException e) {
+            Logger.error("Transaction, close", e);
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Logger.error("Transaction, close", e);
+        }
+    }
+
+    private static class Version<T> {
+        private final EntityMetadata<T> metadata;
+        private final T entity;
+        private final long previous;
+
+        private Version(EntityMetadata<T> metadata, T entity, long previous) {
+            this.metadata = metadata;
+            this.entity = entity;
+            this.previous = previous;
+        }
+
+        private void restore() {
+            try {
+                metadata.setVersion(entity, previous);
+            } catch (DatabaseException e) {
+                Logger.error("Transaction, rollback", e);
+            }
+        }
+    }
+}
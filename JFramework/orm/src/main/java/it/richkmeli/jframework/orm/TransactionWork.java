@@ -0,0 +1,8 @@
+package it.richkmeli.jframework.orm;
+
+/**
+ * Unit of work executed by {@link DatabaseManager#inTransaction(TransactionWork)}.
+ */
+public interface TransactionWork<R> {
+    R execute(Transaction transaction) throws DatabaseException;
+}
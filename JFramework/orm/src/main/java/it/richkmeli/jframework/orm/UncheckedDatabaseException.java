@@ -0,0 +1,17 @@
+package it.richkmeli.jframework.orm;
+
+/**
+ * Wraps a {@link DatabaseException} where a checked exception cannot be thrown, e.g. inside Iterator and Stream.
+ */
+@SuppressWarnings("serial")
+public class UncheckedDatabaseException extends RuntimeException {
+
+    public UncheckedDatabaseException(DatabaseException exception) {
+        super(exception.getMessage(), exception);
+    }
+
+    @Override
+    public synchronized DatabaseException getCause() {
+        return (DatabaseException) super.getCause();
+    }
+}
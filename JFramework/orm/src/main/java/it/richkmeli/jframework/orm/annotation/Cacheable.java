@@ -0,0 +1,19 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Entities read by primary key are kept in the cache of the table, see {@link it.richkmeli.jframework.orm.cache.EntityCache}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cacheable {
+    // maximum number of entities, the least recently used is evicted
+    int maxSize() default 1000;
+
+    // milliseconds after which an entity is read again from the database, 0 never expires
+    long ttl() default 60000;
+}
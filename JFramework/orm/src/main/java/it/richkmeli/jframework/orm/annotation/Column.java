@@ -0,0 +1,28 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * SQL definition of a field in the table generated by DatabaseManager. Fields without it use the defaults.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Column {
+    // length of VARCHAR (String, enum) and VARBINARY (byte[]) columns
+    int length() default 255;
+
+    boolean nullable() default true;
+
+    boolean unique() default false;
+
+    // DECIMAL columns (BigDecimal)
+    int precision() default 19;
+
+    int scale() default 4;
+
+    // SQL type used instead of the one of the Java type, e.g. "CLOB"
+    String type() default "";
+}
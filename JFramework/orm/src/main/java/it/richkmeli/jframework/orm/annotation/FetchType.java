@@ -0,0 +1,11 @@
+package it.richkmeli.jframework.orm.annotation;
+
+/**
+ * When the entities of a relationship are loaded.
+ */
+public enum FetchType {
+    // on demand, with DatabaseManager.fetch()
+    LAZY,
+    // with the entities that own the relationship, one query for all of them
+    BATCH
+}
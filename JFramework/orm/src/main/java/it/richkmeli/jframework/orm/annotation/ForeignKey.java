@@ -0,0 +1,21 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The field references a column of another table.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ForeignKey {
+    // referenced table, in the schema of the entity if it is not qualified
+    String table();
+
+    String column();
+
+    // e.g. "CASCADE", "SET NULL", empty for the default of the database
+    String onDelete() default "";
+}
@@ -0,0 +1,22 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Secondary index of the table. On a field it indexes the field, on the entity class it indexes the listed columns.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.TYPE})
+@Repeatable(Indexes.class)
+public @interface Index {
+    // default idx_<table>_<columns>
+    String name() default "";
+
+    String[] columns() default {};
+
+    boolean unique() default false;
+}
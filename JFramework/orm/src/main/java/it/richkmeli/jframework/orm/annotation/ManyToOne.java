@@ -0,0 +1,22 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Transient field holding the entity referenced by a column of this entity, e.g. the user of a device.
+ * The referenced entity has a single column primary key.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ManyToOne {
+    // field of this entity with the primary key of the referenced one
+    String column();
+
+    // table of the referenced entity, in the schema of the entity if it is not qualified
+    String table();
+
+    FetchType fetch() default FetchType.LAZY;
+}
@@ -0,0 +1,22 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Transient List field holding the entities that reference this one, e.g. the devices of a user.
+ * This entity has a single column primary key.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface OneToMany {
+    // field of the referencing entity with the primary key of this one
+    String mappedBy();
+
+    // table of the referencing entities, in the schema of the entity if it is not qualified
+    String table();
+
+    FetchType fetch() default FetchType.LAZY;
+}
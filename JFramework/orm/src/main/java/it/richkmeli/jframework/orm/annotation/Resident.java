@@ -0,0 +1,27 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The whole table is held in memory and reads are served from it, for tables read often and written rarely, see
+ * {@link it.richkmeli.jframework.orm.cache.ResidentTable}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Resident {
+    // fields indexed besides the primary key, read with readAllByKey()
+    String[] keys() default {};
+
+    // field with the time or sequence of the last write of each row, e.g. an Instant or a long set by the application:
+    // a refresh reads only the rows changed since the previous one. Empty: every refresh reads the whole table
+    String changeColumn() default "";
+
+    // milliseconds after which the rows changed in the database are read again
+    long refreshInterval() default 5000;
+
+    // milliseconds after which the whole table is read again, rows deleted by other processes are seen then, 0 never
+    long reloadInterval() default 300000;
+}
@@ -0,0 +1,16 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Version of the row for optimistic locking, an int or long field (or their wrappers). An update with the version
+ * applies only if the row still has it, otherwise it throws {@link it.richkmeli.jframework.orm.OptimisticLockException};
+ * every update increments it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Version {
+}
@@ -0,0 +1,26 @@
+package it.richkmeli.jframework.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Updates of the entity made with updateWriteBehind() are queued and written in batches by a background writer, see
+ * {@link it.richkmeli.jframework.orm.async.WriteBehindBuffer}. Updates of the same primary key are merged.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface WriteBehind {
+    // maximum number of primary keys with a pending update, then the callers wait for the writer
+    int maxPending() default 10000;
+
+    // pending updates written with one batch, a full batch is written at once
+    int batchSize() default 500;
+
+    // milliseconds after which a pending update is written
+    long flushInterval() default 1000;
+
+    // milliseconds a caller waits when maxPending is reached, then the update fails
+    long maxWait() default 5000;
+}
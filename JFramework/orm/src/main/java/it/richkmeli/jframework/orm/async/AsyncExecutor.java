@@ -0,0 +1,179 @@
+package it.richkmeli.jframework.orm.async;
+
+import it.richkmeli.jframework.util.log.Logger;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Bounded executor of the database calls of a datasource, shared by all its DatabaseManager instances.
+ * <p>
+ * At most {@code threads} tasks run at the same time, usually the size of the connection pool: more would only wait
+ * for a connection. Up to {@code queueSize} tasks wait, then the returned future fails with RejectedExecutionException.
+ * <p>
+ * When the JVM has virtual threads (JDK 21+) and they are enabled, every task runs on a new virtual thread and the
+ * limit is a semaphore, otherwise tasks run on a fixed pool of daemon platform threads.
+ */
+public class AsyncExecutor {
+    private static final Map<String, AsyncExecutor> EXECUTORS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int threads;
+    private final int queueSize;
+    private final ExecutorService executor;
+    // limit of the running tasks with virtual threads, null with platform threads
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    public static AsyncExecutor getInstance(String name, int threads, int queueSize, boolean virtualThreads) {
+        return EXECUTORS.computeIfAbsent(name, key -> new AsyncExecutor(name, threads, queueSize, virtualThreads));
+    }
+
+    public static Collection<AsyncExecutor> getInstances() {
+        return new ArrayList<>(EXECUTORS.values());
+    }
+
+    public static void shutdownAll() {
+        for (AsyncExecutor executor : getInstances()) {
+            executor.shutdown();
+        }
+    }
+
+    private AsyncExecutor(String name, int threads, int queueSize, boolean virtualThreads) {
+        this.name = name;
+        this.threads = threads;
+        this.queueSize = queueSize;
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.permits = new Semaphore(threads, true);
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            // the queue is bounded by submit(), so rejected tasks are counted
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "jframework-orm-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ((ThreadPoolExecutor) this.executor).allowCoreThreadTimeOut(true);
+            this.permits = null;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        // JDK 21+, the library is compiled for Java 8
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isVirtualThreads() {
+        return permits != null;
+    }
+
+    /**
+     * @return a future completed with the result of the task, or exceptionally with the exception it throws
+     */
+    public <R> CompletableFuture<R> submit(Callable<R> task) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        if (queued.incrementAndGet() > queueSize) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("AsyncExecutor, queue full: " + name));
+            return future;
+        }
+        submitted.incrementAndGet();
+        long submittedAt = System.nanoTime();
+        try {
+            executor.execute(() -> run(task, future, submittedAt));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <R> void run(Callable<R> task, CompletableFuture<R> future, long submittedAt) {
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                queued.decrementAndGet();
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            }
+        }
+        long wait = System.nanoTime() - submittedAt;
+        totalWaitNanos.addAndGet(wait);
+        maxWaitNanos.accumulate(wait);
+        queued.decrementAndGet();
+        active.incrementAndGet();
+        R result = null;
+        Throwable exception = null;
+        try {
+            result = task.call();
+        } catch (Throwable throwable) {
+            exception = throwable;
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+        // the statistics already count the task when the caller is notified
+        if (exception != null) {
+            future.completeExceptionally(exception);
+        } else {
+            future.complete(result);
+        }
+    }
+
+    public AsyncStatistics getStatistics() {
+        long started = completed.get() + active.get();
+        return new AsyncStatistics(threads, isVirtualThreads(), queued.get(), active.get(), submitted.get(), completed.get(),
+                rejected.get(), started == 0 ? 0 : totalWaitNanos.get() / started / 1000, maxWaitNanos.get() / 1000);
+    }
+
+    public void shutdown() {
+        EXECUTORS.remove(name, this);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                Logger.warning("AsyncExecutor, tasks still running after shutdown: " + name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package it.richkmeli.jframework.orm.async;
+
+/**
+ * Point-in-time snapshot of an {@link AsyncExecutor}.
+ */
+public class AsyncStatistics {
+    private final int threads;
+    private final boolean virtualThreads;
+    private final int queued;
+    private final int active;
+    private final long submitted;
+    private final long completed;
+    private final long rejected;
+    private final long averageWaitMicros;
+    private final long maxWaitMicros;
+
+    public AsyncStatistics(int threads, boolean virtualThreads, int queued, int active, long submitted, long completed,
+                           long rejected, long averageWaitMicros, long maxWaitMicros) {
+        this.threads = threads;
+        this.virtualThreads = virtualThreads;
+        this.queued = queued;
+        this.active = active;
+        this.submitted = submitted;
+        this.completed = completed;
+        this.rejected = rejected;
+        this.averageWaitMicros = averageWaitMicros;
+        this.maxWaitMicros = maxWaitMicros;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getAverageWaitMicros() {
+        return averageWaitMicros;
+    }
+
+    public long getMaxWaitMicros() {
+        return maxWaitMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncStatistics{" +
+                "threads=" + threads +
+                ", virtualThreads=" + virtualThreads +
+                ", queued=" + queued +
+                ", active=" + active +
+                ", submitted=" + submitted +
+                ", completed=" + completed +
+                ", rejected=" + rejected +
+                ", averageWaitMicros=" + averageWaitMicros +
+                ", maxWaitMicros=" + maxWaitMicros +
+                '}';
+    }
+}
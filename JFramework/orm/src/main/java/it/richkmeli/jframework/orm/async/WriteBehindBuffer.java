@@ -0,0 +1,421 @@
+package it.richkmeli.jframework.orm.async;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.util.log.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pending updates of the entities of a table, written in batches by a background thread. It is shared by all the
+ * DatabaseManager instances of the same datasource and table.
+ * <p>
+ * Updates are column values keyed by primary key values: a second update of a pending key is merged into the first
+ * one (non null values replace the pending ones) and keeps its position, so each key is written once per batch.
+ * A batch is written when batchSize keys are pending or the oldest one waited flushInterval. At most maxPending keys
+ * are pending, then callers wait for the writer up to maxWait and fail.
+ * <p>
+ * A batch that fails goes back in front of the queue and it is retried after flushInterval. Pending updates are
+ * written when the buffer is closed, at the latest by a JVM shutdown hook.
+ */
+public class WriteBehindBuffer {
+    private static final Map<String, WriteBehindBuffer> BUFFERS = new ConcurrentHashMap<>();
+    private static final AtomicBoolean SHUTDOWN_HOOK = new AtomicBoolean();
+
+    @FunctionalInterface
+    public interface Writer {
+        /**
+         * @param rows column values of the updates, in the order they were queued
+         */
+        void write(List<Object[]> rows) throws DatabaseException;
+    }
+
+    private final String name;
+    private final int maxPending;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long maxWaitNanos;
+    private final Writer writer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition batchWritten = lock.newCondition();
+    // batches are written one at a time, so two updates of a key are written in order
+    private final Object writing = new Object();
+    private LinkedHashMap<List<Object>, Pending> pending = new LinkedHashMap<>();
+    // values of the batch being written, still read as pending until the batch is written
+    private final Map<List<Object>, Object[]> writingValues = new HashMap<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private long retryAt = 0;
+    private long enqueued = 0;
+    private long coalesced = 0;
+    private long written = 0;
+    private long batches = 0;
+    private long failures = 0;
+    private long waits = 0;
+    private long rejected = 0;
+    private long maxLagNanos = 0;
+
+    private static class Pending {
+        private final Object[] values;
+        private final long queued;
+
+        private Pending(Object[] values, long queued) {
+            this.values = values;
+            this.queued = queued;
+        }
+    }
+
+    public static WriteBehindBuffer getInstance(String name, int maxPending, int batchSize, long flushInterval, long maxWait, Writer writer) {
+        if (SHUTDOWN_HOOK.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(WriteBehindBuffer::closeAll, "jframework-orm-write-behind-shutdown"));
+        }
+        return BUFFERS.computeIfAbsent(name, key -> new WriteBehindBuffer(name, maxPending, batchSize, flushInterval, maxWait, writer));
+    }
+
+    public static Collection<WriteBehindBuffer> getInstances() {
+        return new ArrayList<>(BUFFERS.values());
+    }
+
+    /**
+     * Writes the pending updates of every buffer and stops their writers.
+     */
+    public static void closeAll() {
+        for (WriteBehindBuffer buffer : getInstances()) {
+            buffer.close();
+        }
+    }
+
+    private WriteBehindBuffer(String name, int maxPending, int batchSize, long flushInterval, long maxWait, Writer writer) {
+        this.name = name;
+        this.maxPending = maxPending;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.writer = writer;
+        this.thread = new Thread(this::run, "jframework-orm-write-behind-" + BUFFERS.size());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Queues an update, merged into the pending one of the same key if any.
+     *
+     * @throws DatabaseException if the buffer is closed, or still full after maxWait
+     */
+    public void put(List<Object> key, Object[] values) throws DatabaseException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new DatabaseException("WriteBehindBuffer, closed: " + name);
+            }
+            enqueued++;
+            if (merge(key, values)) {
+                return;
+            }
+            long deadline = System.nanoTime() + maxWaitNanos;
+            boolean waited = false;
+            while (pending.size() >= maxPending) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejected++;
+                    throw new DatabaseException("WriteBehindBuffer, full: " + name);
+                }
+                if (!waited) {
+                    waits++;
+                    waited = true;
+                }
+                flushNeeded.signal();
+                try {
+                    notFull.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException(e);
+                }
+                if (closed) {
+                    throw new DatabaseException("WriteBehindBuffer, closed: " + name);
+                }
+                // queued by another thread meanwhile
+                if (merge(key, values)) {
+                    return;
+                }
+            }
+            pending.put(key, new Pending(values.clone(), System.nanoTime()));
+            if (pending.size() >= batchSize) {
+                flushNeeded.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean merge(List<Object> key, Object[] values) {
+        Pending current = pending.get(key);
+        if (current == null) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                current.values[i] = values[i];
+            }
+        }
+        coalesced++;
+        return true;
+    }
+
+    /**
+     * @return a copy of the pending values of the key, also the ones of the batch being written, or null
+     */
+    public Object[] get(List<Object> key) {
+        lock.lock();
+        try {
+            Object[] writing = writingValues.get(key);
+            Pending current = pending.get(key);
+            if (current == null) {
+                return writing != null ? writing.clone() : null;
+            }
+            Object[] values = current.values.clone();
+            if (writing != null) {
+                // the newer pending values over the ones being written
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null) {
+                        values[i] = writing[i];
+                    }
+                }
+            }
+            return values;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all the pending updates in the calling thread.
+     *
+     * @throws DatabaseException if a batch fails, it stays pending
+     */
+    public void flush() throws DatabaseException {
+        while (writeBatch(true)) {
+            // next batch
+        }
+    }
+
+    /**
+     * @return false if there was nothing to write
+     */
+    private boolean writeBatch(boolean throwFailure) throws DatabaseException {
+        synchronized (writing) {
+            List<Map.Entry<List<Object>, Pending>> batch = new ArrayList<>();
+            lock.lock();
+            try {
+                Iterator<Map.Entry<List<Object>, Pending>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    Map.Entry<List<Object>, Pending> entry = iterator.next();
+                    batch.add(entry);
+                    writingValues.put(entry.getKey(), entry.getValue().values);
+                    iterator.remove();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (batch.isEmpty()) {
+                return false;
+            }
+
+            List<Object[]> rows = new ArrayList<>(batch.size());
+            for (Map.Entry<List<Object>, Pending> entry : batch) {
+                rows.add(entry.getValue().values);
+            }
+            try {
+                writer.write(rows);
+            } catch (DatabaseException | RuntimeException e) {
+                requeue(batch);
+                Logger.error("WriteBehindBuffer, write of " + batch.size() + " updates failed, retrying: " + name, e);
+                if (throwFailure) {
+                    throw e;
+                }
+                return false;
+            } finally {
+                // a failed batch is pending again
+                endBatch();
+            }
+
+            long now = System.nanoTime();
+            lock.lock();
+            try {
+                written += batch.size();
+                batches++;
+                for (Map.Entry<List<Object>, Pending> entry : batch) {
+                    maxLagNanos = Math.max(maxLagNanos, now - entry.getValue().queued);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        }
+    }
+
+    private void endBatch() {
+        lock.lock();
+        try {
+            writingValues.clear();
+            batchWritten.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The key is written without the buffer: its pending values of the columns are dropped, so a later batch does not
+     * overwrite the newer ones. If the key is in the batch being written, it waits for the batch first.
+     *
+     * @param columns indexes of the columns written, null for the whole row, e.g. when it is deleted
+     */
+    public void discard(List<Object> key, BitSet columns) throws DatabaseException {
+        lock.lock();
+        try {
+            while (writingValues.containsKey(key)) {
+                try {
+                    batchWritten.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException(e);
+                }
+            }
+            Pending current = pending.get(key);
+            if (current == null) {
+                return;
+            }
+            if (columns == null) {
+                pending.remove(key);
+                notFull.signalAll();
+            } else {
+                // an update left without columns is skipped by the batch
+                for (int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i + 1)) {
+                    current.values[i] = null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void requeue(List<Map.Entry<List<Object>, Pending>> batch) {
+        lock.lock();
+        try {
+            failures++;
+            retryAt = System.nanoTime() + flushIntervalNanos;
+            // the failed updates are older than the pending ones: they go first, under the newer values of their key
+            LinkedHashMap<List<Object>, Pending> requeued = new LinkedHashMap<>();
+            for (Map.Entry<List<Object>, Pending> entry : batch) {
+                requeued.put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<List<Object>, Pending> entry : pending.entrySet()) {
+                Pending failed = requeued.get(entry.getKey());
+                if (failed != null) {
+                    Object[] values = entry.getValue().values;
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] != null) {
+                            failed.values[i] = values[i];
+                        }
+                    }
+                } else {
+                    requeued.put(entry.getKey(), entry.getValue());
+                }
+            }
+            pending = requeued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            lock.lock();
+            try {
+                while (!closed && !isDue()) {
+                    long wait = pending.isEmpty() ? flushIntervalNanos
+                            : Math.max(pending.values().iterator().next().queued + flushIntervalNanos, retryAt) - System.nanoTime();
+                    flushNeeded.awaitNanos(Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (closed) {
+                // close() writes the rest
+                return;
+            }
+            try {
+                writeBatch(false);
+            } catch (DatabaseException e) {
+                // not thrown
+            }
+        }
+    }
+
+    private boolean isDue() {
+        if (pending.isEmpty()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now < retryAt) {
+            return false;
+        }
+        return pending.size() >= batchSize || now - pending.values().iterator().next().queued >= flushIntervalNanos;
+    }
+
+    /**
+     * Stops the writer and writes the pending updates, the ones that still fail are lost.
+     */
+    public void close() {
+        BUFFERS.remove(name, this);
+        lock.lock();
+        try {
+            closed = true;
+            flushNeeded.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (DatabaseException e) {
+            Logger.error("WriteBehindBuffer, " + getStatistics().getPending() + " updates lost: " + name, e);
+        }
+    }
+
+    public WriteBehindStatistics getStatistics() {
+        lock.lock();
+        try {
+            long lag = pending.isEmpty() ? 0 : System.nanoTime() - pending.values().iterator().next().queued;
+            return new WriteBehindStatistics(pending.size(), maxPending, enqueued, coalesced, written, batches, failures,
+                    waits, rejected, TimeUnit.NANOSECONDS.toMillis(lag), TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package it.richkmeli.jframework.orm.async;
+
+/**
+ * Point-in-time snapshot of a {@link WriteBehindBuffer}.
+ */
+public class WriteBehindStatistics {
+    private final int pending;
+    private final int maxPending;
+    private final long enqueued;
+    private final long coalesced;
+    private final long written;
+    private final long batches;
+    private final long failures;
+    private final long waits;
+    private final long rejected;
+    private final long lagMillis;
+    private final long maxLagMillis;
+
+    public WriteBehindStatistics(int pending, int maxPending, long enqueued, long coalesced, long written, long batches,
+                                 long failures, long waits, long rejected, long lagMillis, long maxLagMillis) {
+        this.pending = pending;
+        this.maxPending = maxPending;
+        this.enqueued = enqueued;
+        this.coalesced = coalesced;
+        this.written = written;
+        this.batches = batches;
+        this.failures = failures;
+        this.waits = waits;
+        this.rejected = rejected;
+        this.lagMillis = lagMillis;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * @return primary keys with an update not written yet
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * @return updates merged into a pending one of the same primary key
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return rows written to the database
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return updates that waited because the buffer was full
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return age of the oldest pending update
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * @return longest time an update waited before it was written
+     */
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindStatistics{" +
+                "pending=" + pending +
+                ", maxPending=" + maxPending +
+                ", enqueued=" + enqueued +
+                ", coalesced=" + coalesced +
+                ", written=" + written +
+                ", batches=" + batches +
+                ", failures=" + failures +
+                ", waits=" + waits +
+                ", rejected=" + rejected +
+                ", lagMillis=" + lagMillis +
+                ", maxLagMillis=" + maxLagMillis +
+                '}';
+    }
+}
@@ -0,0 +1,159 @@
+package it.richkmeli.jframework.orm.cache;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Second-level cache of the entities of a table, keyed by primary key values. It is shared by all the DatabaseManager
+ * instances of the same datasource and table, so a write made by any of them invalidates the entity for all.
+ * <p>
+ * Column values are stored instead of entities: every hit builds a new instance, then callers can modify it. Array
+ * values, e.g. byte[], are copied on put and on get, so they are not shared with the callers either.
+ * Eviction is LRU when maxSize is reached, entries older than ttl are read again from the database.
+ * <p>
+ * A read that started before an invalidation is not stored ({@link #getVersion()}), so the value read from the
+ * database while a write was running cannot replace the invalidated one.
+ */
+public class EntityCache {
+    private static final Map<String, EntityCache> CACHES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<List<Object>, Entry> entries;
+    private long version = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+    private long invalidations = 0;
+
+    private static class Entry {
+        private final Object[] values;
+        private final long created;
+
+        private Entry(Object[] values, long created) {
+            this.values = values;
+            this.created = created;
+        }
+    }
+
+    public static EntityCache getInstance(String name, int maxSize, long ttl) {
+        return CACHES.computeIfAbsent(name, key -> new EntityCache(name, maxSize, ttl));
+    }
+
+    public static Collection<EntityCache> getInstances() {
+        return new ArrayList<>(CACHES.values());
+    }
+
+    public static void clearAll() {
+        for (EntityCache cache : getInstances()) {
+            cache.clear();
+        }
+    }
+
+    private EntityCache(String name, int maxSize, long ttl) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        // access order: the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the column values of the entity, or null if it is not cached
+     */
+    public synchronized Object[] get(List<Object> primaryKey) {
+        Entry entry = entries.get(primaryKey);
+        if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(primaryKey);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entry.values);
+    }
+
+    /**
+     * Version to take before reading from the database and to pass to {@link #put(List, Object[], long)}.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized void put(List<Object> primaryKey, Object[] values, long version) {
+        if (this.version == version) {
+            entries.put(primaryKey, new Entry(copy(values), System.nanoTime()));
+        }
+    }
+
+    private static Object[] copy(Object[] values) {
+        Object[] copy = values.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] != null && copy[i].getClass().isArray()) {
+                int length = Array.getLength(copy[i]);
+                Object array = Array.newInstance(copy[i].getClass().getComponentType(), length);
+                System.arraycopy(copy[i], 0, array, 0, length);
+                copy[i] = array;
+            }
+        }
+        return copy;
+    }
+
+    public synchronized void invalidate(List<Object> primaryKey) {
+        version++;
+        if (entries.remove(primaryKey) != null) {
+            invalidations++;
+        }
+    }
+
+    public synchronized void clear() {
+        version++;
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    /**
+     * Removes the expired entries, they are otherwise removed when they are read.
+     */
+    public synchronized void purge() {
+        if (ttlNanos > 0) {
+            long now = System.nanoTime();
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().created > ttlNanos) {
+                    iterator.remove();
+                    expirations++;
+                }
+            }
+        }
+    }
+
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(entries.size(), hits, misses, evictions, expirations, invalidations);
+    }
+}
@@ -0,0 +1,63 @@
+package it.richkmeli.jframework.orm.cache;
+
+/**
+ * Point-in-time snapshot of a {@link ResidentTable}.
+ */
+public class ResidentStatistics {
+    private final int size;
+    private final long reloads;
+    private final long refreshes;
+    private final long changedRows;
+    private final long ageMillis;
+
+    public ResidentStatistics(int size, long reloads, long refreshes, long changedRows, long ageMillis) {
+        this.size = size;
+        this.reloads = reloads;
+        this.refreshes = refreshes;
+        this.changedRows = changedRows;
+        this.ageMillis = ageMillis;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return reads of the whole table
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * @return reads of the changed rows only
+     */
+    public long getRefreshes() {
+        return refreshes;
+    }
+
+    /**
+     * @return rows replaced or removed by the refreshes
+     */
+    public long getChangedRows() {
+        return changedRows;
+    }
+
+    /**
+     * @return milliseconds since the last reload or refresh, -1 if the table was never loaded
+     */
+    public long getAgeMillis() {
+        return ageMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ResidentStatistics{" +
+                "size=" + size +
+                ", reloads=" + reloads +
+                ", refreshes=" + refreshes +
+                ", changedRows=" + changedRows +
+                ", ageMillis=" + ageMillis +
+                '}';
+    }
+}
@@ -0,0 +1,300 @@
+package it.richkmeli.jframework.orm.cache;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Whole table held in memory, indexed by primary key and by the declared keys. It is shared by all the
+ * DatabaseManager instances of the same datasource and table.
+ * <p>
+ * Reads use an immutable {@link Snapshot} without locks. A refresh builds a new snapshot and swaps it in: readers
+ * keep the one they got. The table is refreshed when refreshInterval passed, by one reader while the others read the
+ * current snapshot, or before the next read after a write of a manager of this JVM ({@link #invalidate(List)}).
+ * <p>
+ * A refresh reads the rows whose change column is greater than or equal to the greatest one read so far, and the rows
+ * written in this JVM. Without a change column, or every reloadInterval, the whole table is read again: rows deleted
+ * by other processes are removed only then.
+ */
+public class ResidentTable {
+    private static final Map<String, ResidentTable> TABLES = new ConcurrentHashMap<>();
+
+    public interface Loader {
+        /**
+         * @return column values of all the rows
+         */
+        List<Object[]> loadAll() throws DatabaseException;
+
+        /**
+         * @return column values of the rows whose change column is greater than or equal to the marker
+         */
+        List<Object[]> loadChanged(Object changeMarker) throws DatabaseException;
+
+        /**
+         * @return column values of the rows found
+         */
+        List<Object[]> loadByIds(List<List<Object>> primaryKeys) throws DatabaseException;
+    }
+
+    private final String name;
+    private final int[] primaryKey;
+    private final int[] keys;
+    private final int changeColumn;
+    private final long refreshIntervalNanos;
+    private final long reloadIntervalNanos;
+    private final Loader loader;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    // primary keys written in this JVM since the last refresh
+    private final Set<List<Object>> written = ConcurrentHashMap.newKeySet();
+    private volatile Snapshot snapshot;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong changedRows = new AtomicLong();
+
+    /**
+     * Rows of the table at a point in time. Values are shared: they must not be modified.
+     */
+    public static class Snapshot {
+        private final Map<List<Object>, Object[]> rows;
+        // rows by value of each key column
+        private final Map<Integer, Map<Object, List<Object[]>>> keys;
+        private final Object changeMarker;
+        private final long reloaded;
+        private final long refreshed;
+
+        private Snapshot(Map<List<Object>, Object[]> rows, Map<Integer, Map<Object, List<Object[]>>> keys, Object changeMarker,
+                         long reloaded, long refreshed) {
+            this.rows = rows;
+            this.keys = keys;
+            this.changeMarker = changeMarker;
+            this.reloaded = reloaded;
+            this.refreshed = refreshed;
+        }
+
+        /**
+         * @return the column values of the row, or null if it is not present
+         */
+        public Object[] get(List<Object> primaryKey) {
+            return rows.get(primaryKey);
+        }
+
+        public Collection<Object[]> getAll() {
+            return rows.values();
+        }
+
+        /**
+         * @return the rows with the value in the key column, or null if the column is not a key
+         */
+        public List<Object[]> getByKey(int column, Object value) {
+            Map<Object, List<Object[]>> key = keys.get(column);
+            if (key == null) {
+                return null;
+            }
+            List<Object[]> found = key.get(value);
+            return found != null ? found : Collections.emptyList();
+        }
+
+        public int size() {
+            return rows.size();
+        }
+    }
+
+    public static ResidentTable getInstance(String name) {
+        return TABLES.get(name);
+    }
+
+    /**
+     * @param primaryKey    indexes of the primary key columns
+     * @param keys          indexes of the key columns
+     * @param changeColumn  index of the change column, -1 if there is none
+     */
+    public static ResidentTable getInstance(String name, int[] primaryKey, int[] keys, int changeColumn, long refreshInterval,
+                                            long reloadInterval, Loader loader) {
+        return TABLES.computeIfAbsent(name, key -> new ResidentTable(name, primaryKey, keys, changeColumn, refreshInterval, reloadInterval, loader));
+    }
+
+    public static Collection<ResidentTable> getInstances() {
+        return new ArrayList<>(TABLES.values());
+    }
+
+    private ResidentTable(String name, int[] primaryKey, int[] keys, int changeColumn, long refreshInterval, long reloadInterval, Loader loader) {
+        this.name = name;
+        this.primaryKey = primaryKey;
+        this.keys = keys;
+        this.changeColumn = changeColumn;
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshInterval);
+        this.reloadIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reloadInterval);
+        this.loader = loader;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the current snapshot, loaded or refreshed first if needed
+     */
+    public Snapshot getSnapshot() throws DatabaseException {
+        Snapshot current = snapshot;
+        if (current != null && written.isEmpty()) {
+            if (System.nanoTime() - current.refreshed < refreshIntervalNanos) {
+                return current;
+            }
+            // refreshed by one reader, the others do not wait
+            if (!refreshLock.tryLock()) {
+                return current;
+            }
+        } else {
+            // the first load, or the writes of this JVM must be visible to the next read
+            refreshLock.lock();
+        }
+        try {
+            current = snapshot;
+            if (current != null && written.isEmpty() && System.nanoTime() - current.refreshed < refreshIntervalNanos) {
+                // refreshed while waiting
+                return current;
+            }
+            return refresh(current);
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private Snapshot refresh(Snapshot current) throws DatabaseException {
+        long now = System.nanoTime();
+        // keys written from now on stay for the next refresh
+        List<List<Object>> writtenKeys = new ArrayList<>(written);
+        written.removeAll(writtenKeys);
+        try {
+            Snapshot next;
+            if (current == null || changeColumn < 0 || current.changeMarker == null
+                    || (reloadIntervalNanos > 0 && now - current.reloaded >= reloadIntervalNanos)) {
+                Map<List<Object>, Object[]> rows = new HashMap<>();
+                for (Object[] values : loader.loadAll()) {
+                    rows.put(getPrimaryKey(values), values);
+                }
+                next = build(rows, getChangeMarker(rows.values(), null), now, now);
+                reloads.incrementAndGet();
+            } else {
+                Map<List<Object>, Object[]> changed = new HashMap<>();
+                for (Object[] values : loader.loadChanged(current.changeMarker)) {
+                    List<Object> key = getPrimaryKey(values);
+                    // rows at the marker are read again every time, they are changes only if different
+                    if (!Arrays.deepEquals(values, current.get(key))) {
+                        changed.put(key, values);
+                    }
+                }
+                Map<List<Object>, Object[]> found = new HashMap<>();
+                if (!writtenKeys.isEmpty()) {
+                    for (Object[] values : loader.loadByIds(writtenKeys)) {
+                        found.put(getPrimaryKey(values), values);
+                    }
+                }
+                if (changed.isEmpty() && writtenKeys.isEmpty()) {
+                    next = new Snapshot(current.rows, current.keys, current.changeMarker, current.reloaded, now);
+                } else {
+                    Map<List<Object>, Object[]> rows = new HashMap<>(current.rows);
+                    for (List<Object> key : writtenKeys) {
+                        // deleted if not found
+                        rows.remove(key);
+                    }
+                    rows.putAll(changed);
+                    rows.putAll(found);
+                    changedRows.addAndGet(changed.size() + writtenKeys.size());
+                    next = build(rows, getChangeMarker(changed.values(), getChangeMarker(found.values(), current.changeMarker)), current.reloaded, now);
+                }
+                refreshes.incrementAndGet();
+            }
+            snapshot = next;
+            return next;
+        } catch (DatabaseException | RuntimeException e) {
+            written.addAll(writtenKeys);
+            throw e;
+        }
+    }
+
+    private Snapshot build(Map<List<Object>, Object[]> rows, Object changeMarker, long reloaded, long refreshed) {
+        Map<Integer, Map<Object, List<Object[]>>> indexes = new HashMap<>();
+        for (int key : keys) {
+            Map<Object, List<Object[]>> index = new HashMap<>();
+            for (Object[] values : rows.values()) {
+                // NULL is not equal to any value
+                if (values[key] != null) {
+                    index.computeIfAbsent(values[key], k -> new ArrayList<>(1)).add(values);
+                }
+            }
+            indexes.put(key, index);
+        }
+        return new Snapshot(rows, indexes, changeMarker, reloaded, refreshed);
+    }
+
+    private List<Object> getPrimaryKey(Object[] values) {
+        List<Object> key = new ArrayList<>(primaryKey.length);
+        for (int column : primaryKey) {
+            key.add(values[column]);
+        }
+        return key;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object getChangeMarker(Collection<Object[]> rows, Object changeMarker) {
+        if (changeColumn < 0) {
+            return null;
+        }
+        for (Object[] values : rows) {
+            Object value = values[changeColumn];
+            if (value != null && (changeMarker == null || ((Comparable) value).compareTo(changeMarker) > 0)) {
+                changeMarker = value;
+            }
+        }
+        return changeMarker;
+    }
+
+    /**
+     * The row was written by a manager of this JVM: it is read again before the next read of the table.
+     */
+    public void invalidate(List<Object> primaryKey) {
+        // not loaded yet: the next load reads the row, unless it is already running
+        if (snapshot != null || refreshLock.isLocked()) {
+            written.add(primaryKey);
+        }
+    }
+
+    /**
+     * The table is read again by the next read.
+     */
+    public void clear() {
+        refreshLock.lock();
+        try {
+            snapshot = null;
+            written.clear();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the table, e.g. when its database is dropped: the next manager creates it again with its loader.
+     */
+    public void close() {
+        clear();
+        TABLES.remove(name, this);
+    }
+
+    public ResidentStatistics getStatistics() {
+        Snapshot current = snapshot;
+        return new ResidentStatistics(current != null ? current.size() : 0, reloads.get(), refreshes.get(), changedRows.get(),
+                current != null ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - current.refreshed) : -1);
+    }
+}
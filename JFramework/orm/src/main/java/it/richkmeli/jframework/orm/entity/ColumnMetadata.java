@@ -0,0 +1,61 @@
+package it.richkmeli.jframework.orm.entity;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * A persistent field of an entity, resolved once by {@link EntityMetadata}.
+ */
+public class ColumnMetadata {
+    private final Field field;
+    private final Method getter;
+    private final int index;
+    private final boolean primaryKey;
+    private final boolean version;
+
+    ColumnMetadata(Field field, Method getter, int index, boolean primaryKey, boolean version) {
+        this.field = field;
+        this.getter = getter;
+        this.index = index;
+        this.primaryKey = primaryKey;
+        this.version = version;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getName() {
+        return field.getName();
+    }
+
+    public Class<?> getType() {
+        return field.getType();
+    }
+
+    public String getTypeName() {
+        return field.getGenericType().getTypeName();
+    }
+
+    public Method getGetter() {
+        return getter;
+    }
+
+    /**
+     * Position of the column in the entity constructor, starting from 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return true for the {@link it.richkmeli.jframework.orm.annotation.Version} of the entity
+     */
+    public boolean isVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,36 @@
+package it.richkmeli.jframework.orm.entity;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+
+/**
+ * Moves values between an entity and JDBC. Columns are identified by {@link ColumnMetadata#getIndex()}.
+ */
+public interface EntityMapper<T> {
+
+    /**
+     * Builds an entity from the current row of the result set.
+     */
+    T map(ResultSet resultSet) throws SQLException, DatabaseException;
+
+    /**
+     * Builds an entity from the given columns of the current row, the other fields are null (zero for primitives).
+     */
+    T map(ResultSet resultSet, BitSet columns) throws SQLException, DatabaseException;
+
+    /**
+     * Sets the value of a column of the entity as parameter of the statement.
+     */
+    void bind(PreparedStatement preparedStatement, int parameterIndex, T entity, int column) throws SQLException, DatabaseException;
+
+    Object get(T entity, int column) throws DatabaseException;
+
+    /**
+     * Builds an entity from the values of all its columns, in column order.
+     */
+    T newInstance(Object[] values) throws DatabaseException;
+}
@@ -0,0 +1,299 @@
+package it.richkmeli.jframework.orm.entity;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.annotation.Cacheable;
+import it.richkmeli.jframework.orm.annotation.Id;
+import it.richkmeli.jframework.orm.annotation.ManyToOne;
+import it.richkmeli.jframework.orm.annotation.OneToMany;
+import it.richkmeli.jframework.orm.annotation.Version;
+import it.richkmeli.jframework.orm.annotation.Resident;
+import it.richkmeli.jframework.orm.annotation.WriteBehind;
+import it.richkmeli.jframework.util.log.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflection model of an entity class: persistent fields in declaration order, primary key, getters and the
+ * constructor taking every field. It is built once per class and shared by all the DatabaseManager instances.
+ * <p>
+ * Static, transient and synthetic fields (e.g. added by coverage tools) are not persistent. Transient fields annotated
+ * with {@link ManyToOne} or {@link OneToMany} are relationships, loaded by DatabaseManager.
+ */
+public class EntityMetadata<T> {
+    private static final Map<Class<?>, EntityMetadata<?>> REGISTRY = new ConcurrentHashMap<>();
+
+    private final Class<T> type;
+    private final List<ColumnMetadata> columns;
+    private final List<ColumnMetadata> primaryKey;
+    private final Map<String, ColumnMetadata> columnsByName;
+    private final List<RelationMetadata> relations;
+    private final ColumnMetadata version;
+    private final MethodHandle versionSetter;
+    private final Constructor<T> constructor;
+    private final Map<String, EntityStatements> statements = new ConcurrentHashMap<>();
+    private volatile EntityMapper<T> mapper;
+
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMetadata<T> of(Class<T> type) throws DatabaseException {
+        EntityMetadata<?> metadata = REGISTRY.get(type);
+        if (metadata == null) {
+            metadata = new EntityMetadata<>(type);
+            EntityMetadata<?> previous = REGISTRY.putIfAbsent(type, metadata);
+            if (previous != null) {
+                metadata = previous;
+            }
+        }
+        return (EntityMetadata<T>) metadata;
+    }
+
+    private EntityMetadata(Class<T> type) throws DatabaseException {
+        this.type = type;
+
+        List<Field> fields = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (isPersistent(field)) {
+                fields.add(field);
+            }
+        }
+
+        // getters are searched once, instead of scanning getMethods() for each field of each call
+        Map<String, Method> getters = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            if (method.getName().startsWith("get") && method.getParameterCount() == 0) {
+                getters.put(method.getName().toLowerCase(), method);
+            }
+        }
+
+        List<ColumnMetadata> columns = new ArrayList<>();
+        List<ColumnMetadata> primaryKey = new ArrayList<>();
+        ColumnMetadata version = null;
+        Map<String, ColumnMetadata> columnsByName = new HashMap<>();
+        Class<?>[] parameterTypes = new Class<?>[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            Method getter = getters.get(("get" + field.getName()).toLowerCase());
+            if (getter == null) {
+                throw new DatabaseException("ORM, Reflection: getter for '" + field.getName() + "' not found in class '" + type + "'");
+            }
+            ColumnMetadata column = new ColumnMetadata(field, getter, i, field.getAnnotation(Id.class) != null, field.getAnnotation(Version.class) != null);
+            columns.add(column);
+            if (column.isVersion()) {
+                Class<?> versionType = field.getType();
+                if (version != null || column.isPrimaryKey() || (versionType != int.class && versionType != Integer.class
+                        && versionType != long.class && versionType != Long.class)) {
+                    throw new DatabaseException("ORM, Reflection: @Version '" + field.getName() + "' of '" + type + "' must be the only one, an int or a long and not an @Id");
+                }
+                version = column;
+            }
+            columnsByName.put(field.getName().toLowerCase(), column);
+            if (column.isPrimaryKey()) {
+                primaryKey.add(column);
+            }
+            parameterTypes[i] = field.getType();
+        }
+        this.columns = Collections.unmodifiableList(columns);
+        this.primaryKey = Collections.unmodifiableList(primaryKey);
+        this.columnsByName = columnsByName;
+        this.version = version;
+        if (version != null) {
+            try {
+                // the version is incremented in the entity after an update
+                version.getField().setAccessible(true);
+                this.versionSetter = MethodHandles.lookup().unreflectSetter(version.getField())
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new DatabaseException("ORM, Reflection: field '" + version.getName() + "' not writable", e);
+            }
+        } else {
+            this.versionSetter = null;
+        }
+
+        List<RelationMetadata> relations = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+            OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            if (manyToOne == null && oneToMany == null) {
+                continue;
+            }
+            if (!Modifier.isTransient(field.getModifiers())) {
+                throw new DatabaseException("ORM, Reflection: relationship '" + field.getName() + "' of '" + type + "' must be transient");
+            }
+            if (manyToOne != null) {
+                if (getColumn(manyToOne.column()) == null) {
+                    throw new DatabaseException("ORM, Reflection: column '" + manyToOne.column() + "' of relationship '" + field.getName() + "' not found");
+                }
+                relations.add(new RelationMetadata(field, field.getType(), false, manyToOne.column(), manyToOne.table(), manyToOne.fetch()));
+            } else {
+                if (primaryKey.size() != 1) {
+                    throw new DatabaseException("ORM, Reflection: OneToMany '" + field.getName() + "' needs a single column primary key");
+                }
+                Type genericType = field.getGenericType();
+                if (field.getType() != List.class || !(genericType instanceof ParameterizedType)
+                        || !(((ParameterizedType) genericType).getActualTypeArguments()[0] instanceof Class)) {
+                    throw new DatabaseException("ORM, Reflection: OneToMany '" + field.getName() + "' must be a List of entities");
+                }
+                Class<?> targetType = (Class<?>) ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                relations.add(new RelationMetadata(field, targetType, true, oneToMany.mappedBy(), oneToMany.table(), oneToMany.fetch()));
+            }
+        }
+        this.relations = Collections.unmodifiableList(relations);
+
+        try {
+            this.constructor = type.getConstructor(parameterTypes);
+        } catch (NoSuchMethodException e) {
+            List<Class<?>> types = new ArrayList<>();
+            Collections.addAll(types, parameterTypes);
+            throw new DatabaseException("ORM, Reflection: constructor not found. Fields found (" + types.size() + "): " + types);
+        }
+    }
+
+    private static boolean isPersistent(Field field) {
+        int modifiers = field.getModifiers();
+        return !field.isSynthetic() && !Modifier.isTransient(modifiers) && !Modifier.isStatic(modifiers);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public List<ColumnMetadata> getColumns() {
+        return columns;
+    }
+
+    public List<ColumnMetadata> getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return the column with the given name (case insensitive), or null
+     */
+    public ColumnMetadata getColumn(String name) {
+        return columnsByName.get(name.toLowerCase());
+    }
+
+    /**
+     * @return the {@link Version} column, or null if the entity has no optimistic locking
+     */
+    public ColumnMetadata getVersion() {
+        return version;
+    }
+
+    public void setVersion(T entity, long value) throws DatabaseException {
+        Class<?> versionType = version.getType();
+        Object boxed = versionType == int.class || versionType == Integer.class ? (Object) (int) value : (Object) value;
+        try {
+            versionSetter.invokeExact((Object) entity, boxed);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new DatabaseException("ORM, MethodHandle: error setting " + version.getName(), (Exception) throwable);
+        }
+    }
+
+    public List<RelationMetadata> getRelations() {
+        return relations;
+    }
+
+    /**
+     * @return the relationship with the given field name, or null
+     */
+    public RelationMetadata getRelation(String name) {
+        for (RelationMetadata relation : relations) {
+            if (relation.getName().equals(name)) {
+                return relation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the cache configuration of the entity, or null if it is not cacheable
+     */
+    public Cacheable getCacheable() {
+        return type.getAnnotation(Cacheable.class);
+    }
+
+    /**
+     * @return the write-behind configuration of the entity, or null if its updates are always synchronous
+     */
+    public WriteBehind getWriteBehind() {
+        return type.getAnnotation(WriteBehind.class);
+    }
+
+    /**
+     * @return the resident table configuration of the entity, or null if it is read from the database
+     */
+    public Resident getResident() {
+        return type.getAnnotation(Resident.class);
+    }
+
+    public Constructor<T> getConstructor() {
+        return constructor;
+    }
+
+    /**
+     * @return the mapper generated at compile time by EntityMapperProcessor if it is on the classpath and matches
+     * this class, otherwise a {@link MethodHandleEntityMapper}
+     */
+    public EntityMapper<T> getMapper() throws DatabaseException {
+        if (mapper == null) {
+            synchronized (this) {
+                if (mapper == null) {
+                    EntityMapper<T> generated = getGeneratedMapper();
+                    mapper = generated != null ? generated : new MethodHandleEntityMapper<>(this);
+                }
+            }
+        }
+        return mapper;
+    }
+
+    @SuppressWarnings("unchecked")
+    private EntityMapper<T> getGeneratedMapper() {
+        String name = GeneratedEntityMapper.getMapperName(type);
+        GeneratedEntityMapper<?> generated;
+        try {
+            Class<?> mapperType = Class.forName(name, true, type.getClassLoader());
+            generated = (GeneratedEntityMapper<?>) mapperType.getConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            Logger.error("ORM, Reflection: generated mapper " + name + " not usable", e);
+            return null;
+        }
+
+        List<String> names = new ArrayList<>();
+        for (ColumnMetadata column : columns) {
+            names.add(column.getName());
+        }
+        if (generated.getType() != type || !generated.getColumns().equals(names)) {
+            // compiled from another version of the entity
+            Logger.error("ORM, Reflection: generated mapper " + name + " has columns " + generated.getColumns() + " instead of " + names);
+            return null;
+        }
+        return (EntityMapper<T>) generated;
+    }
+
+    public EntityStatements getStatements(String tableName, String dbtype) {
+        String key = dbtype + ":" + tableName;
+        EntityStatements entityStatements = statements.get(key);
+        if (entityStatements == null) {
+            entityStatements = new EntityStatements(this, tableName, dbtype);
+            statements.put(key, entityStatements);
+        }
+        return entityStatements;
+    }
+}
@@ -0,0 +1,152 @@
+package it.richkmeli.jframework.orm.entity;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.annotation.Column;
+import it.richkmeli.jframework.orm.annotation.ForeignKey;
+import it.richkmeli.jframework.orm.annotation.Index;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DDL of the table of an entity, generated from {@link Column}, {@link Index} and {@link ForeignKey} for Derby or MySQL.
+ * <p>
+ * {@link #getTable()} has the same format of the table definition written by hand in the DatabaseManager subclasses,
+ * i.e. the part of CREATE TABLE after the table name.
+ */
+public class EntitySchema {
+    // MySQL limit, Derby allows 128
+    private static final int MAX_IDENTIFIER_LENGTH = 64;
+
+    private final String table;
+    private final List<String> indexes;
+    private final List<String> indexNames;
+
+    public EntitySchema(EntityMetadata<?> metadata, String tableName, String dbtype) throws DatabaseException {
+        boolean mysql = "mysql".equalsIgnoreCase(dbtype);
+        String schemaName = tableName.contains(".") ? tableName.substring(0, tableName.indexOf('.')) : null;
+
+        List<String> definitions = new ArrayList<>();
+        List<String> foreignKeys = new ArrayList<>();
+        List<String> indexes = new ArrayList<>();
+        List<String> indexNames = new ArrayList<>();
+        for (ColumnMetadata column : metadata.getColumns()) {
+            Column definition = column.getField().getAnnotation(Column.class);
+            boolean notNull = column.isPrimaryKey() || column.getType().isPrimitive() || (definition != null && !definition.nullable());
+            // rows inserted without the version start from 0
+            definitions.add(column.getName() + " " + getSqlType(column, definition, mysql) + (column.isVersion() ? " DEFAULT 0" : "") +
+                    (notNull || column.isVersion() ? " NOT NULL" : "") +
+                    (definition != null && definition.unique() ? " UNIQUE" : ""));
+
+            ForeignKey foreignKey = column.getField().getAnnotation(ForeignKey.class);
+            if (foreignKey != null) {
+                String referenced = foreignKey.table().contains(".") || schemaName == null ? foreignKey.table() : schemaName + "." + foreignKey.table();
+                foreignKeys.add("FOREIGN KEY (" + column.getName() + ") REFERENCES " + referenced + "(" + foreignKey.column() + ")" +
+                        (foreignKey.onDelete().isEmpty() ? "" : " ON DELETE " + foreignKey.onDelete()));
+            }
+            for (Index index : column.getField().getAnnotationsByType(Index.class)) {
+                String[] columns = index.columns().length > 0 ? index.columns() : new String[]{column.getName()};
+                String name = getIndexName(index, columns, tableName, schemaName);
+                indexNames.add(name);
+                indexes.add(getCreateIndex(index, name, columns, tableName, schemaName, mysql));
+            }
+        }
+        for (Index index : metadata.getType().getAnnotationsByType(Index.class)) {
+            if (index.columns().length == 0) {
+                throw new DatabaseException("ORM, Schema: index of " + metadata.getType().getName() + " without columns");
+            }
+            String name = getIndexName(index, index.columns(), tableName, schemaName);
+            indexNames.add(name);
+            indexes.add(getCreateIndex(index, name, index.columns(), tableName, schemaName, mysql));
+        }
+
+        if (!metadata.getPrimaryKey().isEmpty()) {
+            List<String> primaryKey = new ArrayList<>();
+            for (ColumnMetadata column : metadata.getPrimaryKey()) {
+                primaryKey.add(column.getName());
+            }
+            definitions.add("PRIMARY KEY (" + String.join(", ", primaryKey) + ")");
+        }
+        definitions.addAll(foreignKeys);
+
+        this.table = "(" + String.join(",", definitions) + ")";
+        this.indexes = Collections.unmodifiableList(indexes);
+        this.indexNames = Collections.unmodifiableList(indexNames);
+    }
+
+    private static String getSqlType(ColumnMetadata column, Column definition, boolean mysql) throws DatabaseException {
+        if (definition != null && !definition.type().isEmpty()) {
+            return definition.type();
+        }
+        Class<?> type = column.getType();
+        int length = definition != null ? definition.length() : 255;
+        if (type == String.class || type.isEnum()) {
+            return "VARCHAR(" + length + ")";
+        } else if (type == boolean.class || type == Boolean.class) {
+            return "BOOLEAN";
+        } else if (type == int.class || type == Integer.class) {
+            return "INTEGER";
+        } else if (type == long.class || type == Long.class) {
+            return "BIGINT";
+        } else if (type == double.class || type == Double.class) {
+            return "DOUBLE";
+        } else if (type == float.class || type == Float.class) {
+            return mysql ? "FLOAT" : "REAL";
+        } else if (type == short.class || type == Short.class) {
+            return "SMALLINT";
+        } else if (type == BigDecimal.class) {
+            return "DECIMAL(" + (definition != null ? definition.precision() : 19) + "," + (definition != null ? definition.scale() : 4) + ")";
+        } else if (type == Timestamp.class || type == Instant.class) {
+            // MySQL TIMESTAMP ends in 2038
+            return mysql ? "DATETIME(3)" : "TIMESTAMP";
+        } else if (type == byte[].class) {
+            return mysql ? "VARBINARY(" + length + ")" : "VARCHAR(" + length + ") FOR BIT DATA";
+        }
+        throw new DatabaseException("ORM, Schema: type not mapped, type: " + column.getTypeName() + ", use @Column(type)");
+    }
+
+    private static String getIndexName(Index index, String[] columns, String tableName, String schemaName) {
+        String name = index.name();
+        if (name.isEmpty()) {
+            String table = schemaName != null ? tableName.substring(schemaName.length() + 1) : tableName;
+            name = "idx_" + table + "_" + String.join("_", columns);
+            if (name.length() > MAX_IDENTIFIER_LENGTH) {
+                name = name.substring(0, MAX_IDENTIFIER_LENGTH);
+            }
+        }
+        return name;
+    }
+
+    private static String getCreateIndex(Index index, String name, String[] columns, String tableName, String schemaName, boolean mysql) {
+        // Derby puts the index in the current schema if it is not qualified, MySQL does not accept it qualified
+        if (!mysql && schemaName != null) {
+            name = schemaName + "." + name;
+        }
+        return "CREATE " + (index.unique() ? "UNIQUE " : "") + "INDEX " + name + " ON " + tableName + " (" + String.join(", ", columns) + ")";
+    }
+
+    /**
+     * @return column definitions and constraints, between parentheses
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return CREATE INDEX statements of the secondary indexes
+     */
+    public List<String> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * @return names of the secondary indexes, not qualified with the schema, in the order of {@link #getIndexes()}
+     */
+    public List<String> getIndexNames() {
+        return indexNames;
+    }
+}
@@ -0,0 +1,251 @@
+package it.richkmeli.jframework.orm.entity;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL strings of an entity bound to a table, built once and reused by every call.
+ */
+public class EntityStatements {
+    private final EntityMetadata<?> metadata;
+    private final String tableName;
+    private final String insert;
+    private final String select;
+    private final String selectAll;
+    private final String delete;
+    private final String primaryKeyCondition;
+    private final String exists;
+    private final String upsert;
+    // column indexes bound to the parameters of upsert, in order
+    private final int[] upsertColumns;
+    // UPDATE statements depend on which fields are valorized: one string for each combination used
+    private final Map<BitSet, String> updates = new ConcurrentHashMap<>();
+    private final Map<BitSet, String> versionedUpdates = new ConcurrentHashMap<>();
+    // projections by primary key, one string for each set of columns read
+    private final Map<BitSet, String> selects = new ConcurrentHashMap<>();
+    // multi-get by primary key, one string for each number of keys
+    private final Map<Integer, String> selectsByIds = new ConcurrentHashMap<>();
+    private final Map<String, String> selectsIn = new ConcurrentHashMap<>();
+
+    EntityStatements(EntityMetadata<?> metadata, String tableName, String dbtype) {
+        this.metadata = metadata;
+        this.tableName = tableName;
+
+        StringBuilder condition = new StringBuilder();
+        int i = 0;
+        for (ColumnMetadata column : metadata.getPrimaryKey()) {
+            condition.append(i++ > 0 ? " AND " : "").append(column.getName()).append(" = ?");
+        }
+        this.primaryKeyCondition = condition.toString();
+
+        StringBuilder names = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        List<ColumnMetadata> columns = metadata.getColumns();
+        for (i = 0; i < columns.size(); i++) {
+            names.append(columns.get(i).getName()).append(i < columns.size() - 1 ? ", " : "");
+            values.append("?").append(i < columns.size() - 1 ? "," : "");
+        }
+        String insertColumns = " (" + names + ") VALUES (" + values + ")";
+        this.insert = "INSERT " + ("mysql".equalsIgnoreCase(dbtype) ? "IGNORE" : "") + " INTO " + tableName + insertColumns;
+
+        this.selectAll = "SELECT * FROM " + tableName;
+        this.select = selectAll + " WHERE " + primaryKeyCondition;
+        this.delete = "DELETE FROM " + tableName + " WHERE " + primaryKeyCondition;
+        this.exists = "SELECT 1 FROM " + tableName + " WHERE " + primaryKeyCondition +
+                ("mysql".equalsIgnoreCase(dbtype) ? " LIMIT 1" : " FETCH FIRST 1 ROWS ONLY");
+
+        List<Integer> upsertColumns = new ArrayList<>();
+        StringBuilder upsert = new StringBuilder();
+        if ("mysql".equalsIgnoreCase(dbtype)) {
+            // INSERT ... ON DUPLICATE KEY UPDATE: all the columns, then the same row for the update
+            upsert.append("INSERT INTO ").append(tableName).append(insertColumns).append(" ON DUPLICATE KEY UPDATE ");
+            i = 0;
+            for (ColumnMetadata column : columns) {
+                upsertColumns.add(column.getIndex());
+                if (column.isVersion()) {
+                    upsert.append(i++ > 0 ? ", " : "").append(column.getName()).append(" = ").append(column.getName()).append(" + 1");
+                } else if (!column.isPrimaryKey()) {
+                    upsert.append(i++ > 0 ? ", " : "").append(column.getName()).append(" = VALUES(").append(column.getName()).append(")");
+                }
+            }
+            if (i == 0) {
+                // only primary key columns: nothing to update
+                ColumnMetadata column = metadata.getPrimaryKey().isEmpty() ? columns.get(0) : metadata.getPrimaryKey().get(0);
+                upsert.append(column.getName()).append(" = ").append(column.getName());
+            }
+        } else {
+            // MERGE on a one row table: primary key, the non primary key columns for the update, all of them for the insert
+            upsert.append("MERGE INTO ").append(tableName).append(" USING SYSIBM.SYSDUMMY1 ON ").append(primaryKeyCondition);
+            for (ColumnMetadata column : metadata.getPrimaryKey()) {
+                upsertColumns.add(column.getIndex());
+            }
+            StringBuilder set = new StringBuilder();
+            i = 0;
+            for (ColumnMetadata column : columns) {
+                if (column.isVersion()) {
+                    set.append(i++ > 0 ? ", " : "").append(column.getName()).append(" = ").append(column.getName()).append(" + 1");
+                } else if (!column.isPrimaryKey()) {
+                    set.append(i++ > 0 ? ", " : "").append(column.getName()).append(" = ?");
+                    upsertColumns.add(column.getIndex());
+                }
+            }
+            if (i > 0) {
+                upsert.append(" WHEN MATCHED THEN UPDATE SET ").append(set);
+            }
+            upsert.append(" WHEN NOT MATCHED THEN INSERT").append(insertColumns);
+            for (ColumnMetadata column : columns) {
+                upsertColumns.add(column.getIndex());
+            }
+        }
+        this.upsert = upsert.toString();
+        this.upsertColumns = new int[upsertColumns.size()];
+        for (i = 0; i < this.upsertColumns.length; i++) {
+            this.upsertColumns[i] = upsertColumns.get(i);
+        }
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getInsert() {
+        return insert;
+    }
+
+    public String getSelect() {
+        return select;
+    }
+
+    /**
+     * SELECT of some columns of the row with the primary key.
+     *
+     * @param columns indexes of the columns to read
+     */
+    public String getSelect(BitSet columns) {
+        String select = selects.get(columns);
+        if (select == null) {
+            StringBuilder sql = new StringBuilder("SELECT ");
+            int i = 0;
+            for (ColumnMetadata column : metadata.getColumns()) {
+                if (columns.get(column.getIndex())) {
+                    sql.append(i++ > 0 ? ", " : "").append(column.getName());
+                }
+            }
+            sql.append(" FROM ").append(tableName).append(" WHERE ").append(primaryKeyCondition);
+            select = sql.toString();
+            selects.put((BitSet) columns.clone(), select);
+        }
+        return select;
+    }
+
+    /**
+     * SELECT of the rows with one of count primary keys: IN (?,...) for a single column key, otherwise
+     * (a = ? AND b = ?) OR ... with the key columns of each row in order.
+     */
+    public String getSelectByIds(int count) {
+        if (metadata.getPrimaryKey().size() == 1) {
+            return getSelectIn(metadata.getPrimaryKey().get(0), count);
+        }
+        String select = selectsByIds.get(count);
+        if (select == null) {
+            StringBuilder sql = new StringBuilder(selectAll).append(" WHERE ");
+            for (int i = 0; i < count; i++) {
+                sql.append(i > 0 ? " OR " : "").append("(").append(primaryKeyCondition).append(")");
+            }
+            select = sql.toString();
+            selectsByIds.put(count, select);
+        }
+        return select;
+    }
+
+    /**
+     * SELECT of the rows with a column equal to one of count values.
+     */
+    public String getSelectIn(ColumnMetadata column, int count) {
+        String key = column.getName() + ":" + count;
+        String select = selectsIn.get(key);
+        if (select == null) {
+            StringBuilder sql = new StringBuilder(selectAll).append(" WHERE ").append(column.getName()).append(" IN (");
+            for (int i = 0; i < count; i++) {
+                sql.append(i > 0 ? "," : "").append("?");
+            }
+            select = sql.append(")").toString();
+            selectsIn.put(key, select);
+        }
+        return select;
+    }
+
+    public String getSelectAll() {
+        return selectAll;
+    }
+
+    public String getDelete() {
+        return delete;
+    }
+
+    /**
+     * SELECT 1 of the row with the primary key, without reading its columns.
+     */
+    public String getExists() {
+        return exists;
+    }
+
+    /**
+     * INSERT of the entity, or UPDATE of all its columns if the primary key is already present, in one statement.
+     */
+    public String getUpsert() {
+        return upsert;
+    }
+
+    /**
+     * @return indexes of the columns to bind to the parameters of {@link #getUpsert()}, in order
+     */
+    public int[] getUpsertColumns() {
+        return upsertColumns;
+    }
+
+    public String getPrimaryKeyCondition() {
+        return primaryKeyCondition;
+    }
+
+    /**
+     * @param valorizedColumns indexes of the non primary key columns to set
+     */
+    public String getUpdate(BitSet valorizedColumns) {
+        return getUpdate(valorizedColumns, false);
+    }
+
+    /**
+     * UPDATE of the columns, it increments the {@link it.richkmeli.jframework.orm.annotation.Version} if any.
+     *
+     * @param checkVersion if true the version is a parameter after the primary key: the row is updated only if it
+     *                     still has it
+     */
+    public String getUpdate(BitSet valorizedColumns, boolean checkVersion) {
+        Map<BitSet, String> cache = checkVersion ? versionedUpdates : updates;
+        String update = cache.get(valorizedColumns);
+        if (update == null) {
+            ColumnMetadata version = metadata.getVersion();
+            StringBuilder sql = new StringBuilder("UPDATE " + tableName + " SET ");
+            int i = 0;
+            for (ColumnMetadata column : metadata.getColumns()) {
+                if (valorizedColumns.get(column.getIndex())) {
+                    sql.append(i++ > 0 ? ", " : "").append(column.getName()).append(" = ?");
+                }
+            }
+            if (version != null) {
+                sql.append(", ").append(version.getName()).append(" = ").append(version.getName()).append(" + 1");
+            }
+            sql.append(" WHERE ").append(primaryKeyCondition);
+            if (checkVersion && version != null) {
+                sql.append(" AND ").append(version.getName()).append(" = ?");
+            }
+            update = sql.toString();
+            cache.put((BitSet) valorizedColumns.clone(), update);
+        }
+        return update;
+    }
+}
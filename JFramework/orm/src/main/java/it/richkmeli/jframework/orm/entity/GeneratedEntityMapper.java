@@ -0,0 +1,42 @@
+package it.richkmeli.jframework.orm.entity;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Base class of the mappers written at compile time by
+ * {@link it.richkmeli.jframework.orm.processor.EntityMapperProcessor}: plain getter, constructor and JDBC calls,
+ * without method handles or reflection.
+ * <p>
+ * A generated mapper is used by {@link EntityMetadata} only if its columns are the ones of the entity class loaded at
+ * runtime, so a stale generated class falls back to {@link MethodHandleEntityMapper}.
+ */
+public abstract class GeneratedEntityMapper<T> implements EntityMapper<T> {
+    private final Class<T> type;
+    private final List<String> columns;
+
+    protected GeneratedEntityMapper(Class<T> type, String... columns) {
+        this.type = type;
+        this.columns = Arrays.asList(columns);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return names of the columns, in constructor order
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the name of the mapper generated for the type, e.g. a.b.Outer_Inner_EntityMapper for a.b.Outer$Inner
+     */
+    public static String getMapperName(Class<?> type) {
+        String name = type.getName();
+        int packageEnd = name.lastIndexOf('.');
+        return name.substring(0, packageEnd + 1) + name.substring(packageEnd + 1).replace('$', '_') + "_EntityMapper";
+    }
+}
@@ -0,0 +1,230 @@
+package it.richkmeli.jframework.orm.entity;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Java types mapped to JDBC, with the ResultSet getter and the PreparedStatement setter of each one.
+ * <p>
+ * Primitives use the primitive JDBC methods, so values are not boxed. Wrappers, Instant and byte[] use the helpers
+ * of this class: SQL NULL is read as null (wasNull) and null is written with setNull. Enums are stored by name.
+ */
+public class JdbcTypes {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    // reader (ResultSet, String)X and setter (PreparedStatement, int, X)void of each type
+    private static final Map<Class<?>, MethodHandle> READERS = new HashMap<>();
+    private static final Map<Class<?>, MethodHandle> SETTERS = new HashMap<>();
+    private static final Map<Class<?>, Integer> SQL_TYPES = new HashMap<>();
+
+    static {
+        try {
+            addJdbc(String.class, "String", Types.VARCHAR);
+            addJdbc(boolean.class, "Boolean", Types.BOOLEAN);
+            addJdbc(int.class, "Int", Types.INTEGER);
+            addJdbc(long.class, "Long", Types.BIGINT);
+            addJdbc(double.class, "Double", Types.DOUBLE);
+            addJdbc(float.class, "Float", Types.REAL);
+            addJdbc(short.class, "Short", Types.SMALLINT);
+            addJdbc(BigDecimal.class, "BigDecimal", Types.DECIMAL);
+            addJdbc(Timestamp.class, "Timestamp", Types.TIMESTAMP);
+            addHelper(Boolean.class, "BooleanObject", Types.BOOLEAN);
+            addHelper(Integer.class, "Integer", Types.INTEGER);
+            addHelper(Long.class, "LongObject", Types.BIGINT);
+            addHelper(Double.class, "DoubleObject", Types.DOUBLE);
+            addHelper(Float.class, "FloatObject", Types.REAL);
+            addHelper(Short.class, "ShortObject", Types.SMALLINT);
+            addHelper(Instant.class, "Instant", Types.TIMESTAMP);
+            addHelper(byte[].class, "Bytes", Types.VARBINARY);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static void addJdbc(Class<?> type, String name, int sqlType) throws ReflectiveOperationException {
+        READERS.put(type, LOOKUP.findVirtual(ResultSet.class, "get" + name, MethodType.methodType(type, String.class)));
+        SETTERS.put(type, LOOKUP.findVirtual(PreparedStatement.class, "set" + name, MethodType.methodType(void.class, int.class, type)));
+        SQL_TYPES.put(type, sqlType);
+    }
+
+    private static void addHelper(Class<?> type, String name, int sqlType) throws ReflectiveOperationException {
+        READERS.put(type, LOOKUP.findStatic(JdbcTypes.class, "get" + name, MethodType.methodType(type, ResultSet.class, String.class)));
+        SETTERS.put(type, LOOKUP.findStatic(JdbcTypes.class, "set" + name, MethodType.methodType(void.class, PreparedStatement.class, int.class, type)));
+        SQL_TYPES.put(type, sqlType);
+    }
+
+    public static boolean isMapped(Class<?> type) {
+        return READERS.containsKey(type) || type.isEnum();
+    }
+
+    /**
+     * @return the java.sql.Types of the type, or Types.OTHER if it is not mapped
+     */
+    public static int getSqlType(Class<?> type) {
+        if (type.isEnum()) {
+            return Types.VARCHAR;
+        }
+        Integer sqlType = SQL_TYPES.get(type);
+        return sqlType != null ? sqlType : Types.OTHER;
+    }
+
+    /**
+     * @return (ResultSet, String)type handle reading a column by label, or null if the type is not mapped
+     */
+    public static MethodHandle getReader(Class<?> type) throws ReflectiveOperationException {
+        if (type.isEnum()) {
+            MethodHandle reader = LOOKUP.findStatic(JdbcTypes.class, "getEnum", MethodType.methodType(Enum.class, ResultSet.class, String.class, Class.class));
+            return MethodHandles.insertArguments(reader, 2, type).asType(MethodType.methodType(type, ResultSet.class, String.class));
+        }
+        return READERS.get(type);
+    }
+
+    /**
+     * @return (PreparedStatement, int, type)void handle setting a parameter, or null if the type is not mapped
+     */
+    public static MethodHandle getSetter(Class<?> type) throws ReflectiveOperationException {
+        if (type.isEnum()) {
+            return LOOKUP.findStatic(JdbcTypes.class, "setEnum", MethodType.methodType(void.class, PreparedStatement.class, int.class, Enum.class))
+                    .asType(MethodType.methodType(void.class, PreparedStatement.class, int.class, type));
+        }
+        return SETTERS.get(type);
+    }
+
+    /**
+     * Converts a value to the object passed to PreparedStatement.setObject, e.g. for the values of a Query.
+     */
+    public static Object toJdbcValue(Object value) {
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        } else if (value instanceof Instant) {
+            return Timestamp.from((Instant) value);
+        }
+        return value;
+    }
+
+    public static Boolean getBooleanObject(ResultSet resultSet, String column) throws SQLException {
+        boolean value = resultSet.getBoolean(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public static void setBooleanObject(PreparedStatement preparedStatement, int parameterIndex, Boolean value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.BOOLEAN);
+        } else {
+            preparedStatement.setBoolean(parameterIndex, value);
+        }
+    }
+
+    public static Integer getInteger(ResultSet resultSet, String column) throws SQLException {
+        int value = resultSet.getInt(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public static void setInteger(PreparedStatement preparedStatement, int parameterIndex, Integer value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.INTEGER);
+        } else {
+            preparedStatement.setInt(parameterIndex, value);
+        }
+    }
+
+    public static Long getLongObject(ResultSet resultSet, String column) throws SQLException {
+        long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public static void setLongObject(PreparedStatement preparedStatement, int parameterIndex, Long value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.BIGINT);
+        } else {
+            preparedStatement.setLong(parameterIndex, value);
+        }
+    }
+
+    public static Double getDoubleObject(ResultSet resultSet, String column) throws SQLException {
+        double value = resultSet.getDouble(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public static void setDoubleObject(PreparedStatement preparedStatement, int parameterIndex, Double value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.DOUBLE);
+        } else {
+            preparedStatement.setDouble(parameterIndex, value);
+        }
+    }
+
+    public static Float getFloatObject(ResultSet resultSet, String column) throws SQLException {
+        float value = resultSet.getFloat(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public static void setFloatObject(PreparedStatement preparedStatement, int parameterIndex, Float value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.REAL);
+        } else {
+            preparedStatement.setFloat(parameterIndex, value);
+        }
+    }
+
+    public static Short getShortObject(ResultSet resultSet, String column) throws SQLException {
+        short value = resultSet.getShort(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public static void setShortObject(PreparedStatement preparedStatement, int parameterIndex, Short value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.SMALLINT);
+        } else {
+            preparedStatement.setShort(parameterIndex, value);
+        }
+    }
+
+    public static Instant getInstant(ResultSet resultSet, String column) throws SQLException {
+        Timestamp value = resultSet.getTimestamp(column);
+        return value != null ? value.toInstant() : null;
+    }
+
+    public static void setInstant(PreparedStatement preparedStatement, int parameterIndex, Instant value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.TIMESTAMP);
+        } else {
+            preparedStatement.setTimestamp(parameterIndex, Timestamp.from(value));
+        }
+    }
+
+    public static byte[] getBytes(ResultSet resultSet, String column) throws SQLException {
+        return resultSet.getBytes(column);
+    }
+
+    public static void setBytes(PreparedStatement preparedStatement, int parameterIndex, byte[] value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.VARBINARY);
+        } else {
+            preparedStatement.setBytes(parameterIndex, value);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Enum<?> getEnum(ResultSet resultSet, String column, Class type) throws SQLException {
+        String value = resultSet.getString(column);
+        return value != null ? Enum.valueOf(type, value) : null;
+    }
+
+    public static void setEnum(PreparedStatement preparedStatement, int parameterIndex, Enum<?> value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(parameterIndex, Types.VARCHAR);
+        } else {
+            preparedStatement.setString(parameterIndex, value.name());
+        }
+    }
+}
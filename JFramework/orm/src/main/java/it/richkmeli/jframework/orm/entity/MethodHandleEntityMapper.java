@@ -0,0 +1,160 @@
+package it.richkmeli.jframework.orm.entity;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.util.log.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * {@link EntityMapper} built from method handles, once per entity class.
+ * <p>
+ * The row mapper is a single handle (ResultSet)T: each constructor parameter is filtered by the ResultSet getter
+ * of its column, so no intermediate List or Object[] is allocated per row. Binders are (PreparedStatement, int, Object)void
+ * handles composing the entity getter with the matching PreparedStatement setter.
+ */
+public class MethodHandleEntityMapper<T> implements EntityMapper<T> {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType BINDER_TYPE = MethodType.methodType(void.class, PreparedStatement.class, int.class, Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType READER_TYPE = MethodType.methodType(Object.class, ResultSet.class);
+
+    private final EntityMetadata<T> metadata;
+    private final MethodHandle rowMapper;
+    private final MethodHandle constructor;
+    private final MethodHandle[] binders;
+    private final MethodHandle[] getters;
+    // (ResultSet)Object of each column, for projections
+    private final MethodHandle[] readers;
+    private final Object[] defaults;
+
+    public MethodHandleEntityMapper(EntityMetadata<T> metadata) throws DatabaseException {
+        this.metadata = metadata;
+        List<ColumnMetadata> columns = metadata.getColumns();
+        this.binders = new MethodHandle[columns.size()];
+        this.getters = new MethodHandle[columns.size()];
+        this.readers = new MethodHandle[columns.size()];
+        this.defaults = new Object[columns.size()];
+        try {
+            MethodHandle[] readers = new MethodHandle[columns.size()];
+            for (ColumnMetadata column : columns) {
+                MethodHandle getter = LOOKUP.unreflect(column.getGetter());
+                getters[column.getIndex()] = getter.asType(GETTER_TYPE);
+                binders[column.getIndex()] = createBinder(column, getter);
+                readers[column.getIndex()] = createReader(column);
+                this.readers[column.getIndex()] = readers[column.getIndex()].asType(READER_TYPE);
+                defaults[column.getIndex()] = defaultValue(column.getType());
+            }
+
+            MethodHandle constructor = LOOKUP.unreflectConstructor(metadata.getConstructor());
+            // (ResultSet, ResultSet, ...)T -> (ResultSet)Object
+            MethodHandle filtered = MethodHandles.filterArguments(constructor, 0, readers);
+            this.rowMapper = MethodHandles.permuteArguments(filtered,
+                    MethodType.methodType(metadata.getType(), ResultSet.class), new int[columns.size()])
+                    .asType(MethodType.methodType(Object.class, ResultSet.class));
+            this.constructor = constructor.asSpreader(Object[].class, columns.size())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new DatabaseException("ORM, MethodHandle: error creating mapper of " + metadata.getType().getName(), e);
+        }
+    }
+
+    private static MethodHandle createReader(ColumnMetadata column) throws ReflectiveOperationException {
+        Class<?> type = column.getType();
+        MethodHandle reader = JdbcTypes.getReader(type);
+        if (reader == null) {
+            Logger.error("ORM, MethodHandle: type not mapped, type: " + column.getTypeName());
+            return MethodHandles.dropArguments(MethodHandles.constant(type, defaultValue(type)), 0, ResultSet.class);
+        }
+        return MethodHandles.insertArguments(reader, 1, column.getName());
+    }
+
+    private static MethodHandle createBinder(ColumnMetadata column, MethodHandle getter) throws ReflectiveOperationException {
+        Class<?> type = column.getType();
+        MethodHandle setter = JdbcTypes.getSetter(type);
+        if (setter == null) {
+            Logger.error("ORM, MethodHandle: type not mapped, type: " + column.getTypeName());
+            return MethodHandles.dropArguments(LOOKUP.findStatic(MethodHandleEntityMapper.class, "skip", MethodType.methodType(void.class)),
+                    0, BINDER_TYPE.parameterList());
+        }
+        // the getter returns the declared type: primitives go to the primitive setter without boxing
+        MethodHandle value = getter.asType(MethodType.methodType(type, Object.class));
+        return MethodHandles.filterArguments(setter, 2, value).asType(BINDER_TYPE);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        // null for references, zero for primitives
+        return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    private static void skip() {
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T map(ResultSet resultSet) throws SQLException, DatabaseException {
+        try {
+            return (T) (Object) rowMapper.invokeExact(resultSet);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new DatabaseException("ORM, MethodHandle: error creating instance of " + metadata.getType().getName(), (Exception) throwable);
+        }
+    }
+
+    @Override
+    public T map(ResultSet resultSet, BitSet columns) throws SQLException, DatabaseException {
+        Object[] values = defaults.clone();
+        try {
+            for (int column = columns.nextSetBit(0); column >= 0; column = columns.nextSetBit(column + 1)) {
+                values[column] = readers[column].invokeExact(resultSet);
+            }
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new DatabaseException("ORM, MethodHandle: error creating instance of " + metadata.getType().getName(), (Exception) throwable);
+        }
+        return newInstance(values);
+    }
+
+    @Override
+    public void bind(PreparedStatement preparedStatement, int parameterIndex, T entity, int column) throws SQLException, DatabaseException {
+        try {
+            binders[column].invokeExact(preparedStatement, parameterIndex, (Object) entity);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new DatabaseException("ORM, MethodHandle: error invoking getter", (Exception) throwable);
+        }
+    }
+
+    @Override
+    public Object get(T entity, int column) throws DatabaseException {
+        try {
+            return getters[column].invokeExact((Object) entity);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new DatabaseException("ORM, MethodHandle: error invoking getter", (Exception) throwable);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T newInstance(Object[] values) throws DatabaseException {
+        try {
+            return (T) (Object) constructor.invokeExact(values);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new DatabaseException("ORM, MethodHandle: error creating instance of " + metadata.getType().getName(), (Exception) throwable);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package it.richkmeli.jframework.orm.entity;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.annotation.FetchType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * A relationship field of an entity ({@link it.richkmeli.jframework.orm.annotation.ManyToOne} or
+ * {@link it.richkmeli.jframework.orm.annotation.OneToMany}), resolved once by {@link EntityMetadata}.
+ */
+public class RelationMetadata {
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Field field;
+    private final Class<?> targetType;
+    private final boolean toMany;
+    private final String column;
+    private final String table;
+    private final FetchType fetch;
+    private final MethodHandle setter;
+
+    RelationMetadata(Field field, Class<?> targetType, boolean toMany, String column, String table, FetchType fetch) throws DatabaseException {
+        this.field = field;
+        this.targetType = targetType;
+        this.toMany = toMany;
+        this.column = column;
+        this.table = table;
+        this.fetch = fetch;
+        try {
+            // relationship fields are transient and have no constructor parameter
+            field.setAccessible(true);
+            this.setter = MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new DatabaseException("ORM, Reflection: field '" + field.getName() + "' not writable", e);
+        }
+    }
+
+    public String getName() {
+        return field.getName();
+    }
+
+    public Class<?> getTargetType() {
+        return targetType;
+    }
+
+    /**
+     * @return true for OneToMany, the field is a List of the target type
+     */
+    public boolean isToMany() {
+        return toMany;
+    }
+
+    /**
+     * @return for ManyToOne the field of this entity, for OneToMany the field of the target entity
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public FetchType getFetch() {
+        return fetch;
+    }
+
+    public void set(Object entity, Object value) throws DatabaseException {
+        try {
+            setter.invokeExact(entity, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new DatabaseException("ORM, MethodHandle: error setting " + field.getName(), (Exception) throwable);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package it.richkmeli.jframework.orm.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Latency of the statements sent to a datasource, per table and operation: time to get the connection, time to
+ * execute the statement and map its rows, rows mapped or written. It is shared by all the DatabaseManager instances
+ * of the same datasource.
+ */
+public class QueryMetrics {
+    private static final Map<String, QueryMetrics> METRICS = new ConcurrentHashMap<>();
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+
+    public enum Operation {
+        CREATE, READ, READ_ALL, QUERY, STREAM, EXISTS, UPDATE, UPSERT, DELETE, BATCH_CREATE, BATCH_UPDATE, BATCH_DELETE
+    }
+
+    private final String name;
+    // counters of each operation of a table, by ordinal
+    private final Map<String, Counters[]> tables = new ConcurrentHashMap<>();
+
+    private static class Counters {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong slow = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final LatencyHistogram acquire = new LatencyHistogram();
+        private final LatencyHistogram execution = new LatencyHistogram();
+    }
+
+    public static QueryMetrics getInstance(String name) {
+        return METRICS.computeIfAbsent(name, QueryMetrics::new);
+    }
+
+    public static Collection<QueryMetrics> getInstances() {
+        return new ArrayList<>(METRICS.values());
+    }
+
+    private QueryMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(String table, Operation operation, long acquireNanos, long executionNanos, long rows, boolean failed, boolean slow) {
+        Counters counters = tables.computeIfAbsent(table, key -> {
+            Counters[] operations = new Counters[OPERATIONS.length];
+            for (int i = 0; i < operations.length; i++) {
+                operations[i] = new Counters();
+            }
+            return operations;
+        })[operation.ordinal()];
+        counters.count.incrementAndGet();
+        if (failed) {
+            counters.errors.incrementAndGet();
+        }
+        if (slow) {
+            counters.slow.incrementAndGet();
+        }
+        counters.rows.addAndGet(rows);
+        counters.acquire.record(acquireNanos);
+        counters.execution.record(executionNanos);
+    }
+
+    /**
+     * @return the operations executed at least once, by table
+     */
+    public List<QueryStatistics> getStatistics() {
+        List<QueryStatistics> statistics = new ArrayList<>();
+        for (String table : tables.keySet()) {
+            for (Operation operation : OPERATIONS) {
+                QueryStatistics operationStatistics = getStatistics(table, operation);
+                if (operationStatistics != null) {
+                    statistics.add(operationStatistics);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the statistics of the operation on the table, or null if it was never executed
+     */
+    public QueryStatistics getStatistics(String table, Operation operation) {
+        Counters[] operations = tables.get(table);
+        if (operations == null || operations[operation.ordinal()].count.get() == 0) {
+            return null;
+        }
+        Counters counters = operations[operation.ordinal()];
+        return new QueryStatistics(table, operation, counters.count.get(), counters.errors.get(), counters.slow.get(),
+                counters.rows.get(), counters.acquire.getStatistics(), counters.execution.getStatistics());
+    }
+
+    public void reset() {
+        tables.clear();
+    }
+
+    /**
+     * Shape of a statement for the logs: string and number literals become ? and lists of parameters become "?, ...",
+     * so values never reach the logs and statements differing only by the size of an IN list look the same.
+     */
+    public static String getShape(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        return PARAMETER_LIST.matcher(shape).replaceAll("?, ...");
+    }
+}
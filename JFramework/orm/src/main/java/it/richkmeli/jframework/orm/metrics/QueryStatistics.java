@@ -0,0 +1,85 @@
+package it.richkmeli.jframework.orm.metrics;
+
+/**
+ * Point-in-time snapshot of an operation on a table, from {@link QueryMetrics}.
+ */
+public class QueryStatistics {
+    private final String table;
+    private final QueryMetrics.Operation operation;
+    private final long count;
+    private final long errors;
+    private final long slow;
+    private final long rows;
+    private final LatencyStatistics acquire;
+    private final LatencyStatistics execution;
+
+    public QueryStatistics(String table, QueryMetrics.Operation operation, long count, long errors, long slow, long rows,
+                           LatencyStatistics acquire, LatencyStatistics execution) {
+        this.table = table;
+        this.operation = operation;
+        this.count = count;
+        this.errors = errors;
+        this.slow = slow;
+        this.rows = rows;
+        this.acquire = acquire;
+        this.execution = execution;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public QueryMetrics.Operation getOperation() {
+        return operation;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return executions longer than the slow query threshold
+     */
+    public long getSlow() {
+        return slow;
+    }
+
+    /**
+     * @return rows mapped by reads, rows sent by writes
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return time waited for a connection
+     */
+    public LatencyStatistics getAcquire() {
+        return acquire;
+    }
+
+    /**
+     * @return time from the connection to the last row mapped, or to the end of the write
+     */
+    public LatencyStatistics getExecution() {
+        return execution;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStatistics{" +
+                "table='" + table + '\'' +
+                ", operation=" + operation +
+                ", count=" + count +
+                ", errors=" + errors +
+                ", slow=" + slow +
+                ", rows=" + rows +
+                ", acquire=" + acquire +
+                ", execution=" + execution +
+                '}';
+    }
+}
@@ -0,0 +1,344 @@
+package it.richkmeli.jframework.orm.pool;
+
+import it.richkmeli.jframework.util.log.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded JDBC connection pool. One pool is shared by every DatabaseManager pointing to the same url and user,
+ * so managers built per request or per session reuse the same physical connections.
+ * <p>
+ * Connections are handed out as proxies: calling close() returns the physical connection to the pool.
+ */
+public class ConnectionPool {
+    private static final Map<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService housekeeper;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final PoolConfiguration configuration;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrowedCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong acquireNanos = new AtomicLong();
+    private final ScheduledFuture<?> housekeeping;
+    private volatile boolean closed = false;
+
+    private ConnectionPool(String url, String username, String password, PoolConfiguration configuration) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.configuration = configuration;
+        this.permits = new Semaphore(configuration.getMaxSize(), true);
+        this.housekeeping = getHousekeeper().scheduleWithFixedDelay(this::housekeeping,
+                0, configuration.getHousekeepingInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The pool of url and user, created with the given configuration if there is none. An existing pool keeps its own
+     * configuration; it is not handed out for a different password.
+     */
+    public static ConnectionPool getInstance(String url, String username, String password, PoolConfiguration configuration) {
+        ConnectionPool pool = POOLS.computeIfAbsent(url + "|" + username,
+                key -> new ConnectionPool(url, username, password, configuration));
+        if (!Objects.equals(pool.password, password)) {
+            throw new IllegalStateException("ConnectionPool, " + url + " is already pooled for " + username + " with another password");
+        }
+        if (!pool.configuration.equals(configuration)) {
+            Logger.warning("ConnectionPool, " + url + " is already pooled for " + username + " with another configuration, which is kept");
+        }
+        return pool;
+    }
+
+    public static Collection<ConnectionPool> getInstances() {
+        return new ArrayList<>(POOLS.values());
+    }
+
+    public static void closeAll() {
+        for (ConnectionPool pool : getInstances()) {
+            pool.close();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getHousekeeper() {
+        if (housekeeper == null) {
+            housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "jframework-orm-pool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return housekeeper;
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("ConnectionPool, pool is closed: " + url);
+        }
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(configuration.getAcquireTimeout(), TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLTimeoutException("ConnectionPool, no connection available after " +
+                        configuration.getAcquireTimeout() + "ms. Statistics: " + getStatistics());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("ConnectionPool, interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        try {
+            // LIFO: the most recently returned connection is the most likely to be still valid
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isValid(pooled)) {
+                    break;
+                }
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            Lease lease = new Lease(pooled, configuration.getLeakDetectionThreshold() > 0 ? new Throwable("Connection borrowed here") : null);
+            leases.add(lease);
+            borrowedCount.incrementAndGet();
+            acquireNanos.addAndGet(System.nanoTime() - start);
+            return lease.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, username, password);
+        total.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PooledConnection(connection);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        total.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            Logger.error("ConnectionPool, destroy", e);
+        }
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        // skip the round trip for connections used a moment ago
+        if (System.currentTimeMillis() - pooled.lastUsed < configuration.getValidationInterval()) {
+            return true;
+        }
+        try {
+            if (configuration.getValidationQuery() == null) {
+                return pooled.connection.isValid((int) Math.max(1, configuration.getAcquireTimeout() / 1000));
+            }
+            try (Statement statement = pooled.connection.createStatement()) {
+                statement.execute(configuration.getValidationQuery());
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Lease lease) {
+        if (!leases.remove(lease)) {
+            return;
+        }
+        PooledConnection pooled = lease.pooled;
+        try {
+            Connection connection = pooled.connection;
+            if (connection.isClosed()) {
+                total.decrementAndGet();
+                destroyedCount.incrementAndGet();
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            connection.clearWarnings();
+            if (closed) {
+                destroy(pooled);
+            } else {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void housekeeping() {
+        try {
+            long now = System.currentTimeMillis();
+            // idle eviction, keeping at least minSize connections
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext() && total.get() > configuration.getMinSize()) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsed > configuration.getIdleTimeout() && idle.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+            // fill up to minSize
+            while (!closed && total.get() < configuration.getMinSize()) {
+                PooledConnection pooled = create();
+                idle.offerLast(pooled);
+            }
+            // leak detection
+            if (configuration.getLeakDetectionThreshold() > 0) {
+                for (Lease lease : leases) {
+                    if (!lease.leakReported && now - lease.borrowedAt > configuration.getLeakDetectionThreshold()) {
+                        lease.leakReported = true;
+                        leakCount.incrementAndGet();
+                        Logger.warning("ConnectionPool, connection not returned after " + (now - lease.borrowedAt) +
+                                "ms, possible leak. " + formatTrace(lease.trace));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            Logger.error("ConnectionPool, housekeeping", e);
+        } catch (RuntimeException e) {
+            Logger.error("ConnectionPool, housekeeping", e);
+        }
+    }
+
+    private static String formatTrace(Throwable trace) {
+        StringBuilder stringBuilder = new StringBuilder(trace.getMessage());
+        for (StackTraceElement element : trace.getStackTrace()) {
+            if (!element.getClassName().startsWith(ConnectionPool.class.getName())) {
+                stringBuilder.append(" <- ").append(element);
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+    public PoolStatistics getStatistics() {
+        long borrowed = borrowedCount.get();
+        return new PoolStatistics(total.get(), leases.size(), idle.size(), waiting.get(), borrowed,
+                createdCount.get(), destroyedCount.get(), timeoutCount.get(), leakCount.get(),
+                borrowed == 0 ? 0 : acquireNanos.get() / borrowed / 1000);
+    }
+
+    public PoolConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        closed = true;
+        housekeeping.cancel(false);
+        POOLS.remove(url + "|" + username, this);
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private static class PooledConnection {
+        private final Connection connection;
+        private volatile long lastUsed;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A single borrow of a pooled connection. A new proxy is created for each borrow, so a stale reference
+     * closed twice cannot give back a connection that is already used by someone else.
+     */
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Connection proxy;
+        private final long borrowedAt = System.currentTimeMillis();
+        private final Throwable trace;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private volatile boolean leakReported = false;
+
+        private Lease(PooledConnection pooled, Throwable trace) {
+            this.pooled = pooled;
+            this.trace = trace;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (released.compareAndSet(false, true)) {
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return released.get() || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.connection + "]";
+                default:
+                    if (released.get()) {
+                        throw new SQLException("ConnectionPool, connection already returned to the pool");
+                    }
+                    try {
+                        return method.invoke(pooled.connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package it.richkmeli.jframework.orm.pool;
+
+import java.util.Objects;
+import java.util.ResourceBundle;
+
+/**
+ * Connection pool settings, read from "database.&lt;name&gt;.pool.*" keys of configuration.properties.
+ * Missing keys keep their default value.
+ */
+public class PoolConfiguration {
+    private int minSize = 1;
+    private int maxSize = 10;
+    private long acquireTimeout = 30000;
+    private long idleTimeout = 600000;
+    private long validationInterval = 5000;
+    private String validationQuery = null;
+    private long leakDetectionThreshold = 0;
+    private long housekeepingInterval = 30000;
+
+    public PoolConfiguration() {
+    }
+
+    public static PoolConfiguration fromResource(ResourceBundle resource, String database) {
+        PoolConfiguration configuration = new PoolConfiguration();
+        String prefix = "database." + database + ".pool.";
+
+        configuration.setMinSize(getInt(resource, prefix + "minSize", configuration.getMinSize()));
+        configuration.setMaxSize(getInt(resource, prefix + "maxSize", configuration.getMaxSize()));
+        configuration.setAcquireTimeout(getLong(resource, prefix + "acquireTimeout", configuration.getAcquireTimeout()));
+        configuration.setIdleTimeout(getLong(resource, prefix + "idleTimeout", configuration.getIdleTimeout()));
+        configuration.setValidationInterval(getLong(resource, prefix + "validationInterval", configuration.getValidationInterval()));
+        configuration.setLeakDetectionThreshold(getLong(resource, prefix + "leakDetectionThreshold", configuration.getLeakDetectionThreshold()));
+        configuration.setHousekeepingInterval(getLong(resource, prefix + "housekeepingInterval", configuration.getHousekeepingInterval()));
+        if (resource.containsKey(prefix + "validationQuery")) {
+            configuration.setValidationQuery(resource.getString(prefix + "validationQuery"));
+        }
+        return configuration;
+    }
+
+    private static int getInt(ResourceBundle resource, String key, int defaultValue) {
+        return resource.containsKey(key) ? Integer.parseInt(resource.getString(key).trim()) : defaultValue;
+    }
+
+    private static long getLong(ResourceBundle resource, String key, long defaultValue) {
+        return resource.containsKey(key) ? Long.parseLong(resource.getString(key).trim()) : defaultValue;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    public long getHousekeepingInterval() {
+        return housekeepingInterval;
+    }
+
+    public void setHousekeepingInterval(long housekeepingInterval) {
+        this.housekeepingInterval = housekeepingInterval;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PoolConfiguration)) {
+            return false;
+        }
+        PoolConfiguration that = (PoolConfiguration) o;
+        return minSize == that.minSize &&
+                maxSize == that.maxSize &&
+                acquireTimeout == that.acquireTimeout &&
+                idleTimeout == that.idleTimeout &&
+                validationInterval == that.validationInterval &&
+                leakDetectionThreshold == that.leakDetectionThreshold &&
+                housekeepingInterval == that.housekeepingInterval &&
+                Objects.equals(validationQuery, that.validationQuery);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minSize, maxSize, acquireTimeout, idleTimeout, validationInterval, validationQuery,
+                leakDetectionThreshold, housekeepingInterval);
+    }
+}
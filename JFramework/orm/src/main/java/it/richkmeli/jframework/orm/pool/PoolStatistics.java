@@ -0,0 +1,86 @@
+package it.richkmeli.jframework.orm.pool;
+
+/**
+ * Point-in-time snapshot of a {@link ConnectionPool}.
+ */
+public class PoolStatistics {
+    private final int total;
+    private final int active;
+    private final int idle;
+    private final int waiting;
+    private final long borrowed;
+    private final long created;
+    private final long destroyed;
+    private final long timeouts;
+    private final long leaks;
+    private final long averageAcquireMicros;
+
+    public PoolStatistics(int total, int active, int idle, int waiting, long borrowed, long created, long destroyed,
+                          long timeouts, long leaks, long averageAcquireMicros) {
+        this.total = total;
+        this.active = active;
+        this.idle = idle;
+        this.waiting = waiting;
+        this.borrowed = borrowed;
+        this.created = created;
+        this.destroyed = destroyed;
+        this.timeouts = timeouts;
+        this.leaks = leaks;
+        this.averageAcquireMicros = averageAcquireMicros;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public long getBorrowed() {
+        return borrowed;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getDestroyed() {
+        return destroyed;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getLeaks() {
+        return leaks;
+    }
+
+    public long getAverageAcquireMicros() {
+        return averageAcquireMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "{total=" + total +
+                ", active=" + active +
+                ", idle=" + idle +
+                ", waiting=" + waiting +
+                ", borrowed=" + borrowed +
+                ", created=" + created +
+                ", destroyed=" + destroyed +
+                ", timeouts=" + timeouts +
+                ", leaks=" + leaks +
+                ", averageAcquireMicros=" + averageAcquireMicros +
+                "}";
+    }
+}
@@ -0,0 +1,70 @@
+package it.richkmeli.jframework.orm.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the read replica of a datasource for each read. One router is shared by every DatabaseManager with the
+ * same replicas, so the round-robin sequence is global.
+ */
+public class ReplicaRouter {
+    private static final Map<String, ReplicaRouter> ROUTERS = new ConcurrentHashMap<>();
+
+    public enum Selection {
+        ROUND_ROBIN,
+        // fewest connections in use or waited for
+        LEAST_LOADED
+    }
+
+    private final List<ConnectionPool> replicas;
+    private final Selection selection;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public static ReplicaRouter getInstance(List<ConnectionPool> replicas, Selection selection) {
+        StringBuilder key = new StringBuilder(selection.name());
+        for (ConnectionPool replica : replicas) {
+            key.append("|").append(replica.getUrl());
+        }
+        return ROUTERS.computeIfAbsent(key.toString(), k -> new ReplicaRouter(replicas, selection));
+    }
+
+    private ReplicaRouter(List<ConnectionPool> replicas, Selection selection) {
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.selection = selection;
+    }
+
+    public List<ConnectionPool> getReplicas() {
+        return replicas;
+    }
+
+    public Selection getSelection() {
+        return selection;
+    }
+
+    public ConnectionPool select() {
+        if (replicas.size() == 1) {
+            return replicas.get(0);
+        }
+        if (selection == Selection.LEAST_LOADED) {
+            ConnectionPool selected = null;
+            int minLoad = Integer.MAX_VALUE;
+            // ties go round-robin
+            int start = next.getAndIncrement();
+            for (int i = 0; i < replicas.size(); i++) {
+                ConnectionPool replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+                PoolStatistics statistics = replica.getStatistics();
+                int load = statistics.getActive() + statistics.getWaiting();
+                if (load < minLoad) {
+                    minLoad = load;
+                    selected = replica;
+                }
+            }
+            return selected;
+        }
+        return replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+    }
+}
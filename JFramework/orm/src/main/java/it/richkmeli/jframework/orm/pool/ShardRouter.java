@@ -0,0 +1,73 @@
+package it.richkmeli.jframework.orm.pool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consistent hash ring of the shards of a datasource: an entity belongs to the first shard after the hash of its
+ * primary key values. Each shard is placed on the ring many times (virtual nodes), by its url, so adding a shard moves
+ * only about 1/N of the keys, all to the new one, and the order of the shards in the configuration does not matter.
+ */
+public class ShardRouter {
+    private static final Map<String, ShardRouter> ROUTERS = new ConcurrentHashMap<>();
+    private static final int VIRTUAL_NODES = 128;
+
+    private final List<ConnectionPool> shards;
+    private final TreeMap<Long, ConnectionPool> ring = new TreeMap<>();
+
+    public static ShardRouter getInstance(List<ConnectionPool> shards) {
+        StringBuilder key = new StringBuilder();
+        for (ConnectionPool shard : shards) {
+            key.append("|").append(shard.getUrl());
+        }
+        return ROUTERS.computeIfAbsent(key.toString(), k -> new ShardRouter(shards));
+    }
+
+    private ShardRouter(List<ConnectionPool> shards) {
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        for (ConnectionPool shard : shards) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(shard.getUrl() + "#" + i), shard);
+            }
+        }
+    }
+
+    public List<ConnectionPool> getShards() {
+        return shards;
+    }
+
+    /**
+     * @param primaryKey values of the primary key columns, in column order
+     */
+    public ConnectionPool getShard(List<Object> primaryKey) {
+        StringBuilder key = new StringBuilder();
+        for (Object value : primaryKey) {
+            key.append(value instanceof Enum ? ((Enum<?>) value).name() : String.valueOf(value)).append('\u0000');
+        }
+        SortedMap<Long, ConnectionPool> tail = ring.tailMap(hash(key.toString()));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    private static long hash(String key) {
+        try {
+            // not for security: MD5 spreads similar keys (e.g. sequential names) uniformly on the ring
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is required on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
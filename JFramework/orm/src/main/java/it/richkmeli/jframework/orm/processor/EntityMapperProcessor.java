@@ -0,0 +1,375 @@
+package it.richkmeli.jframework.orm.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a {@link it.richkmeli.jframework.orm.entity.GeneratedEntityMapper} for each class with an
+ * {@link it.richkmeli.jframework.orm.annotation.Id} field, in its package: e.g. User_EntityMapper for User.
+ * <p>
+ * It follows the rules of {@link it.richkmeli.jframework.orm.entity.EntityMetadata}: non static, non transient
+ * declared fields in declaration order, a public getter for each one and a public constructor taking all of them.
+ * Classes it cannot map without reflection (private, generic, types not in JdbcTypes) are reported as a note and
+ * keep the reflection mapper.
+ * <p>
+ * It is registered in META-INF/services, so it runs in the modules compiled with the orm jar on the classpath.
+ */
+@SupportedAnnotationTypes("it.richkmeli.jframework.orm.annotation.Id")
+public class EntityMapperProcessor extends AbstractProcessor {
+    private static final String JDBC_TYPES = "it.richkmeli.jframework.orm.entity.JdbcTypes";
+    // ResultSet getter (or JdbcTypes helper) of each type, the PreparedStatement setter has the same suffix
+    private static final Map<String, String> JDBC = new HashMap<>();
+    private static final Map<String, String> HELPERS = new HashMap<>();
+    private static final Map<TypeKind, String> DEFAULTS = new HashMap<>();
+
+    static {
+        JDBC.put("java.lang.String", "String");
+        JDBC.put("boolean", "Boolean");
+        JDBC.put("int", "Int");
+        JDBC.put("long", "Long");
+        JDBC.put("double", "Double");
+        JDBC.put("float", "Float");
+        JDBC.put("short", "Short");
+        JDBC.put("java.math.BigDecimal", "BigDecimal");
+        JDBC.put("java.sql.Timestamp", "Timestamp");
+        HELPERS.put("java.lang.Boolean", "BooleanObject");
+        HELPERS.put("java.lang.Integer", "Integer");
+        HELPERS.put("java.lang.Long", "LongObject");
+        HELPERS.put("java.lang.Double", "DoubleObject");
+        HELPERS.put("java.lang.Float", "FloatObject");
+        HELPERS.put("java.lang.Short", "ShortObject");
+        HELPERS.put("java.time.Instant", "Instant");
+        HELPERS.put("byte[]", "Bytes");
+        DEFAULTS.put(TypeKind.BOOLEAN, "false");
+        DEFAULTS.put(TypeKind.INT, "0");
+        DEFAULTS.put(TypeKind.LONG, "0L");
+        DEFAULTS.put(TypeKind.DOUBLE, "0D");
+        DEFAULTS.put(TypeKind.FLOAT, "0F");
+        DEFAULTS.put(TypeKind.SHORT, "(short) 0");
+    }
+
+    // classes already written, in this or a previous round
+    private final Set<String> generated = new HashSet<>();
+    // the constructor of the current entity declares checked exceptions, e.g. validation ones
+    private boolean checked;
+
+    private static class Column {
+        private final String name;
+        private final String type;
+        private final TypeKind kind;
+        private final String getter;
+        private final String read;
+        private final String write;
+
+        private Column(String name, String type, TypeKind kind, String getter, String read, String write) {
+            this.name = name;
+            this.type = type;
+            this.kind = kind;
+            this.getter = getter;
+            this.read = read;
+            this.write = write;
+        }
+    }
+
+    /**
+     * Thrown when an entity cannot be mapped without reflection.
+     */
+    private static class NotMappableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private NotMappableException(String message) {
+            super(message);
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> entities = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.FIELD && element.getEnclosingElement() instanceof TypeElement) {
+                    entities.add((TypeElement) element.getEnclosingElement());
+                }
+            }
+        }
+        for (TypeElement entity : entities) {
+            String mapperName = getMapperName(entity);
+            if (!generated.add(mapperName)) {
+                continue;
+            }
+            try {
+                write(entity, mapperName, getColumns(entity));
+            } catch (NotMappableException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "ORM, mapper of " + entity.getQualifiedName() + " not generated, it uses reflection: " + e.getMessage(), entity);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "ORM, error writing " + mapperName + ": " + e.getMessage(), entity);
+            }
+        }
+        // @Id is also read at runtime by EntityMetadata
+        return false;
+    }
+
+    /**
+     * Same name as GeneratedEntityMapper.getMapperName(Class) of the compiled class.
+     */
+    private String getMapperName(TypeElement entity) {
+        String name = processingEnv.getElementUtils().getBinaryName(entity).toString();
+        int packageEnd = name.lastIndexOf('.');
+        return name.substring(0, packageEnd + 1) + name.substring(packageEnd + 1).replace('$', '_') + "_EntityMapper";
+    }
+
+    private List<Column> getColumns(TypeElement entity) throws NotMappableException {
+        checkAccessible(entity);
+        if (!entity.getTypeParameters().isEmpty()) {
+            throw new NotMappableException("generic class");
+        }
+        if (entity.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new NotMappableException("abstract class");
+        }
+
+        // public getters, also inherited, by lower case name as EntityMetadata does
+        Map<String, ExecutableElement> getters = new HashMap<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entity))) {
+            String name = method.getSimpleName().toString();
+            if (name.startsWith("get") && method.getParameters().isEmpty() && method.getModifiers().contains(Modifier.PUBLIC)) {
+                getters.putIfAbsent(name.toLowerCase(), method);
+            }
+        }
+
+        List<Column> columns = new ArrayList<>();
+        List<TypeMirror> types = new ArrayList<>();
+        checked = false;
+        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+            String name = field.getSimpleName().toString();
+            TypeMirror type = processingEnv.getTypeUtils().erasure(field.asType());
+            ExecutableElement getter = getters.get(("get" + name).toLowerCase());
+            if (getter == null) {
+                throw new NotMappableException("getter for '" + name + "' not found");
+            }
+            if (!processingEnv.getTypeUtils().isSameType(processingEnv.getTypeUtils().erasure(getter.getReturnType()), type)
+                    || !getter.getThrownTypes().isEmpty()) {
+                throw new NotMappableException("getter for '" + name + "' does not return " + type);
+            }
+            columns.add(getColumn(name, type, getter.getSimpleName().toString()));
+            types.add(type);
+        }
+        if (columns.isEmpty()) {
+            throw new NotMappableException("no persistent fields");
+        }
+
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PUBLIC) && constructor.getParameters().size() == types.size()) {
+                boolean matches = true;
+                for (int i = 0; i < types.size() && matches; i++) {
+                    matches = processingEnv.getTypeUtils().isSameType(
+                            processingEnv.getTypeUtils().erasure(constructor.getParameters().get(i).asType()), types.get(i));
+                }
+                if (matches) {
+                    checked = !constructor.getThrownTypes().isEmpty();
+                    return columns;
+                }
+            }
+        }
+        throw new NotMappableException("public constructor taking " + types + " not found");
+    }
+
+    private Column getColumn(String name, TypeMirror type, String getter) throws NotMappableException {
+        String typeName = type.toString();
+        String label = "\"" + name + "\"";
+        if (JDBC.containsKey(typeName)) {
+            return new Column(name, typeName, type.getKind(), getter,
+                    "resultSet.get" + JDBC.get(typeName) + "(" + label + ")",
+                    "preparedStatement.set" + JDBC.get(typeName) + "(parameterIndex, ");
+        }
+        if (type.getKind() == TypeKind.ARRAY && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE) {
+            typeName = "byte[]";
+        }
+        if (HELPERS.containsKey(typeName)) {
+            return new Column(name, typeName, type.getKind(), getter,
+                    JDBC_TYPES + ".get" + HELPERS.get(typeName) + "(resultSet, " + label + ")",
+                    JDBC_TYPES + ".set" + HELPERS.get(typeName) + "(preparedStatement, parameterIndex, ");
+        }
+        if (type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM) {
+            checkAccessible((TypeElement) ((DeclaredType) type).asElement());
+            return new Column(name, typeName, type.getKind(), getter,
+                    "(" + typeName + ") " + JDBC_TYPES + ".getEnum(resultSet, " + label + ", " + typeName + ".class)",
+                    JDBC_TYPES + ".setEnum(preparedStatement, parameterIndex, ");
+        }
+        throw new NotMappableException("type of '" + name + "' not mapped: " + typeName);
+    }
+
+    /**
+     * The generated mapper is in the package of the entity: private classes, and inner classes that need an enclosing
+     * instance, cannot be used.
+     */
+    private static void checkAccessible(TypeElement type) throws NotMappableException {
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new NotMappableException("private class " + element.getSimpleName());
+            }
+            if (element.getEnclosingElement() instanceof TypeElement && !element.getModifiers().contains(Modifier.STATIC)
+                    && element.getKind() == ElementKind.CLASS) {
+                throw new NotMappableException("inner class " + element.getSimpleName());
+            }
+        }
+    }
+
+    private void write(TypeElement entity, String mapperName, List<Column> columns) throws IOException {
+        String type = entity.getQualifiedName().toString();
+        int packageEnd = mapperName.lastIndexOf('.');
+        StringBuilder names = new StringBuilder();
+        StringBuilder defaults = new StringBuilder();
+        for (Column column : columns) {
+            names.append(", \"").append(column.name).append('"');
+            defaults.append(defaults.length() > 0 ? ", " : "").append(DEFAULTS.getOrDefault(column.kind, "null"));
+        }
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(mapperName, entity).openWriter())) {
+            if (packageEnd > 0) {
+                out.println("package " + mapperName.substring(0, packageEnd) + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by " + EntityMapperProcessor.class.getName() + " from " + type + ", do not edit.");
+            out.println(" */");
+            out.println("public final class " + mapperName.substring(packageEnd + 1)
+                    + " extends it.richkmeli.jframework.orm.entity.GeneratedEntityMapper<" + type + "> {");
+            out.println();
+            out.println("    public " + mapperName.substring(packageEnd + 1) + "() {");
+            out.println("        super(" + type + ".class" + names + ");");
+            out.println("    }");
+            out.println();
+
+            List<String> reads = new ArrayList<>();
+            for (Column column : columns) {
+                reads.add(column.read);
+            }
+            out.println("    @Override");
+            out.println("    public " + type + " map(java.sql.ResultSet resultSet)" + throwsClause("java.sql.SQLException") + " {");
+            printNewInstance(out, type, reads, "java.sql.SQLException | RuntimeException");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public " + type + " map(java.sql.ResultSet resultSet, java.util.BitSet columns)" + throwsClause("java.sql.SQLException") + " {");
+            out.println("        Object[] values = {" + defaults + "};");
+            out.println("        for (int column = columns.nextSetBit(0); column >= 0; column = columns.nextSetBit(column + 1)) {");
+            out.println("            switch (column) {");
+            for (int i = 0; i < columns.size(); i++) {
+                out.println("                case " + i + ":");
+                out.println("                    values[" + i + "] = " + columns.get(i).read + ";");
+                out.println("                    break;");
+            }
+            out.println("                default:");
+            out.println("                    throw new IndexOutOfBoundsException(\"column \" + column);");
+            out.println("            }");
+            out.println("        }");
+            out.println("        return newInstance(values);");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void bind(java.sql.PreparedStatement preparedStatement, int parameterIndex, " + type
+                    + " entity, int column) throws java.sql.SQLException {");
+            out.println("        switch (column) {");
+            for (int i = 0; i < columns.size(); i++) {
+                out.println("            case " + i + ":");
+                out.println("                " + columns.get(i).write + "entity." + columns.get(i).getter + "());");
+                out.println("                break;");
+            }
+            out.println("            default:");
+            out.println("                throw new IndexOutOfBoundsException(\"column \" + column);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public Object get(" + type + " entity, int column) {");
+            out.println("        switch (column) {");
+            for (int i = 0; i < columns.size(); i++) {
+                out.println("            case " + i + ":");
+                out.println("                return entity." + columns.get(i).getter + "();");
+            }
+            out.println("            default:");
+            out.println("                throw new IndexOutOfBoundsException(\"column \" + column);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            List<String> casts = new ArrayList<>();
+            for (int i = 0; i < columns.size(); i++) {
+                casts.add("(" + columns.get(i).type + ") values[" + i + "]");
+            }
+            out.println("    @Override");
+            out.println("    public " + type + " newInstance(Object[] values)" + throwsClause(null) + " {");
+            printNewInstance(out, type, casts, "RuntimeException");
+            out.println("    }");
+            out.println("}");
+        } catch (FilerException e) {
+            // already written by another processor run of the same compilation
+        }
+    }
+
+    private String throwsClause(String exception) {
+        if (checked) {
+            exception = (exception != null ? exception + ", " : "") + "it.richkmeli.jframework.orm.DatabaseException";
+        }
+        return exception != null ? " throws " + exception : "";
+    }
+
+    /**
+     * Checked exceptions of the entity constructor are wrapped as the reflection mapper does, the others are rethrown.
+     */
+    private void printNewInstance(PrintWriter out, String type, List<String> arguments, String rethrown) {
+        String indent = checked ? "            " : "        ";
+        if (checked) {
+            out.println("        try {");
+        }
+        out.println(indent + "return new " + type + "(");
+        for (int i = 0; i < arguments.size(); i++) {
+            out.println(indent + "        " + arguments.get(i) + (i < arguments.size() - 1 ? "," : ");"));
+        }
+        if (checked) {
+            out.println("        } catch (" + rethrown + " e) {");
+            out.println("            throw e;");
+            out.println("        } catch (Exception e) {");
+            out.println("            throw new it.richkmeli.jframework.orm.DatabaseException(\"ORM, Generated: error creating instance of " + type + "\", e);");
+            out.println("        }");
+        }
+    }
+}
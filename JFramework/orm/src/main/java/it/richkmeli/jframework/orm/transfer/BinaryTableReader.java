@@ -0,0 +1,131 @@
+package it.richkmeli.jframework.orm.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static it.richkmeli.jframework.orm.transfer.BinaryTableWriter.*;
+
+class BinaryTableReader implements TableReader {
+    private final DataInputStream in;
+    private long row = 0;
+
+    BinaryTableReader(InputStream inputStream) {
+        this.in = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+    }
+
+    @Override
+    public List<String> readHeader() throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("BinaryTableReader, not a table export");
+        }
+        int count = in.readInt();
+        List<String> columns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            columns.add(readString());
+        }
+        return columns;
+    }
+
+    @Override
+    public Object[] readRow(Class<?>[] types) throws IOException {
+        int tag = in.read();
+        if (tag < 0) {
+            return null;
+        }
+        row++;
+        Object[] values = new Object[types.length];
+        try {
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0) {
+                    tag = in.readUnsignedByte();
+                }
+                values[i] = readValue(tag, types[i]);
+            }
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IOException("BinaryTableReader, row " + row + ": " + e.getMessage(), e);
+        }
+        return values;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readValue(int tag, Class<?> type) throws IOException {
+        Object value;
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                value = readString();
+                break;
+            case BOOLEAN:
+                value = in.readBoolean();
+                break;
+            case INTEGER:
+                value = in.readInt();
+                break;
+            case LONG:
+                value = in.readLong();
+                break;
+            case DOUBLE:
+                value = in.readDouble();
+                break;
+            case FLOAT:
+                value = in.readFloat();
+                break;
+            case SHORT:
+                value = in.readShort();
+                break;
+            case DECIMAL:
+                value = new BigDecimal(readString());
+                break;
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                value = timestamp;
+                break;
+            case INSTANT:
+                value = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                break;
+            case BYTES:
+                byte[] bytes = new byte[readLength()];
+                in.readFully(bytes);
+                value = bytes;
+                break;
+            case ENUM:
+                String name = readString();
+                if (!type.isEnum()) {
+                    throw new IOException("BinaryTableReader, row " + row + ": enum " + name + " for a column of type " + type.getName());
+                }
+                return Enum.valueOf((Class) type, name);
+            default:
+                throw new IOException("BinaryTableReader, row " + row + ": unknown type " + tag);
+        }
+        if (!TableValues.wrap(type).isInstance(value)) {
+            throw new IOException("BinaryTableReader, row " + row + ": " + value.getClass().getSimpleName() +
+                    " for a column of type " + type.getName());
+        }
+        return value;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readLength()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readLength() throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("BinaryTableReader, row " + row + ": negative length " + length);
+        }
+        return length;
+    }
+}
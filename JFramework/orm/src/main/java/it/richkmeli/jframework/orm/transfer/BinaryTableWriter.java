@@ -0,0 +1,113 @@
+package it.richkmeli.jframework.orm.transfer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Header: magic, column count, column names. Each value is its type tag (0 for NULL) followed by its bytes, so a row
+ * has no separator and a reader can check that the types are the ones of the entity.
+ */
+class BinaryTableWriter implements TableWriter {
+    static final int MAGIC = 0x4A465431; // JFT1
+    static final int NULL = 0;
+    static final int STRING = 1;
+    static final int BOOLEAN = 2;
+    static final int INTEGER = 3;
+    static final int LONG = 4;
+    static final int DOUBLE = 5;
+    static final int FLOAT = 6;
+    static final int SHORT = 7;
+    static final int DECIMAL = 8;
+    static final int TIMESTAMP = 9;
+    static final int INSTANT = 10;
+    static final int BYTES = 11;
+    static final int ENUM = 12;
+
+    private final DataOutputStream out;
+
+    BinaryTableWriter(OutputStream outputStream) {
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+    }
+
+    @Override
+    public void writeHeader(List<String> columns) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(columns.size());
+        for (String column : columns) {
+            writeString(column);
+        }
+    }
+
+    @Override
+    public void writeRow(Object[] values) throws IOException {
+        for (Object value : values) {
+            writeValue(value);
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(DECIMAL);
+            writeString(value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof Instant) {
+            out.writeByte(INSTANT);
+            out.writeLong(((Instant) value).getEpochSecond());
+            out.writeInt(((Instant) value).getNano());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeString(((Enum<?>) value).name());
+        } else {
+            throw new IOException("BinaryTableWriter, type not supported: " + value.getClass().getName());
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        // writeUTF is limited to 64 KB
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
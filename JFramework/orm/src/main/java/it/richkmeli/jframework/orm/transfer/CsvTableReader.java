@@ -0,0 +1,98 @@
+package it.richkmeli.jframework.orm.transfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.List;
+
+class CsvTableReader implements TableReader {
+    private final BufferedReader in;
+    private long record = 0;
+
+    CsvTableReader(InputStream inputStream) {
+        this.in = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    @Override
+    public List<String> readHeader() throws IOException {
+        List<String> columns = readRecord();
+        if (columns == null || columns.contains(null)) {
+            throw new IOException("CsvTableReader, missing header");
+        }
+        return columns;
+    }
+
+    @Override
+    public Object[] readRow(Class<?>[] types) throws IOException {
+        List<String> fields = readRecord();
+        if (fields == null) {
+            return null;
+        }
+        if (fields.size() != types.length) {
+            throw new IOException("CsvTableReader, record " + record + ": " + fields.size() + " fields instead of " + types.length);
+        }
+        Object[] values = new Object[types.length];
+        try {
+            for (int i = 0; i < types.length; i++) {
+                String field = fields.get(i);
+                values[i] = field != null ? TableValues.fromText(field, types[i]) : null;
+            }
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IOException("CsvTableReader, record " + record + ": " + e.getMessage(), e);
+        }
+        return values;
+    }
+
+    /**
+     * @return the fields of the next record, null for the empty ones, or null at the end of the stream
+     */
+    private List<String> readRecord() throws IOException {
+        int c = in.read();
+        if (c < 0) {
+            return null;
+        }
+        record++;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (c == '"' && !quoted && field.length() == 0) {
+                quoted = true;
+                while (true) {
+                    c = in.read();
+                    if (c < 0) {
+                        throw new IOException("CsvTableReader, record " + record + ": unterminated quoted field");
+                    }
+                    // "" is a quote, a single one closes the field
+                    if (c == '"' && (c = in.read()) != '"') {
+                        break;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == ',') {
+                fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                field.setLength(0);
+                quoted = false;
+                c = in.read();
+            } else if (c == '\r' || c == '\n' || c < 0) {
+                if (c == '\r') {
+                    in.mark(1);
+                    if (in.read() != '\n') {
+                        in.reset();
+                    }
+                }
+                fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                return fields;
+            } else if (quoted) {
+                throw new IOException("CsvTableReader, record " + record + ": text after a quoted field");
+            } else {
+                field.append((char) c);
+                c = in.read();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package it.richkmeli.jframework.orm.transfer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Formats of DatabaseManager.exportTable and importTable. Rows are written and read one at a time, a table never
+ * needs to fit in memory.
+ */
+public enum TableFormat {
+    /**
+     * Length-prefixed values after a header with the column names: compact and exact for every mapped type.
+     */
+    BINARY,
+    /**
+     * RFC 4180 text with a header line. NULL is an empty field, the empty string is "". Binary values are Base64,
+     * timestamps and instants ISO-8601.
+     */
+    CSV;
+
+    public TableWriter newWriter(OutputStream outputStream) {
+        return this == BINARY ? new BinaryTableWriter(outputStream) : new CsvTableWriter(outputStream);
+    }
+
+    public TableReader newReader(InputStream inputStream) {
+        return this == BINARY ? new BinaryTableReader(inputStream) : new CsvTableReader(inputStream);
+    }
+}
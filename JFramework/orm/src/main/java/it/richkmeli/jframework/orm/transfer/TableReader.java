@@ -0,0 +1,21 @@
+package it.richkmeli.jframework.orm.transfer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the rows written by the {@link TableWriter} of the same format. Malformed input is an IOException.
+ */
+public interface TableReader {
+
+    /**
+     * @return the column names, in the order of the values of each row
+     */
+    List<String> readHeader() throws IOException;
+
+    /**
+     * @param types Java type of each column of the header, primitives are read as their wrapper
+     * @return the values of the next row, or null at the end of the stream
+     */
+    Object[] readRow(Class<?>[] types) throws IOException;
+}
@@ -0,0 +1,80 @@
+package it.richkmeli.jframework.orm.transfer;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversions of the values of the mapped types (see JdbcTypes) shared by the formats.
+ */
+class TableValues {
+    private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<>();
+
+    static {
+        WRAPPERS.put(boolean.class, Boolean.class);
+        WRAPPERS.put(int.class, Integer.class);
+        WRAPPERS.put(long.class, Long.class);
+        WRAPPERS.put(double.class, Double.class);
+        WRAPPERS.put(float.class, Float.class);
+        WRAPPERS.put(short.class, Short.class);
+    }
+
+    private TableValues() {
+    }
+
+    static Class<?> wrap(Class<?> type) {
+        Class<?> wrapper = WRAPPERS.get(type);
+        return wrapper != null ? wrapper : type;
+    }
+
+    static String toText(Object value) {
+        if (value instanceof byte[]) {
+            return Base64.getEncoder().encodeToString((byte[]) value);
+        } else if (value instanceof Timestamp) {
+            return ((Timestamp) value).toInstant().toString();
+        } else if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return value.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a value of the type
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object fromText(String text, Class<?> type) {
+        Class<?> wrapper = wrap(type);
+        if (wrapper == String.class) {
+            return text;
+        } else if (wrapper == Boolean.class) {
+            if (!"true".equalsIgnoreCase(text) && !"false".equalsIgnoreCase(text)) {
+                throw new IllegalArgumentException("not a boolean: " + text);
+            }
+            return Boolean.valueOf(text);
+        } else if (wrapper == Integer.class) {
+            return Integer.valueOf(text);
+        } else if (wrapper == Long.class) {
+            return Long.valueOf(text);
+        } else if (wrapper == Double.class) {
+            return Double.valueOf(text);
+        } else if (wrapper == Float.class) {
+            return Float.valueOf(text);
+        } else if (wrapper == Short.class) {
+            return Short.valueOf(text);
+        } else if (wrapper == BigDecimal.class) {
+            return new BigDecimal(text);
+        } else if (wrapper == Timestamp.class) {
+            return Timestamp.from(Instant.parse(text));
+        } else if (wrapper == Instant.class) {
+            return Instant.parse(text);
+        } else if (wrapper == byte[].class) {
+            return Base64.getDecoder().decode(text);
+        } else if (wrapper.isEnum()) {
+            return Enum.valueOf((Class) wrapper, text);
+        }
+        throw new IllegalArgumentException("type not supported: " + type.getName());
+    }
+}
@@ -0,0 +1,20 @@
+package it.richkmeli.jframework.orm.transfer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the rows of a table: the header once, then the values of each row in header order.
+ * The stream is buffered: {@link #flush()} writes what is left, without closing it.
+ */
+public interface TableWriter {
+
+    void writeHeader(List<String> columns) throws IOException;
+
+    /**
+     * @param values String, boxed primitives, BigDecimal, Timestamp, Instant, byte[], enums or null
+     */
+    void writeRow(Object[] values) throws IOException;
+
+    void flush() throws IOException;
+}
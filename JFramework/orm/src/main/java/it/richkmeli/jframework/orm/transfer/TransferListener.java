@@ -0,0 +1,13 @@
+package it.richkmeli.jframework.orm.transfer;
+
+/**
+ * Progress of an export or import, called on the thread running it.
+ */
+@FunctionalInterface
+public interface TransferListener {
+
+    /**
+     * @param rows rows written, or committed by an import, so far
+     */
+    void progress(long rows);
+}
@@ -4,6 +4,13 @@ import it.richkmeli.jframework.crypto.Crypto;
 import it.richkmeli.jframework.crypto.controller.PasswordManager;
 import it.richkmeli.jframework.util.RandomStringGenerator;
 import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.OptimisticLockException;
+import it.richkmeli.jframework.orm.async.AsyncStatistics;
+import it.richkmeli.jframework.orm.async.WriteBehindStatistics;
+import it.richkmeli.jframework.orm.cache.ResidentStatistics;
+import it.richkmeli.jframework.orm.metrics.QueryMetrics;
+import it.richkmeli.jframework.orm.metrics.QueryStatistics;
+import it.richkmeli.jframework.orm.transfer.TableFormat;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -14,7 +21,17 @@ import orm.dataexample.device.model.Device;
 import orm.dataexample.rmc.RMCDatabaseManager;
 import orm.dataexample.rmc.model.RMC;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static org.junit.Assert.*;
 
@@ -227,6 +244,53 @@ public abstract class DatabaseManagerTest {
         assertNotEquals(0, devices.size());
     }
 
+    @Test
+    public void stream() {
+        try {
+            createDevicedb();
+            List<Device> devices = deviceDatabaseManager.getUserDevices("richk@i.it");
+            assertFalse(devices.isEmpty());
+            for (Device device : devices) {
+                assertEquals("richk@i.it", device.getAssociatedUser());
+            }
+            // resources are released also when the stream is not fully consumed
+            for (int i = 0; i < 20; i++) {
+                assertNotNull(deviceDatabaseManager.getFirstDevice());
+            }
+            assertEquals(0, deviceDatabaseManager.getPoolStatistics().getActive());
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void query() {
+        try {
+            createDevicedb();
+            createRMCdb();
+            assertFalse(rmcDatabaseManager.getRMCs("richk@i.it").isEmpty());
+            for (RMC rmc : rmcDatabaseManager.getRMCs("richk@i.it")) {
+                assertEquals("richk@i.it", rmc.getAssociatedUser());
+            }
+            assertTrue(deviceDatabaseManager.getUserDevices("nobody@i.it").isEmpty());
+
+            List<Device> all = deviceDatabaseManager.getDevices("192.168.0.100", 0, 1000);
+            assertTrue(all.size() > ENTRIES);
+            for (int i = 1; i < all.size(); i++) {
+                assertTrue(all.get(i - 1).getName().compareTo(all.get(i).getName()) < 0);
+            }
+            List<Device> page = deviceDatabaseManager.getDevices("192.168.0.100", 2, 3);
+            assertEquals(3, page.size());
+            assertEquals(all.get(2).getName(), page.get(0).getName());
+            assertEquals(all.get(4).getName(), page.get(2).getName());
+            assertTrue(deviceDatabaseManager.getDevices("10.0.0.1", 0, 10).isEmpty());
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
     private void readAllRMCdb() throws DatabaseException {
         createRMCdb();
         // test read all
@@ -346,6 +410,487 @@ public abstract class DatabaseManagerTest {
     }
 
 
+    @Test
+    public void cache() {
+        try {
+            String email = "cache@i.it";
+            authDatabaseManager.addUser(new UserTest(email, "00000000", false));
+            long hits = authDatabaseManager.getCacheStatistics(UserTest.class).getHits();
+            // a login reads the same user more times
+            assertTrue(authDatabaseManager.checkPassword(email, Crypto.hashPassword("00000000", true)));
+            assertFalse(authDatabaseManager.isAdmin(email));
+            assertTrue(authDatabaseManager.isUserPresent(email));
+            assertTrue(authDatabaseManager.getCacheStatistics(UserTest.class).getHits() >= hits + 2);
+
+            // writes invalidate the cached user
+            authDatabaseManager.editAdmin(email, true);
+            assertTrue(authDatabaseManager.isAdmin(email));
+            // cached instances are copies
+            authDatabaseManager.getUser(email).setAdmin(false);
+            assertTrue(authDatabaseManager.isAdmin(email));
+            authDatabaseManager.removeUser(email);
+            assertFalse(authDatabaseManager.isUserPresent(email));
+
+            assertNull(deviceDatabaseManager.getCacheStatistics(Device.class));
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void transaction() {
+        try {
+            String email = "transaction@i.it";
+            // commit: writes of different managers of the same datasource share the connection
+            authDatabaseManager.inTransaction(transaction -> {
+                authDatabaseManager.addUser(new UserTest(email, "00000000", false));
+                deviceDatabaseManager.addDevice(new Device("transactionDevice", "192.168.0.1", "9000", "20-10-2018",
+                        "testencryptionkey", email, "", ""));
+                assertEquals(1, deviceDatabaseManager.getPoolStatistics().getActive());
+                return true;
+            });
+            assertEquals(0, deviceDatabaseManager.getPoolStatistics().getActive());
+            assertTrue(authDatabaseManager.isUserPresent(email));
+            assertFalse(authDatabaseManager.isAdmin(email));
+            assertNotNull(deviceDatabaseManager.getDevice("transactionDevice"));
+
+            // rollback on exception, also of the cached user
+            try {
+                authDatabaseManager.inTransaction(transaction -> {
+                    authDatabaseManager.editAdmin(email, true);
+                    assertTrue(authDatabaseManager.isAdmin(email));
+                    authDatabaseManager.addUsers(Arrays.asList(new UserTest("transaction1@i.it", "00000000", false),
+                            new UserTest("transaction2@i.it", "00000000", false)));
+                    throw new DatabaseException("rollback");
+                });
+                fail();
+            } catch (DatabaseException e) {
+                assertEquals("rollback", e.getMessage());
+            }
+            assertFalse(authDatabaseManager.isAdmin(email));
+            assertFalse(authDatabaseManager.isUserPresent("transaction1@i.it"));
+
+            // rollback only, nested unit of work joins the transaction
+            authDatabaseManager.inTransaction(transaction -> deviceDatabaseManager.inTransaction(nested -> {
+                deviceDatabaseManager.removeDevice("transactionDevice");
+                nested.setRollbackOnly();
+                return true;
+            }));
+            assertNotNull(deviceDatabaseManager.getDevice("transactionDevice"));
+            assertEquals(0, deviceDatabaseManager.getPoolStatistics().getActive());
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void async() {
+        try {
+            createAuthdb();
+            List<CompletableFuture<UserTest>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(authDatabaseManager.getUserAsync("richk@i.it"));
+            }
+            for (CompletableFuture<UserTest> future : futures) {
+                assertEquals("richk@i.it", future.get().getEmail());
+            }
+            assertTrue(authDatabaseManager.editAdminAsync("er@fv.it", true).get());
+            assertTrue(authDatabaseManager.isAdmin("er@fv.it"));
+            assertFalse(authDatabaseManager.getAllUsersAsync().get().isEmpty());
+
+            AsyncStatistics statistics = authDatabaseManager.getAsyncStatistics();
+            assertTrue(statistics.getCompleted() >= 52);
+            // sized as the connection pool (database.derby.pool.maxSize)
+            assertEquals(10, statistics.getThreads());
+        } catch (DatabaseException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void queryStatistics() {
+        try {
+            createAuthdb();
+            authDatabaseManager.getUser("richk@i.it");
+            authDatabaseManager.getAllUsers();
+
+            QueryStatistics read = null;
+            QueryStatistics created = null;
+            for (QueryStatistics statistics : authDatabaseManager.getQueryStatistics()) {
+                if (statistics.getTable().equals("AuthSchema.auth")) {
+                    if (statistics.getOperation() == QueryMetrics.Operation.READ) {
+                        read = statistics;
+                    } else if (statistics.getOperation() == QueryMetrics.Operation.CREATE) {
+                        created = statistics;
+                    }
+                }
+            }
+            assertNotNull(read);
+            assertNotNull(created);
+            assertTrue(read.getCount() >= 1 && read.getRows() >= 1);
+            assertEquals(read.getCount(), read.getExecution().getCount());
+            assertTrue(read.getExecution().getP50Micros() <= read.getExecution().getMaxMicros());
+            assertTrue(created.getCount() >= ENTRIES);
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void projection() {
+        try {
+            String email = "projection@i.it";
+            authDatabaseManager.addUser(new UserTest(email, "00000000", true));
+            deviceDatabaseManager.addDevice(new Device("projection", "127.0.0.1", "8080", "", "key", email, "commands", "output"));
+
+            assertTrue(authDatabaseManager.isAdmin(email));
+            assertEquals("key", deviceDatabaseManager.getEncryptionKey("projection"));
+            assertEquals("commands", deviceDatabaseManager.getCommands("projection"));
+            assertEquals("output", deviceDatabaseManager.getCommandsOutput("projection"));
+            // the same fields are set whether the user is read from the database or from the cache
+            UserTest read = authDatabaseManager.getUserAdmin(email);
+            assertNotNull(authDatabaseManager.getUser(email));
+            UserTest cached = authDatabaseManager.getUserAdmin(email);
+            for (UserTest user : Arrays.asList(read, cached)) {
+                assertEquals(email, user.getEmail());
+                assertNull(user.getPassword());
+                assertTrue(user.getAdmin());
+            }
+
+            char[] buffer = new char[16];
+            try (Reader reader = deviceDatabaseManager.getCommandsOutputReader("projection")) {
+                assertEquals("output", new String(buffer, 0, reader.read(buffer)));
+            }
+            assertNull(deviceDatabaseManager.getCommandsOutputReader("not present"));
+
+            deviceDatabaseManager.removeDevice("projection");
+            authDatabaseManager.removeUser(email);
+        } catch (DatabaseException | IOException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void upsert() {
+        try {
+            String email = "upsert@i.it";
+            assertFalse(authDatabaseManager.isUserPresent(email));
+            authDatabaseManager.saveUser(new UserTest(email, "00000000", false));
+            assertTrue(authDatabaseManager.isUserPresent(email));
+            assertFalse(authDatabaseManager.isAdmin(email));
+
+            authDatabaseManager.saveUser(new UserTest(email, "00000001", true));
+            assertTrue(authDatabaseManager.isAdmin(email));
+            assertTrue(authDatabaseManager.checkPassword(email, Crypto.hashPassword("00000001", true)));
+
+            authDatabaseManager.removeUser(email);
+            assertFalse(authDatabaseManager.isUserPresent(email));
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void readAllByIds() {
+        try {
+            List<UserTest> users = new ArrayList<>();
+            List<String> emails = new ArrayList<>();
+            // more than one IN list
+            for (int i = 0; i < 300; i++) {
+                users.add(new UserTest("ids" + i + "@" + RandomStringGenerator.generateAlphanumericString(8) + ".it", "00000000", i % 2 == 0));
+                emails.add(users.get(i).getEmail());
+            }
+            assertTrue(authDatabaseManager.addUsers(users));
+            Collections.reverse(emails);
+            emails.add(emails.get(0));
+            emails.add("not present@i.it");
+
+            Map<Object, UserTest> found = authDatabaseManager.getUsers(emails);
+            assertEquals(300, found.size());
+            // same order of the keys
+            assertEquals(emails.subList(0, 300), new ArrayList<>(found.keySet()));
+            for (UserTest user : users) {
+                assertEquals(user.getAdmin(), found.get(user.getEmail()).getAdmin());
+            }
+            assertTrue(authDatabaseManager.getUsers(Collections.emptyList()).isEmpty());
+
+            assertTrue(authDatabaseManager.removeUsers(users));
+            assertTrue(authDatabaseManager.getUsers(emails).isEmpty());
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void relationships() {
+        try {
+            String ip = "10.0.0.16";
+            List<UserTest> users = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                users.add(new UserTest("relationships" + i + "@i.it", "00000000", false));
+                authDatabaseManager.addUser(new UserTest(users.get(i).getEmail(), "00000000", false));
+            }
+            for (int i = 0; i < 5; i++) {
+                deviceDatabaseManager.addDevice(new Device("relationships" + i, ip, "8080", "", "", users.get(i % 2).getEmail(), "", ""));
+            }
+
+            // BATCH: the users of a page of devices with one more query, not one per device
+            long borrowed = deviceDatabaseManager.getPoolStatistics().getBorrowed();
+            List<Device> devices = deviceDatabaseManager.getDevices(ip, 0, 5);
+            assertTrue(deviceDatabaseManager.getPoolStatistics().getBorrowed() - borrowed <= 2);
+            assertEquals(5, devices.size());
+            for (Device device : devices) {
+                assertEquals(device.getAssociatedUser(), device.getUser().getEmail());
+                // one level only
+                assertNull(device.getUser().getDevices());
+            }
+            assertEquals(users.get(1).getEmail(), deviceDatabaseManager.getDevice("relationships1").getUser().getEmail());
+
+            // LAZY: loaded on demand
+            assertNull(authDatabaseManager.getUser(users.get(0).getEmail()).getDevices());
+            authDatabaseManager.getUsersWithDevices(users);
+            assertEquals(3, users.get(0).getDevices().size());
+            assertEquals(2, users.get(1).getDevices().size());
+
+            for (Device device : devices) {
+                deviceDatabaseManager.removeDevice(device.getName());
+            }
+            for (UserTest user : users) {
+                authDatabaseManager.removeUser(user.getEmail());
+            }
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void batch() {
+        try {
+            List<UserTest> users = new ArrayList<>();
+            for (int i = 0; i < ENTRIES * 10; i++) {
+                users.add(new UserTest("batch" + i + "@" + RandomStringGenerator.generateAlphanumericString(8) + ".it", "00000000", false));
+            }
+            // duplicates are skipped as with addUser
+            users.add(new UserTest(users.get(0).getEmail(), "00000000", false));
+            assertTrue(authDatabaseManager.addUsers(users));
+            for (UserTest user : users) {
+                assertNotNull(authDatabaseManager.getUser(user.getEmail()));
+            }
+
+            List<UserTest> admins = new ArrayList<>();
+            for (UserTest user : users) {
+                admins.add(new UserTest(user.getEmail(), null, true));
+            }
+            assertTrue(authDatabaseManager.editUsers(admins));
+            for (UserTest user : users) {
+                assertTrue(authDatabaseManager.isAdmin(user.getEmail()));
+            }
+
+            assertTrue(authDatabaseManager.removeUsers(users));
+            for (UserTest user : users) {
+                assertNull(authDatabaseManager.getUser(user.getEmail()));
+            }
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void exportImport() {
+        try {
+            createAuthdb();
+            authDatabaseManager.addUser(new UserTest("export,\"csv\"@i.it", "00000000", false));
+            List<UserTest> users = authDatabaseManager.getAllUsers();
+            for (TableFormat format : TableFormat.values()) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                assertEquals(users.size(), authDatabaseManager.exportUsers(outputStream, format));
+                assertTrue(authDatabaseManager.removeUsers(authDatabaseManager.getAllUsers()));
+                assertTrue(authDatabaseManager.getAllUsers().isEmpty());
+
+                List<Long> progress = new ArrayList<>();
+                assertEquals(users.size(), authDatabaseManager.importUsers(new ByteArrayInputStream(outputStream.toByteArray()),
+                        format, 5, progress::add));
+                // after every commit of 5 rows and at the end
+                assertEquals(users.size() / 5 + 1, progress.size());
+                assertEquals(users.size(), (long) progress.get(progress.size() - 1));
+                for (UserTest user : users) {
+                    UserTest imported = authDatabaseManager.getUser(user.getEmail());
+                    assertEquals(user.getPassword(), imported.getPassword());
+                    assertEquals(user.getAdmin(), imported.getAdmin());
+                }
+                // rows already present are skipped
+                assertEquals(users.size(), authDatabaseManager.importUsers(new ByteArrayInputStream(outputStream.toByteArray()),
+                        format, 100, null));
+                assertEquals(users.size(), authDatabaseManager.getAllUsers().size());
+            }
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void resident() {
+        try {
+            createAuthdb();
+            String email = "resident@i.it";
+            authDatabaseManager.addUser(new UserTest(email, "00000000", false));
+            rmcDatabaseManager.addRMC(new RMC(email, "resident_1"));
+            List<RMC> rmcs = rmcDatabaseManager.getRMCs(email);
+            assertEquals(1, rmcs.size());
+            ResidentStatistics statistics = rmcDatabaseManager.getResidentStatistics();
+            assertTrue(statistics.getReloads() >= 1);
+            assertEquals(rmcDatabaseManager.getAllRMCs().size(), statistics.getSize());
+
+            // writes of this JVM are seen by the next read
+            rmcDatabaseManager.addRMC(new RMC(email, "resident_2"));
+            assertEquals(2, rmcDatabaseManager.getRMCs(email).size());
+            assertTrue(rmcDatabaseManager.checkRmcUserPair(new RMC(email, "resident_2")));
+            rmcDatabaseManager.removeRMC(new RMC(email, "resident_1"));
+            assertEquals(1, rmcDatabaseManager.getRMCs(email).size());
+            assertFalse(rmcDatabaseManager.checkRmcUserPair(new RMC(email, "resident_1")));
+            // without a change column the writes are read with the whole table
+            assertTrue(rmcDatabaseManager.getResidentStatistics().getReloads() >= statistics.getReloads() + 2);
+            assertTrue(rmcDatabaseManager.getRMCs("nobody@i.it").isEmpty());
+
+            // read from the database inside a transaction
+            authDatabaseManager.inTransaction(transaction -> {
+                rmcDatabaseManager.addRMC(new RMC(email, "resident_3"));
+                assertEquals(2, rmcDatabaseManager.getRMCs(email).size());
+                return true;
+            });
+            assertEquals(2, rmcDatabaseManager.getRMCs(email).size());
+
+            assertNull(authDatabaseManager.getResidentStatistics(UserTest.class));
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void optimisticLocking() {
+        try {
+            String name = "version" + RandomStringGenerator.generateAlphanumericString(8);
+            deviceDatabaseManager.addDevice(new Device(name, "192.168.0.100", "9000", "20-10-2018", "key", null, "a", null));
+            Device first = deviceDatabaseManager.getDevice(name);
+            Device second = deviceDatabaseManager.getDevice(name);
+            assertEquals(Integer.valueOf(0), first.getVersion());
+
+            first.setCommands("b");
+            assertTrue(deviceDatabaseManager.editDevice(first));
+            assertEquals(Integer.valueOf(1), first.getVersion());
+            // second was read before the update of first
+            second.setCommands("c");
+            try {
+                deviceDatabaseManager.editDevice(second);
+                fail();
+            } catch (OptimisticLockException e) {
+                // expected
+            }
+            assertEquals("b", deviceDatabaseManager.getCommands(name));
+
+            // read-modify-write retried on conflict
+            assertTrue(deviceDatabaseManager.addCommand(name, "c"));
+            assertEquals("b,c", deviceDatabaseManager.getCommands(name));
+            assertEquals(Integer.valueOf(2), deviceDatabaseManager.getDevice(name).getVersion());
+            // updates without the version are not checked, but they increment it
+            deviceDatabaseManager.editCommands(name, "d");
+            assertEquals(Integer.valueOf(3), deviceDatabaseManager.getDevice(name).getVersion());
+
+            // rolled back: the entity keeps the version of its row and the update can be retried
+            Device device = deviceDatabaseManager.getDevice(name);
+            deviceDatabaseManager.inTransaction(transaction -> {
+                device.setCommands("e");
+                assertTrue(deviceDatabaseManager.editDevice(device));
+                device.setCommands("f");
+                assertTrue(deviceDatabaseManager.editDevice(device));
+                assertEquals(Integer.valueOf(5), device.getVersion());
+                transaction.setRollbackOnly();
+                return true;
+            });
+            assertEquals(Integer.valueOf(3), device.getVersion());
+            assertEquals("d", deviceDatabaseManager.getCommands(name));
+            assertTrue(deviceDatabaseManager.editDevice(device));
+            assertEquals(Integer.valueOf(4), device.getVersion());
+            assertEquals("f", deviceDatabaseManager.getCommands(name));
+
+            // not written because of a constraint: neither a success nor a conflict
+            device.setAssociatedUser("nobody" + name + "@i.it");
+            try {
+                deviceDatabaseManager.editDevice(device);
+                fail();
+            } catch (OptimisticLockException e) {
+                fail();
+            } catch (DatabaseException e) {
+                // expected
+            }
+            assertEquals(Integer.valueOf(4), device.getVersion());
+            assertEquals(Integer.valueOf(4), deviceDatabaseManager.getDevice(name).getVersion());
+
+            deviceDatabaseManager.removeDevice(name);
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
+    @Test
+    public void writeBehind() {
+        try {
+            String name = "heartbeat" + RandomStringGenerator.generateAlphanumericString(8);
+            deviceDatabaseManager.addDevice(new Device(name, "192.168.0.100", "9000", "20-10-2018", "key", null, null, null));
+            WriteBehindStatistics before = deviceDatabaseManager.getWriteBehindStatistics(Device.class);
+            for (int i = 0; i < 100; i++) {
+                assertTrue(deviceDatabaseManager.setLastConnection(name, "heartbeat" + i));
+            }
+            // the pending update is read with the entity
+            assertEquals("heartbeat99", deviceDatabaseManager.getDevice(name).getLastConnection());
+            assertEquals("heartbeat99", deviceDatabaseManager.getLastConnection(name));
+            // and with the lists of entities
+            assertEquals("heartbeat99", deviceDatabaseManager.getAllDevices().stream()
+                    .filter(device -> name.equals(device.getName())).findFirst().get().getLastConnection());
+
+            deviceDatabaseManager.flushLastConnections();
+            WriteBehindStatistics after = deviceDatabaseManager.getWriteBehindStatistics(Device.class);
+            assertEquals(0, after.getPending());
+            assertEquals(100, after.getEnqueued() - before.getEnqueued());
+            // merged: far fewer rows written than updates
+            assertTrue(after.getWritten() - before.getWritten() < 10);
+            assertEquals("heartbeat99", deviceDatabaseManager.getDevice(name).getLastConnection());
+            assertEquals("key", deviceDatabaseManager.getEncryptionKey(name));
+
+            // written by the background writer after flushInterval
+            deviceDatabaseManager.setLastConnection(name, "last");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (deviceDatabaseManager.getWriteBehindStatistics(Device.class).getPending() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, deviceDatabaseManager.getWriteBehindStatistics(Device.class).getPending());
+            assertEquals("last", deviceDatabaseManager.getDevice(name).getLastConnection());
+
+            // a direct update is not overwritten by the older pending one
+            deviceDatabaseManager.setLastConnection(name, "queued");
+            deviceDatabaseManager.editDevice(new Device(name, null, null, "direct", null, null, null, null));
+            deviceDatabaseManager.flushLastConnections();
+            assertEquals("direct", deviceDatabaseManager.getDevice(name).getLastConnection());
+
+            deviceDatabaseManager.removeDevice(name);
+        } catch (DatabaseException | InterruptedException e) {
+            e.printStackTrace();
+            assert false;
+        }
+    }
+
     @Test
     public void deleteAll() {
         try {
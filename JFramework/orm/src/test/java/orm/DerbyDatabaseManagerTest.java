@@ -1,10 +1,29 @@
 package orm;
 
 import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+import it.richkmeli.jframework.orm.entity.EntitySchema;
+import it.richkmeli.jframework.orm.pool.ConnectionPool;
+import org.junit.Test;
 import orm.dataexample.auth.AuthDatabaseManagerTest;
+import orm.dataexample.auth.UserTest;
 import orm.dataexample.device.DeviceDatabaseManager;
 import orm.dataexample.rmc.RMCDatabaseManager;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
 public class DerbyDatabaseManagerTest extends DatabaseManagerTest {
     private static final String DERBY = "derby";
 
@@ -21,4 +40,142 @@ public class DerbyDatabaseManagerTest extends DatabaseManagerTest {
         }
         assert true;
     }
-}
\ No newline at end of file
+
+    @Test
+    public void replicas() throws Exception {
+        // second Derby database, written only by JDBC: rows in it are visible only through the replica
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:target/replica/AuthSchema;create=true", "root", "richk");
+             Statement statement = connection.createStatement()) {
+            try {
+                statement.executeUpdate("CREATE TABLE AuthSchema.auth" +
+                        new EntitySchema(EntityMetadata.of(UserTest.class), "AuthSchema.auth", DERBY).getTable());
+            } catch (SQLException e) {
+                // created by a previous run
+            }
+            statement.executeUpdate("DELETE FROM AuthSchema.auth");
+            statement.executeUpdate("INSERT INTO AuthSchema.auth VALUES ('replica@i.it', 'password', false)");
+        }
+        AuthDatabaseManagerTest replicated = new AuthDatabaseManagerTest(DERBY, Collections.singletonList("jdbc:derby:target/replica/"), 200);
+
+        assertTrue(replicated.isUserPresent("replica@i.it"));
+        assertFalse(authDatabaseManager.isUserPresent("replica@i.it"));
+
+        // read-your-writes: after a write this thread reads from the primary
+        String email = "primary@i.it";
+        replicated.addUser(new UserTest(email, "00000000", false));
+        assertTrue(replicated.isUserPresent(email));
+        assertFalse(replicated.isUserPresent("replica@i.it"));
+        Thread.sleep(300);
+        assertFalse(replicated.isUserPresent(email));
+        assertTrue(replicated.isUserPresent("replica@i.it"));
+        // also after an async write, made by another thread
+        assertTrue(replicated.editAdminAsync(email, true).get());
+        assertTrue(replicated.isUserPresent(email));
+        Thread.sleep(300);
+
+        // transactions read from the primary
+        assertTrue(replicated.inTransaction(transaction -> replicated.isUserPresent(email)));
+
+        authDatabaseManager.removeUser(email);
+    }
+
+    @Test
+    public void shards() throws Exception {
+        List<String> twoShards = Arrays.asList("jdbc:derby:target/shard0/", "jdbc:derby:target/shard1/");
+        List<String> threeShards = Arrays.asList("jdbc:derby:target/shard0/", "jdbc:derby:target/shard1/", "jdbc:derby:target/shard2/");
+        AuthDatabaseManagerTest sharded = new AuthDatabaseManagerTest(DERBY, twoShards);
+        AuthDatabaseManagerTest resharded = new AuthDatabaseManagerTest(DERBY, threeShards);
+        // rows of a previous run
+        for (int i = 0; i < 3; i++) {
+            executeOnShard(i, "DELETE FROM AuthSchema.auth");
+        }
+
+        List<UserTest> users = new ArrayList<>();
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String email = String.format("shard%02d@i.it", i);
+            emails.add(email);
+            users.add(new UserTest(email, "00000000", false));
+        }
+        assertTrue(sharded.addUsers(users.subList(0, 10)));
+        for (UserTest user : users.subList(10, 20)) {
+            assertTrue(sharded.addUser(user));
+        }
+
+        // operations by primary key go to one shard, the others are read on all of them
+        for (String email : emails) {
+            assertTrue(sharded.isUserPresent(email));
+            assertEquals(email, sharded.getUser(email).getEmail());
+        }
+        assertFalse(authDatabaseManager.isUserPresent(emails.get(0)));
+        assertTrue(countOnShard(0) > 0);
+        assertTrue(countOnShard(1) > 0);
+        assertEquals(20, countOnShard(0) + countOnShard(1));
+        assertEquals(20, sharded.getAllUsers().size());
+        assertEquals(20, sharded.getUsers(emails).size());
+        List<String> page = new ArrayList<>();
+        for (UserTest user : sharded.getUsers(5, 5)) {
+            page.add(user.getEmail());
+        }
+        assertEquals(emails.subList(5, 10), page);
+        // the cursor of a shard is opened when the previous one is consumed
+        try (Stream<UserTest> stream = sharded.streamUsers()) {
+            Iterator<UserTest> iterator = stream.iterator();
+            iterator.next();
+            assertEquals(1, getActiveOnShards());
+            int count = 1;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(20, count);
+        }
+        assertEquals(0, getActiveOnShards());
+        try {
+            sharded.inTransaction(transaction -> sharded.isUserPresent(emails.get(0)));
+            fail();
+        } catch (DatabaseException e) {
+            // expected
+        }
+
+        // a new shard: only the rows of its keys move to it
+        int moved = resharded.rebalanceUsers();
+        assertTrue(moved > 0 && moved < 20);
+        assertEquals(moved, countOnShard(2));
+        assertEquals(20, countOnShard(0) + countOnShard(1) + countOnShard(2));
+        assertEquals(0, resharded.rebalanceUsers());
+        for (String email : emails) {
+            assertTrue(resharded.isUserPresent(email));
+        }
+        assertEquals(20, resharded.getAllUsers().size());
+
+        assertTrue(resharded.removeUsers(resharded.getAllUsers()));
+        assertEquals(0, countOnShard(0) + countOnShard(1) + countOnShard(2));
+    }
+
+    private static int getActiveOnShards() {
+        int active = 0;
+        for (ConnectionPool pool : ConnectionPool.getInstances()) {
+            if (pool.getUrl().contains("target/shard")) {
+                active += pool.getStatistics().getActive();
+            }
+        }
+        return active;
+    }
+
+    private static void executeOnShard(int shard, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:target/shard" + shard + "/AuthSchema", "root", "richk");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private static int countOnShard(int shard) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:target/shard" + shard + "/AuthSchema", "root", "richk");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM AuthSchema.auth")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
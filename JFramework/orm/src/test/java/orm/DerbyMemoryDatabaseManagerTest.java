@@ -0,0 +1,103 @@
+package orm;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.DatabaseManager;
+import org.junit.Test;
+import orm.dataexample.auth.AuthDatabaseManagerTest;
+import orm.dataexample.auth.UserTest;
+import orm.dataexample.device.DeviceDatabaseManager;
+import orm.dataexample.rmc.RMCDatabaseManager;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+public class DerbyMemoryDatabaseManagerTest extends DatabaseManagerTest {
+    private static final String DERBY_MEMORY = "derby-memory";
+
+    @Override
+    public void setUp() {
+        try {
+            authDatabaseManager = new AuthDatabaseManagerTest(DERBY_MEMORY);
+            deviceDatabaseManager = new DeviceDatabaseManager(DERBY_MEMORY);
+            rmcDatabaseManager = new RMCDatabaseManager(DERBY_MEMORY);
+            create();
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            assert false;
+        }
+        assert true;
+    }
+
+    private static class RetryDatabaseManager extends DatabaseManager {
+        private RetryDatabaseManager(String table) throws DatabaseException {
+            schemaName = "AuthSchema";
+            tableName = schemaName + "." + "retry";
+            this.table = table;
+            init(DERBY_MEMORY, null);
+        }
+    }
+
+    @Test
+    public void createTableRetry() throws Exception {
+        try {
+            new RetryDatabaseManager("(id NOT_A_TYPE)");
+            fail();
+        } catch (DatabaseException e) {
+            // expected
+        }
+        // the failed CREATE TABLE is not recorded: the next manager sends it again
+        new RetryDatabaseManager("(id VARCHAR(10) NOT NULL PRIMARY KEY)");
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:memory:AuthSchema");
+             ResultSet resultSet = connection.getMetaData().getTables(null, "AUTHSCHEMA", "RETRY", null)) {
+            assertTrue(resultSet.next());
+            connection.createStatement().executeUpdate("DROP TABLE AuthSchema.retry");
+        }
+    }
+
+    @Test
+    public void snapshotRestore() throws Exception {
+        assertTrue(authDatabaseManager.isInMemory());
+        String snapshot = "target/snapshot";
+        authDatabaseManager.addUser(new UserTest("snapshot@i.it", "00000000", false));
+        authDatabaseManager.snapshot(snapshot);
+        assertTrue(new File(snapshot, "AuthSchema").isDirectory());
+        authDatabaseManager.removeUser("snapshot@i.it");
+        // created before the drop and the shutdown, used after them
+        AuthDatabaseManagerTest previous = new AuthDatabaseManagerTest(DERBY_MEMORY);
+
+        // the tables are created again, empty
+        authDatabaseManager.drop();
+        try {
+            DriverManager.getConnection("jdbc:derby:memory:AuthSchema");
+            fail();
+        } catch (SQLException e) {
+            assertEquals("XJ004", e.getSQLState());
+        }
+        AuthDatabaseManagerTest empty = new AuthDatabaseManagerTest(DERBY_MEMORY);
+        assertTrue(empty.getAllUsers().isEmpty());
+        assertTrue(previous.getAllUsers().isEmpty());
+        empty.drop();
+
+        // the first manager after the drop loads the snapshot
+        AuthDatabaseManagerTest restored = new AuthDatabaseManagerTest(DERBY_MEMORY, snapshot);
+        assertTrue(restored.isUserPresent("snapshot@i.it"));
+        assertTrue(restored.isUserPresent("richk@i.it"));
+
+        // shutdown keeps the data in memory, the next connection boots the database again
+        restored.shutdown();
+        assertTrue(previous.isUserPresent("snapshot@i.it"));
+        AuthDatabaseManagerTest rebooted = new AuthDatabaseManagerTest(DERBY_MEMORY);
+        assertTrue(rebooted.isUserPresent("snapshot@i.it"));
+        rebooted.removeUser("snapshot@i.it");
+
+        // managers of the dropped database are replaced, for tearDown
+        authDatabaseManager = rebooted;
+        deviceDatabaseManager = new DeviceDatabaseManager(DERBY_MEMORY);
+        rmcDatabaseManager = new RMCDatabaseManager(DERBY_MEMORY);
+    }
+}
@@ -0,0 +1,73 @@
+package orm;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.SchemaRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SchemaRegistryTest {
+
+    @Test
+    public void bootstrap() throws Exception {
+        String key = "SchemaRegistryTest.bootstrap";
+        AtomicInteger runs = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    SchemaRegistry.bootstrap(key, () -> {
+                        runs.incrementAndGet();
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                } catch (DatabaseException e) {
+                    fail();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, runs.get());
+        assertTrue(SchemaRegistry.isVerified(key));
+    }
+
+    @Test
+    public void failure() throws DatabaseException {
+        String key = "SchemaRegistryTest.failure";
+        try {
+            SchemaRegistry.bootstrap(key, () -> {
+                throw new DatabaseException("test");
+            });
+            fail();
+        } catch (DatabaseException e) {
+            assertFalse(SchemaRegistry.isVerified(key));
+        }
+        // tried again by the next manager
+        AtomicInteger runs = new AtomicInteger();
+        SchemaRegistry.bootstrap(key, runs::incrementAndGet);
+        assertEquals(1, runs.get());
+        assertTrue(SchemaRegistry.isVerified(key));
+    }
+
+    @Test
+    public void driver() throws DatabaseException {
+        SchemaRegistry.loadDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        try {
+            SchemaRegistry.loadDriver("not.existing.Driver");
+            fail();
+        } catch (DatabaseException e) {
+            // expected
+        }
+    }
+}
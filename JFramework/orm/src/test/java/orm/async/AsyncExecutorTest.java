@@ -0,0 +1,85 @@
+package orm.async;
+
+import it.richkmeli.jframework.orm.async.AsyncExecutor;
+import it.richkmeli.jframework.orm.async.AsyncStatistics;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncExecutorTest {
+
+    private void bounded(boolean virtualThreads) throws Exception {
+        AsyncExecutor executor = AsyncExecutor.getInstance("AsyncExecutorTest." + virtualThreads, 2, 3, virtualThreads);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int value = i;
+            futures.add(executor.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                latch.await();
+                running.decrementAndGet();
+                return value;
+            }));
+            if (i == 1) {
+                // the first two are running, the next ones are queued
+                while (running.get() < 2) {
+                    Thread.sleep(10);
+                }
+            }
+        }
+        // 2 running and 3 queued: the sixth is rejected
+        CompletableFuture<Integer> rejected = executor.submit(() -> 0);
+        try {
+            rejected.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        latch.countDown();
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, (int) futures.get(i).get());
+        }
+
+        AsyncStatistics statistics = executor.getStatistics();
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(5, statistics.getCompleted());
+        assertEquals(1, statistics.getRejected());
+        assertEquals(0, statistics.getQueued());
+        executor.shutdown();
+    }
+
+    @Test
+    public void platformThreads() throws Exception {
+        bounded(false);
+    }
+
+    @Test
+    public void virtualThreads() throws Exception {
+        // platform threads before JDK 21
+        bounded(true);
+    }
+
+    @Test
+    public void exception() throws InterruptedException {
+        AsyncExecutor executor = AsyncExecutor.getInstance("AsyncExecutorTest.exception", 1, 10, false);
+        try {
+            executor.submit(() -> {
+                throw new IllegalStateException("test");
+            }).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        executor.shutdown();
+    }
+}
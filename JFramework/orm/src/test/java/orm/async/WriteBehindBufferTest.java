@@ -0,0 +1,129 @@
+package orm.async;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.async.WriteBehindBuffer;
+import it.richkmeli.jframework.orm.async.WriteBehindStatistics;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindBufferTest {
+
+    @Test
+    public void coalesce() throws DatabaseException {
+        List<Object[]> written = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindBuffer buffer = WriteBehindBuffer.getInstance("WriteBehindBufferTest.coalesce", 100, 100, 60000, 100, written::addAll);
+        buffer.put(Collections.singletonList("a"), new Object[]{"a", "1", null});
+        buffer.put(Collections.singletonList("b"), new Object[]{"b", "1", null});
+        buffer.put(Collections.singletonList("a"), new Object[]{"a", null, "2"});
+        assertArrayEquals(new Object[]{"a", "1", "2"}, buffer.get(Collections.singletonList("a")));
+
+        buffer.flush();
+        assertEquals(2, written.size());
+        // in the order of the first update of each key
+        assertArrayEquals(new Object[]{"a", "1", "2"}, written.get(0));
+        WriteBehindStatistics statistics = buffer.getStatistics();
+        assertEquals(3, statistics.getEnqueued());
+        assertEquals(1, statistics.getCoalesced());
+        assertEquals(2, statistics.getWritten());
+        assertEquals(0, statistics.getPending());
+        buffer.close();
+    }
+
+    @Test
+    public void discard() throws DatabaseException {
+        List<Object[]> written = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindBuffer buffer = WriteBehindBuffer.getInstance("WriteBehindBufferTest.discard", 100, 100, 60000, 100, written::addAll);
+        buffer.put(Collections.singletonList("a"), new Object[]{"a", "1", "1"});
+        buffer.put(Collections.singletonList("b"), new Object[]{"b", "1", "1"});
+        // column 1 of a written directly, b deleted
+        BitSet columns = new BitSet();
+        columns.set(1);
+        buffer.discard(Collections.singletonList("a"), columns);
+        buffer.discard(Collections.singletonList("b"), null);
+        buffer.discard(Collections.singletonList("c"), null);
+        assertArrayEquals(new Object[]{"a", null, "1"}, buffer.get(Collections.singletonList("a")));
+        assertNull(buffer.get(Collections.singletonList("b")));
+
+        buffer.flush();
+        assertEquals(1, written.size());
+        buffer.close();
+    }
+
+    @Test
+    public void backpressure() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Object[]> written = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindBuffer buffer = WriteBehindBuffer.getInstance("WriteBehindBufferTest.backpressure", 2, 1, 10, 100, rows -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.addAll(rows);
+        });
+        // the writer takes the first key and blocks, two more fill the buffer
+        buffer.put(Collections.singletonList(0), new Object[]{0});
+        writing.await();
+        // read as pending while it is written
+        assertArrayEquals(new Object[]{0}, buffer.get(Collections.singletonList(0)));
+        buffer.put(Collections.singletonList(1), new Object[]{1});
+        buffer.put(Collections.singletonList(2), new Object[]{2});
+        try {
+            buffer.put(Collections.singletonList(3), new Object[]{3});
+            fail();
+        } catch (DatabaseException e) {
+            // expected
+        }
+        // a pending key is merged without waiting
+        buffer.put(Collections.singletonList(2), new Object[]{2});
+        assertEquals(1, buffer.getStatistics().getRejected());
+        assertEquals(1, buffer.getStatistics().getWaits());
+
+        // pending updates are written on close
+        release.countDown();
+        buffer.close();
+        assertEquals(3, written.size());
+        try {
+            buffer.put(Collections.singletonList(4), new Object[]{4});
+            fail();
+        } catch (DatabaseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void retry() throws DatabaseException {
+        List<Object[]> written = Collections.synchronizedList(new ArrayList<>());
+        boolean[] failing = {true};
+        WriteBehindBuffer buffer = WriteBehindBuffer.getInstance("WriteBehindBufferTest.retry", 100, 100, 60000, 100, rows -> {
+            if (failing[0]) {
+                throw new DatabaseException("WriteBehindBufferTest, not available");
+            }
+            written.addAll(rows);
+        });
+        buffer.put(Collections.singletonList("a"), new Object[]{"a", "1"});
+        try {
+            buffer.flush();
+            fail();
+        } catch (DatabaseException e) {
+            // expected
+        }
+        // the failed update stays pending, under the newer values
+        buffer.put(Collections.singletonList("a"), new Object[]{"a", "2"});
+        assertEquals(1, buffer.getStatistics().getFailures());
+        failing[0] = false;
+        buffer.flush();
+        assertEquals(1, written.size());
+        assertArrayEquals(new Object[]{"a", "2"}, written.get(0));
+        buffer.close();
+    }
+}
@@ -0,0 +1,199 @@
+package orm.benchmark;
+
+import it.richkmeli.jframework.orm.entity.EntityMapper;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+import orm.dataexample.auth.UserTest;
+import orm.dataexample.device.model.Device;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the reflective row mapping and binding (Method.invoke getters, Constructor.newInstance(list.toArray()))
+ * with the method handle mapper and with hand-written JDBC, on UserTest (mirror of auth User) and Device.
+ * <p>
+ * Run with (from JFramework/orm): mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=orm.benchmark.EntityMapperBenchmark
+ */
+public class EntityMapperBenchmark {
+    private static final int ROWS = 10000;
+    private static final int ITERATIONS = 20;
+
+    private interface Job {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:memory:EntityMapperBenchmark;create=true")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE users (email VARCHAR(50) NOT NULL, password VARCHAR(100), admin BOOLEAN, PRIMARY KEY (email))");
+                statement.executeUpdate("CREATE TABLE device (name VARCHAR(50) NOT NULL, ip VARCHAR(25), serverPort VARCHAR(10), " +
+                        "lastConnection VARCHAR(25), encryptionKey VARCHAR(32), associatedUser VARCHAR(50), commands VARCHAR(1000), " +
+                        "commandsOutput VARCHAR(1000), PRIMARY KEY (name))");
+            }
+            List<UserTest> users = new ArrayList<>();
+            List<Device> devices = new ArrayList<>();
+            for (int i = 0; i < ROWS; i++) {
+                users.add(new UserTest("user" + i + "@test.it", "password" + i, i % 2 == 0));
+                devices.add(new Device("device" + i, "192.168.0." + (i % 255), "9000", "20-10-2018",
+                        "testencryptionkey", "user" + i + "@test.it", "start##start", "output"));
+            }
+            PreparedStatement insertUser = connection.prepareStatement("INSERT INTO users (email, password, admin) VALUES (?,?,?)");
+            PreparedStatement insertDevice = connection.prepareStatement("INSERT INTO device (name, ip, serverPort, lastConnection, " +
+                    "encryptionKey, associatedUser, commands, commandsOutput) VALUES (?,?,?,?,?,?,?,?)");
+            EntityMapper<UserTest> userMapper = EntityMetadata.of(UserTest.class).getMapper();
+            EntityMapper<Device> deviceMapper = EntityMetadata.of(Device.class).getMapper();
+            for (UserTest user : users) {
+                bindMapper(insertUser, user, userMapper, 3);
+                insertUser.addBatch();
+            }
+            insertUser.executeBatch();
+            for (Device device : devices) {
+                bindMapper(insertDevice, device, deviceMapper, 8);
+                insertDevice.addBatch();
+            }
+            insertDevice.executeBatch();
+
+            System.out.println("bind (ns/row)");
+            measure("  UserTest reflection", () -> {
+                for (UserTest user : users) {
+                    bindReflection(insertUser, user);
+                }
+            });
+            measure("  UserTest mapper    ", () -> {
+                for (UserTest user : users) {
+                    bindMapper(insertUser, user, userMapper, 3);
+                }
+            });
+            measure("  UserTest JDBC      ", () -> {
+                for (UserTest user : users) {
+                    insertUser.setString(1, user.getEmail());
+                    insertUser.setString(2, user.getPassword());
+                    insertUser.setBoolean(3, user.getAdmin());
+                }
+            });
+            measure("  Device reflection  ", () -> {
+                for (Device device : devices) {
+                    bindReflection(insertDevice, device);
+                }
+            });
+            measure("  Device mapper      ", () -> {
+                for (Device device : devices) {
+                    bindMapper(insertDevice, device, deviceMapper, 8);
+                }
+            });
+
+            System.out.println("map (ns/row)");
+            measure("  UserTest reflection", () -> mapReflection(connection, "SELECT * FROM users", UserTest.class));
+            measure("  UserTest mapper    ", () -> mapMapper(connection, "SELECT * FROM users", userMapper));
+            measure("  UserTest JDBC      ", () -> {
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT * FROM users")) {
+                    List<UserTest> list = new ArrayList<>();
+                    while (resultSet.next()) {
+                        list.add(new UserTest(resultSet.getString("email"), resultSet.getString("password"), resultSet.getBoolean("admin")));
+                    }
+                }
+            });
+            measure("  Device reflection  ", () -> mapReflection(connection, "SELECT * FROM device", Device.class));
+            measure("  Device mapper      ", () -> mapMapper(connection, "SELECT * FROM device", deviceMapper));
+        }
+        try {
+            DriverManager.getConnection("jdbc:derby:memory:EntityMapperBenchmark;drop=true");
+        } catch (Exception e) {
+            // drop always reports success with an exception
+        }
+    }
+
+    private static void measure(String name, Job job) throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            job.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            job.run();
+        }
+        System.out.println(name + " : " + (System.nanoTime() - start) / ITERATIONS / ROWS);
+    }
+
+    private static <T> void bindMapper(PreparedStatement preparedStatement, T entity, EntityMapper<T> mapper, int columns) throws Exception {
+        for (int i = 0; i < columns; i++) {
+            mapper.bind(preparedStatement, i + 1, entity, i);
+        }
+    }
+
+    // reflective path as it was in DatabaseManager
+    private static void bindReflection(PreparedStatement preparedStatement, Object entity) throws Exception {
+        int parameterIndex = 1;
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            if (!Modifier.isTransient(field.getModifiers())) {
+                Method getter = null;
+                for (Method method : entity.getClass().getMethods()) {
+                    if (method.getName().startsWith("get") && method.getName().equalsIgnoreCase("get" + field.getName())) {
+                        getter = method;
+                    }
+                }
+                switch (field.getGenericType().getTypeName()) {
+                    case "java.lang.String":
+                        preparedStatement.setString(parameterIndex, (String) getter.invoke(entity));
+                        break;
+                    case "java.lang.Boolean":
+                        preparedStatement.setBoolean(parameterIndex, (Boolean) getter.invoke(entity));
+                        break;
+                }
+                parameterIndex++;
+            }
+        }
+    }
+
+    private static <T> List<T> mapMapper(Connection connection, String sql, EntityMapper<T> mapper) throws Exception {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            List<T> list = new ArrayList<>();
+            while (resultSet.next()) {
+                list.add(mapper.map(resultSet));
+            }
+            return list;
+        }
+    }
+
+    // reflective path as it was in DatabaseManager.getListFromResultSet
+    private static <T> List<T> mapReflection(Connection connection, String sql, Class<T> clazz) throws Exception {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            List<Class<?>> types = new ArrayList<>();
+            for (Field field : clazz.getDeclaredFields()) {
+                if (!field.isSynthetic()) {
+                    types.add(field.getType());
+                }
+            }
+            Constructor<T> constructor = clazz.getConstructor(types.toArray(new Class<?>[0]));
+            List<T> list = new ArrayList<>();
+            while (resultSet.next()) {
+                List<Object> values = new ArrayList<>();
+                for (Field field : clazz.getDeclaredFields()) {
+                    if (!Modifier.isTransient(field.getModifiers())) {
+                        switch (field.getGenericType().getTypeName()) {
+                            case "java.lang.String":
+                                values.add(resultSet.getString(field.getName()));
+                                break;
+                            case "java.lang.Boolean":
+                                values.add(resultSet.getBoolean(field.getName()));
+                                break;
+                        }
+                    }
+                }
+                list.add(constructor.newInstance(values.toArray()));
+            }
+            return list;
+        }
+    }
+}
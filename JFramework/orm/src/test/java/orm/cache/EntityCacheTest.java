@@ -0,0 +1,66 @@
+package orm.cache;
+
+import it.richkmeli.jframework.orm.cache.EntityCache;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EntityCacheTest {
+
+    private static List<Object> key(String value) {
+        return Collections.singletonList(value);
+    }
+
+    @Test
+    public void leastRecentlyUsed() {
+        EntityCache cache = EntityCache.getInstance("EntityCacheTest.lru", 2, 0);
+        cache.put(key("a"), new Object[]{"a"}, cache.getVersion());
+        cache.put(key("b"), new Object[]{"b"}, cache.getVersion());
+        assertNotNull(cache.get(key("a")));
+        cache.put(key("c"), new Object[]{"c"}, cache.getVersion());
+
+        assertNull(cache.get(key("b")));
+        assertNotNull(cache.get(key("a")));
+        assertNotNull(cache.get(key("c")));
+        assertEquals(2, cache.getStatistics().getSize());
+        assertEquals(1, cache.getStatistics().getEvictions());
+        assertEquals(3, cache.getStatistics().getHits());
+        assertEquals(1, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void arrayValues() {
+        EntityCache cache = EntityCache.getInstance("EntityCacheTest.arrays", 10, 0);
+        byte[] data = {1, 2};
+        cache.put(key("a"), new Object[]{"a", data}, cache.getVersion());
+        data[0] = 0;
+        ((byte[]) cache.get(key("a"))[1])[1] = 0;
+        // neither the array put nor the one read change the cached entity
+        assertArrayEquals(new byte[]{1, 2}, (byte[]) cache.get(key("a"))[1]);
+    }
+
+    @Test
+    public void expiration() throws InterruptedException {
+        EntityCache cache = EntityCache.getInstance("EntityCacheTest.ttl", 10, 50);
+        cache.put(key("a"), new Object[]{"a"}, cache.getVersion());
+        assertNotNull(cache.get(key("a")));
+        Thread.sleep(100);
+        assertNull(cache.get(key("a")));
+        assertEquals(1, cache.getStatistics().getExpirations());
+    }
+
+    @Test
+    public void invalidation() {
+        EntityCache cache = EntityCache.getInstance("EntityCacheTest.invalidation", 10, 0);
+        cache.put(key("a"), new Object[]{"a"}, cache.getVersion());
+        // a read started before the write must not store the old value
+        long version = cache.getVersion();
+        cache.invalidate(key("a"));
+        cache.put(key("a"), new Object[]{"old"}, version);
+        assertNull(cache.get(key("a")));
+        assertEquals(1, cache.getStatistics().getInvalidations());
+    }
+}
@@ -0,0 +1,129 @@
+package orm.cache;
+
+import it.richkmeli.jframework.orm.cache.ResidentTable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResidentTableTest {
+
+    /**
+     * Table of rows {id, group, change} read as a database would.
+     */
+    private static class TableLoader implements ResidentTable.Loader {
+        private final Map<String, Object[]> rows = new LinkedHashMap<>();
+        private int loadAll = 0;
+        private int loadChanged = 0;
+        private int loadByIds = 0;
+
+        private void put(String id, String group, long change) {
+            rows.put(id, new Object[]{id, group, change});
+        }
+
+        @Override
+        public List<Object[]> loadAll() {
+            loadAll++;
+            return new ArrayList<>(rows.values());
+        }
+
+        @Override
+        public List<Object[]> loadChanged(Object changeMarker) {
+            loadChanged++;
+            List<Object[]> changed = new ArrayList<>();
+            for (Object[] values : rows.values()) {
+                if ((Long) values[2] >= (Long) changeMarker) {
+                    changed.add(values);
+                }
+            }
+            return changed;
+        }
+
+        @Override
+        public List<Object[]> loadByIds(List<List<Object>> primaryKeys) {
+            loadByIds++;
+            List<Object[]> found = new ArrayList<>();
+            for (List<Object> primaryKey : primaryKeys) {
+                if (rows.containsKey(primaryKey.get(0))) {
+                    found.add(rows.get(primaryKey.get(0)));
+                }
+            }
+            return found;
+        }
+    }
+
+    private static List<Object> key(String value) {
+        return Collections.singletonList(value);
+    }
+
+    @Test
+    public void incrementalRefresh() throws Exception {
+        TableLoader loader = new TableLoader();
+        loader.put("a", "x", 1);
+        loader.put("b", "x", 2);
+        ResidentTable table = ResidentTable.getInstance("ResidentTableTest.incremental", new int[]{0}, new int[]{1}, 2, 50, 0, loader);
+        assertSame(table, ResidentTable.getInstance("ResidentTableTest.incremental"));
+
+        ResidentTable.Snapshot snapshot = table.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(2, snapshot.getByKey(1, "x").size());
+        assertTrue(snapshot.getByKey(1, "y").isEmpty());
+        assertNull(snapshot.getByKey(2, 1L));
+        // served from memory until refreshInterval
+        assertSame(snapshot, table.getSnapshot());
+        assertEquals(1, loader.loadAll);
+
+        // changed by another process: seen after refreshInterval, the old snapshot is unchanged
+        loader.put("b", "y", 3);
+        loader.put("c", "y", 3);
+        Thread.sleep(100);
+        ResidentTable.Snapshot refreshed = table.getSnapshot();
+        assertEquals(1, loader.loadAll);
+        assertEquals(1, loader.loadChanged);
+        assertEquals(3, refreshed.size());
+        assertEquals(2, refreshed.getByKey(1, "y").size());
+        assertEquals("x", snapshot.get(key("b"))[1]);
+
+        // nothing changed: the rows at the marker are read again, the snapshot keeps its rows
+        Thread.sleep(100);
+        ResidentTable.Snapshot unchanged = table.getSnapshot();
+        assertEquals(2, loader.loadChanged);
+        assertEquals(3, unchanged.size());
+        assertEquals(2, table.getStatistics().getChangedRows());
+
+        // written in this JVM: read again before the next read, deleted if not found
+        loader.rows.remove("a");
+        table.invalidate(key("a"));
+        assertNull(table.getSnapshot().get(key("a")));
+        assertEquals(1, loader.loadByIds);
+        assertEquals(3, table.getStatistics().getChangedRows());
+        assertEquals(1, table.getStatistics().getReloads());
+        assertEquals(3, table.getStatistics().getRefreshes());
+    }
+
+    @Test
+    public void reload() throws Exception {
+        TableLoader loader = new TableLoader();
+        loader.put("a", "x", 1);
+        // without a change column every refresh reads the whole table
+        ResidentTable table = ResidentTable.getInstance("ResidentTableTest.reload", new int[]{0}, new int[0], -1, 50, 0, loader);
+        assertEquals(1, table.getSnapshot().size());
+        loader.rows.clear();
+        Thread.sleep(100);
+        assertEquals(0, table.getSnapshot().size());
+        assertEquals(2, loader.loadAll);
+        assertEquals(0, loader.loadChanged);
+
+        table.clear();
+        assertEquals(-1, table.getStatistics().getAgeMillis());
+        loader.put("b", "x", 1);
+        assertArrayEquals(new Object[]{"b", "x", 1L}, table.getSnapshot().get(key("b")));
+        assertEquals(Arrays.asList(3, 0), Arrays.asList(loader.loadAll, loader.loadByIds));
+    }
+}
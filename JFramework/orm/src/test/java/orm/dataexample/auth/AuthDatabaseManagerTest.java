@@ -3,29 +3,60 @@ package orm.dataexample.auth;
 import it.richkmeli.jframework.crypto.Crypto;
 import it.richkmeli.jframework.orm.DatabaseException;
 import it.richkmeli.jframework.orm.DatabaseManager;
+import it.richkmeli.jframework.orm.pool.ReplicaRouter;
+import it.richkmeli.jframework.orm.transfer.TableFormat;
+import it.richkmeli.jframework.orm.transfer.TransferListener;
 import it.richkmeli.jframework.util.log.Logger;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public class AuthDatabaseManagerTest extends DatabaseManager implements AuthModelTest {
 
     public AuthDatabaseManagerTest(String database) throws DatabaseException {
         schemaName = "AuthSchema";
         tableName = schemaName + "." + "auth";
-        table = "(" +
-                "email VARCHAR(50) NOT NULL," +
-                "password VARCHAR(100) NOT NULL," +
-                "admin BOOLEAN NOT NULL " + ("mysql".equalsIgnoreCase(dbtype) ? "DEFAULT 0" : "") + "," +
-                "PRIMARY KEY (email)" +
-                ")";
-
-        init(database);
+        init(database, UserTest.class);
     }
 
     public AuthDatabaseManagerTest() throws DatabaseException {
         this(null);
     }
 
+    /**
+     * Reads from the replicas, the primary is the one of the database.
+     */
+    public AuthDatabaseManagerTest(String database, List<String> replicas, long readYourWritesWindow) throws DatabaseException {
+        this(database);
+        setReplicas(replicas, ReplicaRouter.Selection.ROUND_ROBIN);
+        this.readYourWritesWindow = readYourWritesWindow;
+    }
+
+    /**
+     * Users spread on the shards, instead of the database.
+     */
+    public AuthDatabaseManagerTest(String database, List<String> shards) throws DatabaseException {
+        schemaName = "AuthSchema";
+        tableName = schemaName + "." + "auth";
+        setShards(shards);
+        init(database, UserTest.class);
+    }
+
+    /**
+     * In-memory database created from the snapshot in the directory, if there is one.
+     */
+    public AuthDatabaseManagerTest(String database, String snapshotDirectory) throws DatabaseException {
+        schemaName = "AuthSchema";
+        tableName = schemaName + "." + "auth";
+        setSnapshotDirectory(snapshotDirectory);
+        init(database, UserTest.class);
+    }
+
     public List<UserTest> getAllUsers() throws DatabaseException {
         return readAll(UserTest.class);
     }
@@ -35,6 +66,50 @@ public class AuthDatabaseManagerTest extends DatabaseManager implements AuthMode
         return read(new UserTest(email, null));
     }
 
+    public List<UserTest> getUsers(int offset, int limit) throws DatabaseException {
+        return query(UserTest.class).orderBy("email").offset(offset).limit(limit).list();
+    }
+
+    public int rebalanceUsers() throws DatabaseException {
+        return rebalance(UserTest.class);
+    }
+
+    public Stream<UserTest> streamUsers() throws DatabaseException {
+        return stream(UserTest.class);
+    }
+
+    public long exportUsers(OutputStream outputStream, TableFormat format) throws DatabaseException {
+        return exportTable(UserTest.class, outputStream, format);
+    }
+
+    public long importUsers(InputStream inputStream, TableFormat format, int commitSize, TransferListener listener) throws DatabaseException {
+        return importTable(UserTest.class, inputStream, format, commitSize, listener);
+    }
+
+    public Map<Object, UserTest> getUsers(Collection<String> emails) throws DatabaseException {
+        return readAllByIds(UserTest.class, emails);
+    }
+
+    /**
+     * Users with their devices, one query for the devices of all of them.
+     */
+    public List<UserTest> getUsersWithDevices(List<UserTest> users) throws DatabaseException {
+        fetch(users, "devices");
+        return users;
+    }
+
+    public CompletableFuture<UserTest> getUserAsync(String email) {
+        return readAsync(new UserTest(email, null));
+    }
+
+    public CompletableFuture<List<UserTest>> getAllUsersAsync() {
+        return readAllAsync(UserTest.class);
+    }
+
+    public CompletableFuture<Boolean> editAdminAsync(String email, Boolean isAdmin) {
+        return updateAsync(new UserTest(email, null, isAdmin));
+    }
+
     public boolean addUser(UserTest user) throws DatabaseException {
         //Logger.info("AuthDatabaseManager, addUser. User: " + user.email);
         //String hash = Crypto.hash(user.getPassword());
@@ -43,13 +118,33 @@ public class AuthDatabaseManagerTest extends DatabaseManager implements AuthMode
         return create(user);
     }
 
+    public boolean addUsers(List<UserTest> users) throws DatabaseException {
+        for (UserTest user : users) {
+            user.setPassword(Crypto.hashPassword(user.getPassword(), false));
+        }
+        return createAll(users);
+    }
+
+    public boolean editUsers(List<UserTest> users) throws DatabaseException {
+        return updateAll(users);
+    }
+
+    public boolean removeUsers(List<UserTest> users) throws DatabaseException {
+        return deleteAll(users);
+    }
+
     public boolean removeUser(String email) throws DatabaseException {
         return super.delete(new UserTest(email, ""));
     }
 
 
     public boolean isUserPresent(String email) throws DatabaseException {
-        return getUser(email) != null;
+        return exists(new UserTest(email, null));
+    }
+
+    public boolean saveUser(UserTest user) throws DatabaseException {
+        user.setPassword(Crypto.hashPassword(user.getPassword(), false));
+        return upsert(user);
     }
 
     public boolean editPassword(String email, String pass) throws DatabaseException {
@@ -70,8 +165,15 @@ public class AuthDatabaseManagerTest extends DatabaseManager implements AuthMode
         }
     }
 
+    /**
+     * @return the user with only email and admin
+     */
+    public UserTest getUserAdmin(String email) throws DatabaseException {
+        return read(new UserTest(email, null), "admin");
+    }
+
     public boolean isAdmin(String email) throws DatabaseException {
-        UserTest user = getUser(email);
+        UserTest user = read(new UserTest(email, null), "admin");
         if (user != null) {
             return user.getAdmin();
         } else {
@@ -1,13 +1,26 @@
 package orm.dataexample.auth;
 
+import it.richkmeli.jframework.orm.annotation.Cacheable;
+import it.richkmeli.jframework.orm.annotation.Column;
 import it.richkmeli.jframework.orm.annotation.Id;
+import it.richkmeli.jframework.orm.annotation.OneToMany;
+import orm.dataexample.device.model.Device;
 
+import java.util.List;
+
+@Cacheable
 public class UserTest {
     // public for REFLECTION
     @Id
+    @Column(length = 50)
     private String email;
+    @Column(length = 100, nullable = false)
     private String password;
+    @Column(nullable = false)
     private Boolean admin;
+    // loaded on demand, see AuthDatabaseManagerTest.getUserDevices
+    @OneToMany(mappedBy = "associatedUser", table = "device")
+    private transient List<Device> devices;
 
     public UserTest(String email, String password, Boolean admin) {
         this.email = email;
@@ -44,4 +57,8 @@ public class UserTest {
     public void setAdmin(Boolean admin) {
         this.admin = admin;
     }
+
+    public List<Device> getDevices() {
+        return devices;
+    }
 }
@@ -2,31 +2,20 @@ package orm.dataexample.device;
 
 import it.richkmeli.jframework.orm.DatabaseException;
 import it.richkmeli.jframework.orm.DatabaseManager;
+import it.richkmeli.jframework.orm.OptimisticLockException;
 import orm.dataexample.device.model.Device;
 import orm.dataexample.device.model.DeviceModel;
 
-import java.util.ArrayList;
+import java.io.Reader;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class DeviceDatabaseManager extends DatabaseManager implements DeviceModel {
 
     public DeviceDatabaseManager(String database) throws DatabaseException {
         schemaName = "AuthSchema";
         tableName = schemaName + "." + "device";
-        table = "(" +
-                "name VARCHAR(50) NOT NULL," +
-                "ip VARCHAR(25) NOT NULL," +
-                "serverPort VARCHAR(10)," +
-                "lastConnection VARCHAR(25)," +
-                "encryptionKey VARCHAR(32)," +
-                "associatedUser VARCHAR(50)," +
-                "commands " + ("mysql".equalsIgnoreCase(dbtype) ? "TEXT" : "VARCHAR(1000)") + "," +
-                "commandsOutput " + ("mysql".equalsIgnoreCase(dbtype) ? "TEXT" : "VARCHAR(1000)") + "," +
-                "PRIMARY KEY (name)," +
-                "FOREIGN KEY (associatedUser) REFERENCES AuthSchema.auth(email) ON DELETE SET NULL" +
-                ")";
-
-        init(database);
+        init(database, Device.class);
 
     }
 
@@ -36,25 +25,23 @@ public class DeviceDatabaseManager extends DatabaseManager implements DeviceMode
     }
 
 
-    // TODO ORM aggiungi foreign keys
     public List<Device> getUserDevices(String user) throws DatabaseException {
-        List<Device> devices = readAll(Device.class);
-        if (devices != null) {
-            if (user != null) {
-                // filter user devices
-                List<Device> userDevices = new ArrayList<>();
-                for (Device device : devices) {
-                    if (device.getAssociatedUser().equalsIgnoreCase(user)) {
-                        userDevices.add(device);
-                    }
-                }
-                return userDevices;
-            } else {
-                // return all devices
-                return devices;
-            }
+        if (user != null) {
+            // user devices are filtered by the database
+            return query(Device.class).where("associatedUser", user).list();
         } else {
-            return null;
+            // return all devices
+            return readAll(Device.class);
+        }
+    }
+
+    public List<Device> getDevices(String ip, int offset, int limit) throws DatabaseException {
+        return query(Device.class).where("ip", ip).orderBy("name").offset(offset).limit(limit).list();
+    }
+
+    public Device getFirstDevice() throws DatabaseException {
+        try (Stream<Device> devices = stream(Device.class)) {
+            return devices.findFirst().orElse(null);
         }
     }
 
@@ -79,8 +66,17 @@ public class DeviceDatabaseManager extends DatabaseManager implements DeviceMode
         return delete(new Device(name, null, null, null, null, null, null, null));
     }
 
+    public String getLastConnection(String name) throws DatabaseException {
+        Device device = read(new Device(name, null, null, null, null, null, null, null), "lastConnection");
+        if (device != null) {
+            return device.getLastConnection();
+        } else {
+            return null;
+        }
+    }
+
     public String getEncryptionKey(String name) throws DatabaseException {
-        Device device = getDevice(name);
+        Device device = read(new Device(name, null, null, null, null, null, null, null), "encryptionKey");
         if (device != null) {
             return device.getEncryptionKey();
         } else {
@@ -88,12 +84,45 @@ public class DeviceDatabaseManager extends DatabaseManager implements DeviceMode
         }
     }
 
+    /**
+     * Written later by the write-behind buffer, with the other heartbeats.
+     */
+    public boolean setLastConnection(String deviceName, String lastConnection) throws DatabaseException {
+        return updateWriteBehind(new Device(deviceName, null, null, lastConnection, null, null, null, null));
+    }
+
+    public void flushLastConnections() throws DatabaseException {
+        flushWriteBehind(Device.class);
+    }
+
     public boolean editCommands(String deviceName, String commands) throws DatabaseException {
         return update(new Device(deviceName, null, null, null, null, null, commands, null));
     }
 
+    /**
+     * Appends a command to the ones of the device. If another client changes the device meanwhile, the device is
+     * read again and the command appended to the new commands.
+     */
+    public boolean addCommand(String deviceName, String command) throws DatabaseException {
+        for (int attempt = 1; ; attempt++) {
+            Device device = getDevice(deviceName);
+            if (device == null) {
+                return false;
+            }
+            String commands = device.getCommands();
+            device.setCommands(commands == null || commands.isEmpty() ? command : commands + "," + command);
+            try {
+                return update(device);
+            } catch (OptimisticLockException e) {
+                if (attempt >= 5) {
+                    throw e;
+                }
+            }
+        }
+    }
+
     public String getCommands(String deviceName) throws DatabaseException {
-        Device device = getDevice(deviceName);
+        Device device = read(new Device(deviceName, null, null, null, null, null, null, null), "commands");
         if (device != null) {
             return device.getCommands();
         } else {
@@ -106,7 +135,7 @@ public class DeviceDatabaseManager extends DatabaseManager implements DeviceMode
     }
 
     public String getCommandsOutput(String deviceName) throws DatabaseException {
-        Device device = getDevice(deviceName);
+        Device device = read(new Device(deviceName, null, null, null, null, null, null, null), "commandsOutput");
         if (device != null) {
             return device.getCommandsOutput();
         } else {
@@ -114,4 +143,11 @@ public class DeviceDatabaseManager extends DatabaseManager implements DeviceMode
         }
     }
 
+    /**
+     * Commands output read while it is consumed, the reader must be closed.
+     */
+    public Reader getCommandsOutputReader(String deviceName) throws DatabaseException {
+        return readCharacterStream(new Device(deviceName, null, null, null, null, null, null, null), "commandsOutput");
+    }
+
 }
\ No newline at end of file
@@ -1,17 +1,43 @@
 package orm.dataexample.device.model;
 
+import it.richkmeli.jframework.orm.annotation.Column;
+import it.richkmeli.jframework.orm.annotation.FetchType;
+import it.richkmeli.jframework.orm.annotation.ForeignKey;
 import it.richkmeli.jframework.orm.annotation.Id;
-
+import it.richkmeli.jframework.orm.annotation.Index;
+import it.richkmeli.jframework.orm.annotation.ManyToOne;
+import it.richkmeli.jframework.orm.annotation.Version;
+import it.richkmeli.jframework.orm.annotation.WriteBehind;
+import orm.dataexample.auth.UserTest;
+
+// lastConnection is updated on every heartbeat
+@WriteBehind(batchSize = 100, flushInterval = 500)
 public class Device {
     @Id
+    @Column(length = 50)
     private String name;
+    @Column(length = 25, nullable = false)
     private String ip;
+    @Column(length = 10)
     private String serverPort;
+    @Column(length = 25)
     private String lastConnection;
+    @Column(length = 32)
     private String encryptionKey;
+    @Column(length = 50)
+    @Index
+    @ForeignKey(table = "auth", column = "email", onDelete = "SET NULL")
     private String associatedUser;
+    @Column(length = 1000)
     private String commands;
+    @Column(length = 1000)
     private String commandsOutput;
+    // commands are read, changed and written back by more clients
+    @Version
+    private Integer version;
+    // loaded with the devices, one query for all their users
+    @ManyToOne(column = "associatedUser", table = "auth", fetch = FetchType.BATCH)
+    private transient UserTest user;
 
     public Device(String name, String ip, String serverPort, String lastConnection, String encryptionKey, String associatedUser, String commands, String commandsOutput) {
         this.name = name;
@@ -24,6 +50,11 @@ public class Device {
         this.commandsOutput = commandsOutput;
     }
 
+    public Device(String name, String ip, String serverPort, String lastConnection, String encryptionKey, String associatedUser, String commands, String commandsOutput, Integer version) {
+        this(name, ip, serverPort, lastConnection, encryptionKey, associatedUser, commands, commandsOutput);
+        this.version = version;
+    }
+
     public String getName() {
         return name;
     }
@@ -88,6 +119,14 @@ public class Device {
         this.commandsOutput = commandsOutput;
     }
 
+    public Integer getVersion() {
+        return version;
+    }
+
+    public UserTest getUser() {
+        return user;
+    }
+
     @Override
     public String toString() {
         String output = "";
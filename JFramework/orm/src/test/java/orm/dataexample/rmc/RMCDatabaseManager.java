@@ -3,6 +3,7 @@ package orm.dataexample.rmc;
 
 import it.richkmeli.jframework.orm.DatabaseException;
 import it.richkmeli.jframework.orm.DatabaseManager;
+import it.richkmeli.jframework.orm.cache.ResidentStatistics;
 import orm.dataexample.rmc.model.RMC;
 import orm.dataexample.rmc.model.RMCModel;
 
@@ -14,14 +15,7 @@ public class RMCDatabaseManager extends DatabaseManager implements RMCModel {
     public RMCDatabaseManager(String database) throws DatabaseException {
         schemaName = "AuthSchema";
         tableName = schemaName + "." + "rmc";
-        table = "(" +
-                "associatedUser VARCHAR(50)," +
-                "rmcId VARCHAR(68) NOT NULL," +
-                "PRIMARY KEY (associatedUser, rmcId)," +
-                "FOREIGN KEY (associatedUser) REFERENCES AuthSchema.auth(email) ON DELETE CASCADE" +
-                ")";
-
-        init(database);
+        init(database, RMC.class);
     }
 
     @Override
@@ -55,25 +49,18 @@ public class RMCDatabaseManager extends DatabaseManager implements RMCModel {
     }
 
 
+    public ResidentStatistics getResidentStatistics() throws DatabaseException {
+        return getResidentStatistics(RMC.class);
+    }
+
     public List<RMC> getRMCs() throws DatabaseException {
         return getRMCs("");
     }
 
     @Override
     public List<RMC> getRMCs(String user) throws DatabaseException {
-        List<RMC> rmcs = readAll(RMC.class);
-        if (rmcs != null) {
-            // filter user rmcs
-            List<RMC> userRmcs = new ArrayList<>();
-            for (RMC rmc : rmcs) {
-                if (rmc.getAssociatedUser().equalsIgnoreCase(user)) {
-                    userRmcs.add(rmc);
-                }
-            }
-            return userRmcs;
-        } else {
-            return null;
-        }
+        // user rmcs are read from the resident table
+        return readAllByKey(RMC.class, "associatedUser", user);
     }
 
     @Override
@@ -1,12 +1,19 @@
 package orm.dataexample.rmc.model;
 
+import it.richkmeli.jframework.orm.annotation.Column;
+import it.richkmeli.jframework.orm.annotation.ForeignKey;
 import it.richkmeli.jframework.orm.annotation.Id;
+import it.richkmeli.jframework.orm.annotation.Resident;
 
+@Resident(keys = "associatedUser")
 public class RMC {
 
     @Id
+    @Column(length = 50)
+    @ForeignKey(table = "auth", column = "email", onDelete = "CASCADE")
     private String associatedUser;
     @Id
+    @Column(length = 68)
     private String rmcId;
 
     public RMC(String associatedUser, String rmcId) {
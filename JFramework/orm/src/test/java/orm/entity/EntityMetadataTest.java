@@ -0,0 +1,98 @@
+package orm.entity;
+
+import it.richkmeli.jframework.orm.DatabaseException;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+import it.richkmeli.jframework.orm.entity.EntitySchema;
+import it.richkmeli.jframework.orm.entity.EntityStatements;
+import org.junit.Test;
+import orm.dataexample.auth.UserTest;
+import orm.dataexample.device.model.Device;
+import orm.dataexample.rmc.model.RMC;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class EntityMetadataTest {
+
+    @Test
+    public void metadata() throws DatabaseException {
+        EntityMetadata<Device> metadata = EntityMetadata.of(Device.class);
+        assertSame(metadata, EntityMetadata.of(Device.class));
+
+        assertEquals(9, metadata.getColumns().size());
+        assertEquals("name", metadata.getColumns().get(0).getName());
+        assertEquals(1, metadata.getPrimaryKey().size());
+        assertEquals("name", metadata.getPrimaryKey().get(0).getName());
+        assertEquals(3, metadata.getColumn("LASTCONNECTION").getIndex());
+        assertEquals("version", metadata.getVersion().getName());
+        assertNull(EntityMetadata.of(RMC.class).getVersion());
+
+        assertEquals(2, EntityMetadata.of(RMC.class).getPrimaryKey().size());
+
+        // transient relationship fields are not columns
+        assertEquals(1, metadata.getRelations().size());
+        assertEquals(UserTest.class, metadata.getRelation("user").getTargetType());
+        assertFalse(metadata.getRelation("user").isToMany());
+        assertEquals(Device.class, EntityMetadata.of(UserTest.class).getRelation("devices").getTargetType());
+        assertEquals(3, EntityMetadata.of(UserTest.class).getColumns().size());
+    }
+
+    @Test
+    public void statements() throws DatabaseException {
+        EntityStatements statements = EntityMetadata.of(RMC.class).getStatements("AuthSchema.rmc", "derby");
+        assertEquals("SELECT * FROM AuthSchema.rmc WHERE associatedUser = ? AND rmcId = ?", statements.getSelect());
+        assertEquals("DELETE FROM AuthSchema.rmc WHERE associatedUser = ? AND rmcId = ?", statements.getDelete());
+        assertEquals("INSERT  INTO AuthSchema.rmc (associatedUser, rmcId) VALUES (?,?)", statements.getInsert());
+
+        assertEquals("SELECT 1 FROM AuthSchema.rmc WHERE associatedUser = ? AND rmcId = ? FETCH FIRST 1 ROWS ONLY", statements.getExists());
+        assertEquals("MERGE INTO AuthSchema.rmc USING SYSIBM.SYSDUMMY1 ON associatedUser = ? AND rmcId = ? " +
+                "WHEN NOT MATCHED THEN INSERT (associatedUser, rmcId) VALUES (?,?)", statements.getUpsert());
+        assertArrayEquals(new int[]{0, 1, 0, 1}, statements.getUpsertColumns());
+        assertEquals("SELECT * FROM AuthSchema.rmc WHERE (associatedUser = ? AND rmcId = ?) OR (associatedUser = ? AND rmcId = ?)",
+                statements.getSelectByIds(2));
+        assertEquals("SELECT * FROM AuthSchema.device WHERE name IN (?,?,?,?)",
+                EntityMetadata.of(Device.class).getStatements("AuthSchema.device", "derby").getSelectByIds(4));
+
+        BitSet projection = new BitSet();
+        projection.set(0);
+        projection.set(4);
+        assertEquals("SELECT name, encryptionKey FROM AuthSchema.device WHERE name = ?",
+                EntityMetadata.of(Device.class).getStatements("AuthSchema.device", "derby").getSelect(projection));
+
+        EntityStatements deviceStatements = EntityMetadata.of(Device.class).getStatements("AuthSchema.device", "mysql");
+        BitSet valorized = new BitSet();
+        valorized.set(4);
+        valorized.set(6);
+        String update = deviceStatements.getUpdate(valorized);
+        assertEquals("UPDATE AuthSchema.device SET encryptionKey = ?, commands = ?, version = version + 1 WHERE name = ?", update);
+        assertSame(update, deviceStatements.getUpdate(valorized));
+        assertEquals("UPDATE AuthSchema.device SET encryptionKey = ?, commands = ?, version = version + 1 WHERE name = ? AND version = ?",
+                deviceStatements.getUpdate(valorized, true));
+        assertTrue(deviceStatements.getUpsert().endsWith("ON DUPLICATE KEY UPDATE ip = VALUES(ip), serverPort = VALUES(serverPort), " +
+                "lastConnection = VALUES(lastConnection), encryptionKey = VALUES(encryptionKey), associatedUser = VALUES(associatedUser), " +
+                "commands = VALUES(commands), commandsOutput = VALUES(commandsOutput), version = version + 1"));
+    }
+
+    @Test
+    public void schema() throws DatabaseException {
+        EntitySchema derby = new EntitySchema(EntityMetadata.of(Device.class), "AuthSchema.device", "derby");
+        assertEquals("(name VARCHAR(50) NOT NULL,ip VARCHAR(25) NOT NULL,serverPort VARCHAR(10),lastConnection VARCHAR(25)," +
+                "encryptionKey VARCHAR(32),associatedUser VARCHAR(50),commands VARCHAR(1000),commandsOutput VARCHAR(1000)," +
+                "version INTEGER DEFAULT 0 NOT NULL,PRIMARY KEY (name),FOREIGN KEY (associatedUser) REFERENCES AuthSchema.auth(email) ON DELETE SET NULL)", derby.getTable());
+        assertEquals(1, derby.getIndexes().size());
+        assertEquals("CREATE INDEX AuthSchema.idx_device_associatedUser ON AuthSchema.device (associatedUser)", derby.getIndexes().get(0));
+
+        EntitySchema mysql = new EntitySchema(EntityMetadata.of(Device.class), "AuthSchema.device", "mysql");
+        assertEquals("CREATE INDEX idx_device_associatedUser ON AuthSchema.device (associatedUser)", mysql.getIndexes().get(0));
+
+        EntitySchema rmc = new EntitySchema(EntityMetadata.of(RMC.class), "AuthSchema.rmc", "derby");
+        assertEquals("(associatedUser VARCHAR(50) NOT NULL,rmcId VARCHAR(68) NOT NULL,PRIMARY KEY (associatedUser, rmcId)," +
+                "FOREIGN KEY (associatedUser) REFERENCES AuthSchema.auth(email) ON DELETE CASCADE)", rmc.getTable());
+
+        EntitySchema types = new EntitySchema(EntityMetadata.of(TypesEntity.class), "types", "mysql");
+        assertTrue(types.getTable().startsWith("(id INTEGER NOT NULL,counter BIGINT NOT NULL,ratio DOUBLE NOT NULL,enabled BOOLEAN NOT NULL,"));
+        assertTrue(types.getTable().contains("amount DECIMAL(19,4),created DATETIME(3),updated DATETIME(3),data VARBINARY(255),state VARCHAR(255)"));
+        assertTrue(types.getIndexes().isEmpty());
+    }
+}
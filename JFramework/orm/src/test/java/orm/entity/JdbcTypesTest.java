@@ -0,0 +1,103 @@
+package orm.entity;
+
+import it.richkmeli.jframework.orm.entity.EntityMapper;
+import it.richkmeli.jframework.orm.entity.EntityMetadata;
+import it.richkmeli.jframework.orm.entity.GeneratedEntityMapper;
+import it.richkmeli.jframework.orm.entity.MethodHandleEntityMapper;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JdbcTypesTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        roundTrip(EntityMetadata.of(TypesEntity.class).getMapper());
+    }
+
+    @Test
+    public void generatedMapper() throws Exception {
+        // written by EntityMapperProcessor while compiling the tests
+        EntityMapper<TypesEntity> mapper = EntityMetadata.of(TypesEntity.class).getMapper();
+        assertTrue(mapper instanceof GeneratedEntityMapper);
+        assertEquals("orm.entity.TypesEntity_EntityMapper", mapper.getClass().getName());
+
+        roundTrip(new MethodHandleEntityMapper<>(EntityMetadata.of(TypesEntity.class)));
+    }
+
+    private void roundTrip(EntityMapper<TypesEntity> mapper) throws Exception {
+        Instant now = Instant.ofEpochMilli(1540000000123L);
+        TypesEntity full = new TypesEntity(1, 1L << 40, 0.5, true, 7, 1L << 50, 2.25, true,
+                new BigDecimal("1234.56"), now, Timestamp.from(now), new byte[]{1, 2, 3}, TypesEntity.State.DISABLED);
+        TypesEntity empty = new TypesEntity(2, 0, 0, false, null, null, null, null, null, null, null, null, null);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:memory:JdbcTypesTest;create=true")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE types (id INTEGER NOT NULL, counter BIGINT, ratio DOUBLE, enabled BOOLEAN, " +
+                        "size INTEGER, total BIGINT, score DOUBLE, admin BOOLEAN, amount DECIMAL(10,2), created TIMESTAMP, " +
+                        "updated TIMESTAMP, data VARCHAR(16) FOR BIT DATA, state VARCHAR(20), PRIMARY KEY (id))");
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    EntityMetadata.of(TypesEntity.class).getStatements("types", "derby").getInsert())) {
+                for (TypesEntity entity : new TypesEntity[]{full, empty}) {
+                    for (int i = 0; i < EntityMetadata.of(TypesEntity.class).getColumns().size(); i++) {
+                        mapper.bind(preparedStatement, i + 1, entity, i);
+                    }
+                    preparedStatement.executeUpdate();
+                }
+            }
+
+            List<TypesEntity> entities = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT * FROM types ORDER BY id")) {
+                while (resultSet.next()) {
+                    entities.add(mapper.map(resultSet));
+                }
+            }
+
+            TypesEntity read = entities.get(0);
+            assertEquals(1, read.getId());
+            assertEquals(1L << 40, read.getCounter());
+            assertEquals(0.5, read.getRatio(), 0);
+            assertTrue(read.getEnabled());
+            assertEquals(Integer.valueOf(7), read.getSize());
+            assertEquals(Long.valueOf(1L << 50), read.getTotal());
+            assertEquals(2.25, read.getScore(), 0);
+            assertTrue(read.getAdmin());
+            assertEquals(new BigDecimal("1234.56"), read.getAmount());
+            assertEquals(now, read.getCreated());
+            assertEquals(Timestamp.from(now), read.getUpdated());
+            assertArrayEquals(new byte[]{1, 2, 3}, read.getData());
+            assertEquals(TypesEntity.State.DISABLED, read.getState());
+
+            // SQL NULL is read as null, not as 0 or false
+            read = entities.get(1);
+            assertNull(read.getSize());
+            assertNull(read.getTotal());
+            assertNull(read.getScore());
+            assertNull(read.getAdmin());
+            assertNull(read.getAmount());
+            assertNull(read.getCreated());
+            assertNull(read.getUpdated());
+            assertNull(read.getData());
+            assertNull(read.getState());
+        } finally {
+            try {
+                DriverManager.getConnection("jdbc:derby:memory:JdbcTypesTest;drop=true");
+            } catch (Exception e) {
+                // drop always reports success with an exception
+            }
+        }
+    }
+}
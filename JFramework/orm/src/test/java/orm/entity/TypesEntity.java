@@ -0,0 +1,95 @@
+package orm.entity;
+
+import it.richkmeli.jframework.orm.annotation.Id;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+public class TypesEntity {
+    public enum State {ACTIVE, DISABLED}
+
+    @Id
+    private int id;
+    private long counter;
+    private double ratio;
+    private boolean enabled;
+    private Integer size;
+    private Long total;
+    private Double score;
+    private Boolean admin;
+    private BigDecimal amount;
+    private Instant created;
+    private Timestamp updated;
+    private byte[] data;
+    private State state;
+
+    public TypesEntity(int id, long counter, double ratio, boolean enabled, Integer size, Long total, Double score,
+                       Boolean admin, BigDecimal amount, Instant created, Timestamp updated, byte[] data, State state) {
+        this.id = id;
+        this.counter = counter;
+        this.ratio = ratio;
+        this.enabled = enabled;
+        this.size = size;
+        this.total = total;
+        this.score = score;
+        this.admin = admin;
+        this.amount = amount;
+        this.created = created;
+        this.updated = updated;
+        this.data = data;
+        this.state = state;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getCounter() {
+        return counter;
+    }
+
+    public double getRatio() {
+        return ratio;
+    }
+
+    public boolean getEnabled() {
+        return enabled;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public Double getScore() {
+        return score;
+    }
+
+    public Boolean getAdmin() {
+        return admin;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public Timestamp getUpdated() {
+        return updated;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public State getState() {
+        return state;
+    }
+}
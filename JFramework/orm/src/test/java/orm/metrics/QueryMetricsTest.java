@@ -0,0 +1,68 @@
+package orm.metrics;
+
+import it.richkmeli.jframework.orm.metrics.LatencyHistogram;
+import it.richkmeli.jframework.orm.metrics.LatencyStatistics;
+import it.richkmeli.jframework.orm.metrics.QueryMetrics;
+import it.richkmeli.jframework.orm.metrics.QueryStatistics;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class QueryMetricsTest {
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        LatencyStatistics statistics = histogram.getStatistics();
+        assertEquals(1000, statistics.getCount());
+        assertEquals(500, statistics.getMeanMicros());
+        assertEquals(1000, statistics.getMaxMicros());
+        // reported as the upper bound of the bucket, at most 25% above
+        assertTrue(statistics.getP50Micros() >= 500 && statistics.getP50Micros() <= 625);
+        assertTrue(statistics.getP95Micros() >= 950 && statistics.getP95Micros() <= 1000);
+        assertTrue(statistics.getP99Micros() >= 990 && statistics.getP99Micros() <= 1000);
+
+        LatencyStatistics empty = new LatencyHistogram().getStatistics();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getP99Micros());
+    }
+
+    @Test
+    public void record() {
+        QueryMetrics metrics = QueryMetrics.getInstance("QueryMetricsTest");
+        assertSame(metrics, QueryMetrics.getInstance("QueryMetricsTest"));
+        metrics.reset();
+        assertNull(metrics.getStatistics("table", QueryMetrics.Operation.READ));
+
+        metrics.record("table", QueryMetrics.Operation.READ, 1000, 2000000, 3, false, false);
+        metrics.record("table", QueryMetrics.Operation.READ, 1000, 4000000, 0, true, true);
+        metrics.record("table", QueryMetrics.Operation.UPDATE, 0, 1000000, 1, false, false);
+
+        QueryStatistics read = metrics.getStatistics("table", QueryMetrics.Operation.READ);
+        assertEquals(2, read.getCount());
+        assertEquals(1, read.getErrors());
+        assertEquals(1, read.getSlow());
+        assertEquals(3, read.getRows());
+        assertEquals(1, read.getAcquire().getMaxMicros());
+        assertEquals(4000, read.getExecution().getMaxMicros());
+        assertEquals(2, metrics.getStatistics().size());
+
+        metrics.reset();
+        assertTrue(metrics.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void shape() {
+        assertEquals("SELECT * FROM t WHERE name = ? AND id = ?",
+                QueryMetrics.getShape("SELECT * FROM t WHERE name = 'o''brien' AND id = 42"));
+        assertEquals("SELECT * FROM t WHERE id IN (?, ...)", QueryMetrics.getShape("SELECT * FROM t WHERE id IN (?, ?, ?)"));
+        assertEquals("SELECT * FROM t WHERE id IN (?, ...)", QueryMetrics.getShape("SELECT * FROM t WHERE id IN (1, 2.5, 3)"));
+        // identifiers with digits are kept
+        assertEquals("SELECT col1 FROM t2 WHERE a = ?", QueryMetrics.getShape("SELECT col1 FROM t2 WHERE a = ?"));
+    }
+}
@@ -0,0 +1,112 @@
+package orm.pool;
+
+import it.richkmeli.jframework.orm.pool.ConnectionPool;
+import it.richkmeli.jframework.orm.pool.PoolConfiguration;
+import it.richkmeli.jframework.orm.pool.PoolStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+    private static final String URL = "jdbc:derby:memory:PoolTest;create=true";
+    private ConnectionPool connectionPool;
+
+    @Before
+    public void setUp() {
+        PoolConfiguration configuration = new PoolConfiguration();
+        configuration.setMinSize(0);
+        configuration.setMaxSize(2);
+        configuration.setAcquireTimeout(200);
+        configuration.setValidationQuery("VALUES 1");
+        connectionPool = ConnectionPool.getInstance(URL, "root", "richk", configuration);
+    }
+
+    @After
+    public void tearDown() {
+        connectionPool.close();
+    }
+
+    @Test
+    public void sharedInstance() {
+        // same settings in another instance: same pool
+        PoolConfiguration configuration = new PoolConfiguration();
+        configuration.setMinSize(0);
+        configuration.setMaxSize(2);
+        configuration.setAcquireTimeout(200);
+        configuration.setValidationQuery("VALUES 1");
+        assertSame(connectionPool, ConnectionPool.getInstance(URL, "root", "richk", configuration));
+        // other settings: the pool keeps its own
+        configuration.setMaxSize(5);
+        assertSame(connectionPool, ConnectionPool.getInstance(URL, "root", "richk", configuration));
+        assertEquals(2, connectionPool.getConfiguration().getMaxSize());
+        try {
+            ConnectionPool.getInstance(URL, "root", "other", configuration);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void reuseConnection() throws SQLException {
+        Connection connection = connectionPool.getConnection();
+        Connection physical = connection.getMetaData().getConnection();
+        connection.close();
+        assertTrue(connection.isClosed());
+
+        Connection connection2 = connectionPool.getConnection();
+        assertSame(physical, connection2.getMetaData().getConnection());
+        connection2.close();
+
+        PoolStatistics statistics = connectionPool.getStatistics();
+        assertEquals(1, statistics.getCreated());
+        assertEquals(2, statistics.getBorrowed());
+        assertEquals(0, statistics.getActive());
+        assertEquals(1, statistics.getIdle());
+    }
+
+    @Test
+    public void acquireTimeout() throws SQLException {
+        Connection connection1 = connectionPool.getConnection();
+        Connection connection2 = connectionPool.getConnection();
+        try {
+            connectionPool.getConnection();
+            fail();
+        } catch (SQLTimeoutException e) {
+            assertEquals(1, connectionPool.getStatistics().getTimeouts());
+        }
+        connection1.close();
+        connectionPool.getConnection().close();
+        connection2.close();
+        assertEquals(2, connectionPool.getStatistics().getTotal());
+    }
+
+    @Test
+    public void closeTwice() throws SQLException {
+        Connection connection = connectionPool.getConnection();
+        connection.close();
+        Connection connection2 = connectionPool.getConnection();
+        // a stale reference must not give back a connection borrowed by someone else
+        connection.close();
+        assertEquals(1, connectionPool.getStatistics().getActive());
+        assertFalse(connection2.isClosed());
+        connection2.close();
+    }
+
+    @Test
+    public void rollbackOnRelease() throws SQLException {
+        Connection connection = connectionPool.getConnection();
+        connection.setAutoCommit(false);
+        connection.close();
+
+        Connection connection2 = connectionPool.getConnection();
+        assertTrue(connection2.getAutoCommit());
+        connection2.close();
+    }
+}
@@ -0,0 +1,54 @@
+package orm.pool;
+
+import it.richkmeli.jframework.orm.pool.ConnectionPool;
+import it.richkmeli.jframework.orm.pool.PoolConfiguration;
+import it.richkmeli.jframework.orm.pool.ReplicaRouter;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ReplicaRouterTest {
+
+    private static ConnectionPool getPool(String name) {
+        PoolConfiguration configuration = new PoolConfiguration();
+        configuration.setMinSize(0);
+        configuration.setMaxSize(2);
+        configuration.setValidationQuery("VALUES 1");
+        return ConnectionPool.getInstance("jdbc:derby:memory:" + name + ";create=true", "root", "richk", configuration);
+    }
+
+    @Test
+    public void roundRobin() {
+        ConnectionPool first = getPool("ReplicaRouterTest1");
+        ConnectionPool second = getPool("ReplicaRouterTest2");
+        ReplicaRouter router = ReplicaRouter.getInstance(Arrays.asList(first, second), ReplicaRouter.Selection.ROUND_ROBIN);
+        assertSame(router, ReplicaRouter.getInstance(Arrays.asList(first, second), ReplicaRouter.Selection.ROUND_ROBIN));
+
+        ConnectionPool selected = router.select();
+        assertNotSame(selected, router.select());
+        assertSame(selected, router.select());
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void leastLoaded() throws SQLException {
+        ConnectionPool first = getPool("ReplicaRouterTest3");
+        ConnectionPool second = getPool("ReplicaRouterTest4");
+        ReplicaRouter router = ReplicaRouter.getInstance(Arrays.asList(first, second), ReplicaRouter.Selection.LEAST_LOADED);
+        try (Connection connection = first.getConnection()) {
+            for (int i = 0; i < 4; i++) {
+                assertSame(second, router.select());
+            }
+        }
+        try (Connection connection = second.getConnection()) {
+            assertSame(first, router.select());
+        }
+        first.close();
+        second.close();
+    }
+}
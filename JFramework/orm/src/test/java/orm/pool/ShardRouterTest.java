@@ -0,0 +1,55 @@
+package orm.pool;
+
+import it.richkmeli.jframework.orm.pool.ConnectionPool;
+import it.richkmeli.jframework.orm.pool.PoolConfiguration;
+import it.richkmeli.jframework.orm.pool.ShardRouter;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardRouterTest {
+
+    private static ConnectionPool getPool(String name) {
+        PoolConfiguration configuration = new PoolConfiguration();
+        configuration.setMinSize(0);
+        configuration.setMaxSize(2);
+        configuration.setValidationQuery("VALUES 1");
+        return ConnectionPool.getInstance("jdbc:derby:memory:" + name + ";create=true", "root", "richk", configuration);
+    }
+
+    @Test
+    public void consistentHashing() {
+        ConnectionPool first = getPool("ShardRouterTest1");
+        ConnectionPool second = getPool("ShardRouterTest2");
+        ConnectionPool third = getPool("ShardRouterTest3");
+        ShardRouter router = ShardRouter.getInstance(Arrays.asList(first, second));
+        assertSame(router, ShardRouter.getInstance(Arrays.asList(first, second)));
+        ShardRouter resharded = ShardRouter.getInstance(Arrays.asList(first, second, third));
+
+        int keys = 1000;
+        Map<ConnectionPool, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            ConnectionPool shard = router.getShard(Collections.singletonList("user" + i + "@i.it"));
+            assertSame(shard, router.getShard(Collections.singletonList("user" + i + "@i.it")));
+            counts.merge(shard, 1, Integer::sum);
+            ConnectionPool newShard = resharded.getShard(Collections.singletonList("user" + i + "@i.it"));
+            if (newShard != shard) {
+                // only to the new shard
+                assertSame(third, newShard);
+                moved++;
+            }
+        }
+        // keys are spread on both shards, about a third of them moves to the new one
+        assertTrue(counts.get(first) > keys / 4 && counts.get(second) > keys / 4);
+        assertTrue(moved > keys / 6 && moved < keys / 2);
+        first.close();
+        second.close();
+        third.close();
+    }
+}
@@ -0,0 +1,103 @@
+package orm.transfer;
+
+import it.richkmeli.jframework.orm.transfer.TableFormat;
+import it.richkmeli.jframework.orm.transfer.TableReader;
+import it.richkmeli.jframework.orm.transfer.TableWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TableFormatTest {
+    private static final List<String> COLUMNS = Arrays.asList("text", "flag", "number", "amount", "created", "updated", "data", "unit", "ratio");
+    private static final Class<?>[] TYPES = {String.class, boolean.class, Long.class, BigDecimal.class, Timestamp.class,
+            Instant.class, byte[].class, TimeUnit.class, double.class};
+
+    private static byte[] write(TableFormat format, Object[]... rows) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TableWriter writer = format.newWriter(outputStream);
+        writer.writeHeader(COLUMNS);
+        for (Object[] row : rows) {
+            writer.writeRow(row);
+        }
+        writer.flush();
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Timestamp timestamp = Timestamp.valueOf("2024-02-29 12:30:45.123456789");
+        Object[] full = {"a, \"quoted\"\r\nline", true, Long.MAX_VALUE, new BigDecimal("-12345.678900"), timestamp,
+                Instant.ofEpochSecond(1700000000, 42), new byte[]{0, 1, -1}, TimeUnit.SECONDS, 0.1};
+        Object[] empty = {"", false, null, null, null, null, new byte[0], null, -0.5};
+        Object[] nulls = new Object[COLUMNS.size()];
+        for (TableFormat format : TableFormat.values()) {
+            TableReader reader = format.newReader(new ByteArrayInputStream(write(format, full, empty, nulls)));
+            assertEquals(COLUMNS, reader.readHeader());
+            assertRow(full, reader.readRow(TYPES));
+            // the empty string is not NULL
+            assertRow(empty, reader.readRow(TYPES));
+            assertRow(nulls, reader.readRow(TYPES));
+            assertNull(reader.readRow(TYPES));
+        }
+    }
+
+    private static void assertRow(Object[] expected, Object[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] instanceof byte[]) {
+                assertArrayEquals((byte[]) expected[i], (byte[]) actual[i]);
+            } else {
+                assertEquals(expected[i], actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void malformed() throws IOException {
+        String header = String.join(",", COLUMNS) + "\r\n";
+        for (String row : Arrays.asList("a,true,1\r\n", "a,yes,1,1,,,,,1\r\n", "a,true,x,1,,,,,1\r\n", "\"a\"b,true,1,1,,,,,1\r\n",
+                "\"a,true,1,1,,,,,1\r\n", "a,true,1,1,,,,DAYS_,1\r\n")) {
+            TableReader reader = TableFormat.CSV.newReader(new ByteArrayInputStream((header + row).getBytes(StandardCharsets.UTF_8)));
+            reader.readHeader();
+            try {
+                reader.readRow(TYPES);
+                fail(row);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+
+        // a binary row with a type different from the column one, and one truncated
+        byte[] binary = write(TableFormat.BINARY, new Object[]{"a", true, 1L, null, null, null, null, null, 1.0});
+        Class<?>[] types = TYPES.clone();
+        types[2] = int.class;
+        for (int truncate = 0; truncate < 2; truncate++) {
+            TableReader reader = TableFormat.BINARY.newReader(new ByteArrayInputStream(truncate == 0 ? binary : Arrays.copyOf(binary, binary.length - 4)));
+            reader.readHeader();
+            try {
+                reader.readRow(truncate == 0 ? types : TYPES);
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+        }
+
+        try {
+            TableFormat.BINARY.newReader(new ByteArrayInputStream(header.getBytes(StandardCharsets.UTF_8))).readHeader();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}